@@ -0,0 +1,151 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.BufferedBlockCipherBean;
+import org.cryptacular.bean.CipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.cryptacular.spec.BufferedBlockCipherSpec;
+
+/**
+ * Fixtures shared by benchmarks: cipher beans wired like those in <code>EncryptedTranscoderTest</code> and
+ * synthetic payloads that resemble flow scope contents.
+ *
+ * @author Marvin S. Addison
+ */
+public final class BenchmarkSupport {
+
+    /** Keystore used by the unit tests; benchmarks must be run from the project base directory. */
+    public static final String KEYSTORE_PATH = "src/test/resources/test-keystore.jceks";
+
+    private static final String[] WORDS = {
+        "flow", "state", "view", "conversation", "scope", "attribute", "principal", "service", "ticket",
+        "username", "password", "credential", "authentication", "warning", "message", "locale", "theme",
+    };
+
+    private BenchmarkSupport() {}
+
+    /**
+     * Creates a cipher bean for the given mode using the test keystore.
+     *
+     * @param mode Either <code>GCM</code> or <code>CBC</code>.
+     *
+     * @return New cipher bean.
+     */
+    public static CipherBean newCipherBean(final String mode) {
+        return newCipherBean(mode, false);
+    }
+
+    /**
+     * Creates a cipher bean for the given mode using the test keystore.
+     *
+     * @param mode Either <code>GCM</code> or <code>CBC</code>.
+     * @param cached True for the caching implementations of this project, false for the cryptacular ones.
+     *
+     * @return New cipher bean.
+     */
+    public static CipherBean newCipherBean(final String mode, final boolean cached) {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File(KEYSTORE_PATH)));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        if ("GCM".equals(mode)) {
+            final AEADBlockCipherBean cipherBean = cached
+                    ? new CachedAEADBlockCipherBean() : new AEADBlockCipherBean();
+            cipherBean.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+            cipherBean.setKeyStore(ksFactory.newInstance());
+            cipherBean.setKeyAlias("aes128");
+            cipherBean.setKeyPassword("changeit");
+            cipherBean.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+            return cipherBean;
+        } else if ("CBC".equals(mode)) {
+            final BufferedBlockCipherBean cipherBean = cached
+                    ? new CachedBufferedBlockCipherBean() : new BufferedBlockCipherBean();
+            cipherBean.setBlockCipherSpec(new BufferedBlockCipherSpec("AES", "CBC", "PKCS7"));
+            cipherBean.setKeyStore(ksFactory.newInstance());
+            cipherBean.setKeyAlias("aes128");
+            cipherBean.setKeyPassword("changeit");
+            cipherBean.setNonce(new org.cryptacular.generator.sp80038a.RBGNonce());
+            return cipherBean;
+        }
+        throw new IllegalArgumentException("Unsupported cipher mode " + mode);
+    }
+
+    /**
+     * Creates an encrypted transcoder for the given cipher mode.
+     *
+     * @param mode Either <code>GCM</code> or <code>CBC</code>, or <code>HMAC</code> for an unencrypted
+     * {@link HmacTranscoder}.
+     * @param compression True to enable compression, false otherwise.
+     *
+     * @return New transcoder.
+     */
+    public static EncryptedTranscoder newTranscoder(final String mode, final boolean compression) {
+        final EncryptedTranscoder transcoder;
+        if ("HMAC".equals(mode)) {
+            final HmacTranscoder hmacTranscoder = new HmacTranscoder();
+            hmacTranscoder.setKey(new SecretKeySpec(new byte[32], HmacTranscoder.DEFAULT_ALGORITHM));
+            transcoder = hmacTranscoder;
+        } else {
+            transcoder = new EncryptedTranscoder();
+            transcoder.setCipherBean(newCipherBean(mode));
+        }
+        transcoder.setCompression(compression);
+        return transcoder;
+    }
+
+    /**
+     * Creates a map of attributes whose serialized size is approximately the given number of bytes. The content is a
+     * mix of repetitive text and random tokens, which compresses roughly like real flow scope data.
+     *
+     * @param size Approximate serialized size in bytes.
+     *
+     * @return Serializable payload.
+     */
+    public static Serializable newPayload(final int size) {
+        final Random random = new Random(size);
+        final LinkedHashMap<String, Serializable> map = new LinkedHashMap<String, Serializable>();
+        int remaining = size;
+        int i = 0;
+        while (remaining > 0) {
+            final int length = Math.min(remaining, 64 + random.nextInt(448));
+            final StringBuilder value = new StringBuilder(length);
+            if (i % 3 == 0) {
+                while (value.length() < length) {
+                    value.append(Long.toString(random.nextLong() & Long.MAX_VALUE, Character.MAX_RADIX));
+                }
+            } else {
+                while (value.length() < length) {
+                    value.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+            }
+            value.setLength(length);
+            final String key = "attribute" + i++;
+            map.put(key, value.toString());
+            remaining -= length + key.length() + 10;
+        }
+        return map;
+    }
+}
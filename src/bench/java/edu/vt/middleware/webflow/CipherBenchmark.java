@@ -0,0 +1,81 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptacular.bean.CipherBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-operation cost of the cryptacular cipher beans wired in <code>webflow-config-context.xml</code>
+ * with that of {@link CachedAEADBlockCipherBean} and {@link CachedBufferedBlockCipherBean}.
+ *
+ * @author Marvin S. Addison
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+
+    @Param({"256", "4096"})
+    private int payloadSize;
+
+    @Param({"GCM", "CBC"})
+    private String cipherMode;
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private CipherBean cipherBean;
+
+    private byte[] plaintext;
+
+    private byte[] ciphertext;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        this.cipherBean = BenchmarkSupport.newCipherBean(this.cipherMode, this.cached);
+        this.plaintext = new byte[this.payloadSize];
+        new Random(this.payloadSize).nextBytes(this.plaintext);
+        this.ciphertext = this.cipherBean.encrypt(this.plaintext);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return this.cipherBean.encrypt(this.plaintext);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return this.cipherBean.decrypt(this.ciphertext);
+    }
+}
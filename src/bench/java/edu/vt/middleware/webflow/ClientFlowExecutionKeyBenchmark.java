@@ -0,0 +1,120 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ClientFlowExecutionKey#parse(String)}, {@link ClientFlowExecutionKey#toString()} and
+ * {@link ClientFlowExecutionKey#writeTo(Writer)} for keys in either form carrying encoded state of various sizes.
+ *
+ * @author Marvin S. Addison
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientFlowExecutionKeyBenchmark {
+
+    @Param({"256", "1024", "8192", "32768", "102400"})
+    private int dataSize;
+
+    @Param({"false", "true"})
+    private boolean compact;
+
+    private ClientFlowExecutionKey key;
+
+    private String encodedKey;
+
+
+    @Setup
+    public void setUp() {
+        final byte[] data = new byte[this.dataSize];
+        new Random(this.dataSize).nextBytes(data);
+        this.key = new ClientFlowExecutionKey(UUID.randomUUID(), data, this.compact);
+        this.encodedKey = this.key.toString();
+    }
+
+    @Benchmark
+    public ClientFlowExecutionKey parse() throws Exception {
+        return ClientFlowExecutionKey.parse(this.encodedKey);
+    }
+
+    /** Renders a new key each time since keys cache their string form. */
+    @Benchmark
+    public String render() {
+        return new ClientFlowExecutionKey(this.key.getId(), this.key.getData(), this.compact).toString();
+    }
+
+    /** Streams a new key to a writer that discards its input, as a view writing to a response would. */
+    @Benchmark
+    public Writer renderToWriter() throws IOException {
+        final Writer writer = new NullWriter();
+        new ClientFlowExecutionKey(this.key.getId(), this.key.getData(), this.compact).writeTo(writer);
+        return writer;
+    }
+
+    @Benchmark
+    public int parseAndHash() throws Exception {
+        return ClientFlowExecutionKey.parse(this.encodedKey).hashCode();
+    }
+
+    @Benchmark
+    public byte[] parseAndDecode() throws Exception {
+        return ClientFlowExecutionKey.parse(this.encodedKey).getData();
+    }
+
+
+    /** Counts written characters without retaining them. */
+    private static final class NullWriter extends Writer {
+
+        private long count;
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            this.count += len;
+        }
+
+        @Override
+        public void write(final String str) {
+            this.count += str.length();
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+/**
+ * Distribution of non-negative values with a relative error of about 3%, in the manner of HdrHistogram. Each power of
+ * two range is divided into 32 buckets, so memory use is fixed regardless of the number of recorded values, which
+ * suits soak runs. Unlike {@link Histogram}, whose percentiles are only accurate to a factor of two, this resolves the
+ * differences in tail latency that load tests look for. Instances are not thread safe; record per thread and
+ * {@link #add(Distribution) merge}.
+ *
+ * @author Marvin S. Addison
+ */
+public final class Distribution {
+
+    /** Values below this are counted exactly. */
+    private static final int EXACT = 64;
+
+    private static final int SUB_BUCKETS = 32;
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private final long[] counts = new long[EXACT + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+
+    private long count;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max;
+
+    private double sum;
+
+
+    /**
+     * Records a value; negative values are recorded as zero.
+     *
+     * @param value Value to record.
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        this.counts[index(v)]++;
+        this.count++;
+        this.sum += v;
+        this.min = Math.min(this.min, v);
+        this.max = Math.max(this.max, v);
+    }
+
+    /**
+     * Adds the values recorded by another distribution to this one.
+     *
+     * @param other Distribution to merge.
+     */
+    public void add(final Distribution other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.sum += other.sum;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getMin() {
+        return this.count > 0 ? this.min : 0;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    public double getMean() {
+        return this.count > 0 ? this.sum / this.count : 0;
+    }
+
+    /**
+     * Gets the value at the given percentile.
+     *
+     * @param percentile Percentile in the range (0, 100].
+     *
+     * @return Highest value equivalent to the value at the percentile, or 0 if nothing was recorded.
+     */
+    public long getPercentile(final double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalent(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    private static int index(final long v) {
+        if (v < EXACT) {
+            return (int) v;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (v >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestEquivalent(final int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        final int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        final long sub = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
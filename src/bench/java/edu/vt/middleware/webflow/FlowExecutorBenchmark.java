@@ -0,0 +1,95 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.executor.FlowExecutionResult;
+import org.springframework.webflow.executor.FlowExecutor;
+import org.springframework.webflow.test.MockExternalContext;
+
+/**
+ * Measures a complete launch and resume cycle of <code>test-flow.xml</code> through {@link FlowExecutor} backed by
+ * {@link ClientFlowExecutionRepository}, using the same wiring as the unit tests.
+ *
+ * @author Marvin S. Addison
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowExecutorBenchmark {
+
+    private ClassPathXmlApplicationContext context;
+
+    private FlowExecutor executor;
+
+    private String pausedKey;
+
+
+    @Setup
+    public void setUp() {
+        this.context = new ClassPathXmlApplicationContext("/webflow-config-context.xml");
+        this.executor = this.context.getBean(FlowExecutor.class);
+        this.pausedKey = launch().getPausedKey();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public FlowExecutionResult launchExecution() {
+        return launch();
+    }
+
+    @Benchmark
+    public FlowExecutionResult resumeExecution() {
+        return resume(this.pausedKey);
+    }
+
+    @Benchmark
+    public FlowExecutionResult launchAndResume() {
+        return resume(launch().getPausedKey());
+    }
+
+    private FlowExecutionResult launch() {
+        return this.executor.launchExecution("test", new LocalAttributeMap(), new MockExternalContext());
+    }
+
+    private FlowExecutionResult resume(final String key) {
+        final MockExternalContext context = new MockExternalContext();
+        context.setEventId("submit");
+        context.getRequestMap().put("vegan", "0");
+        return this.executor.resumeExecution(key, context);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.executor.FlowExecutionResult;
+import org.springframework.webflow.executor.FlowExecutor;
+import org.springframework.webflow.test.MockExternalContext;
+
+/**
+ * Load and soak harness that drives complete flow lifecycles through {@link FlowExecutor} backed by
+ * {@link ClientFlowExecutionRepository} from an increasing number of threads. Each thread repeatedly launches a flow
+ * and resumes it to its end state with mock external contexts, so the harness runs offline. For each thread count it
+ * reports throughput and its scaling relative to one thread, launch and resume latency percentiles, the allocation
+ * rate, GC time and the distribution of key sizes, which exposes contention in shared components such as nonces and
+ * cipher beans. An optional soak phase then runs at the highest thread count and reports each interval separately
+ * against the throughput measured at that thread count, so that degradation over time is visible.
+ * <p>
+ * Two flows are exercised: <code>test-flow.xml</code> of the unit tests and <code>load-flow.xml</code>, which carries a
+ * generated flow scope of configurable size across two pauses. Options are system properties:
+ * <ul>
+ * <li><code>load.threads</code> - maximum thread count; defaults to the number of processors.</li>
+ * <li><code>load.duration</code> - seconds measured per thread count; defaults to 10.</li>
+ * <li><code>load.warmup</code> - seconds run before measuring each flow; defaults to 5.</li>
+ * <li><code>load.soak</code> - seconds of soak at the maximum thread count; defaults to 0.</li>
+ * <li><code>load.interval</code> - seconds per soak report; defaults to 60.</li>
+ * <li><code>load.payload</code> - approximate serialized size of the generated flow scope; defaults to 8192.</li>
+ * <li><code>load.flows</code> - comma-separated flows to run, <code>test</code> and/or <code>load</code>.</li>
+ * <li><code>load.cipher</code> - <code>GCM</code>, <code>CBC</code> or <code>HMAC</code>; defaults to GCM.</li>
+ * </ul>
+ * Must be run from the project base directory since it uses the test keystore.
+ *
+ * @author Marvin S. Addison
+ */
+public final class LoadHarness {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final FlowExecutor executor;
+
+    private final Object payload;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+
+    public LoadHarness(final FlowExecutor executor, final int payloadSize) {
+        this.executor = executor;
+        this.payload = BenchmarkSupport.newPayload(payloadSize);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int maxThreads = Integer.getInteger("load.threads", Runtime.getRuntime().availableProcessors());
+        final int duration = Integer.getInteger("load.duration", 10);
+        final int warmup = Integer.getInteger("load.warmup", 5);
+        final int soak = Integer.getInteger("load.soak", 0);
+        final int interval = Integer.getInteger("load.interval", 60);
+        final int payloadSize = Integer.getInteger("load.payload", 8192);
+        final String[] flows = System.getProperty("load.flows", "test,load").split(",");
+
+        final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("/load-context.xml");
+        try {
+            final LoadHarness harness = new LoadHarness(context.getBean(FlowExecutor.class), payloadSize);
+            System.out.printf(
+                    "cipher=%s processors=%d payload=%d bytes%n",
+                    System.getProperty("load.cipher", "GCM"),
+                    Runtime.getRuntime().availableProcessors(),
+                    payloadSize);
+            for (String flow : flows) {
+                final String flowId = flow.trim();
+                System.out.printf("%nflow=%s%n", flowId);
+                harness.run(flowId, maxThreads, warmup);
+                System.out.println(Result.HEADER);
+                final Distribution keySizes = new Distribution();
+                double baseline = 0;
+                double peak = 0;
+                for (int n = 1; n <= maxThreads; n++) {
+                    final Result result = harness.run(flowId, n, duration);
+                    if (n == 1) {
+                        baseline = result.getThroughput();
+                    }
+                    peak = result.getThroughput();
+                    System.out.println(result.format(Integer.toString(n), baseline));
+                    keySizes.add(result.keySizes);
+                }
+                System.out.printf(
+                        "key size min=%d p50=%d p99=%d max=%d chars%n",
+                        keySizes.getMin(),
+                        keySizes.getPercentile(50),
+                        keySizes.getPercentile(99),
+                        keySizes.getMax());
+                if (soak > 0) {
+                    // Scaling of soak intervals is relative to the measurement at the same thread count
+                    System.out.printf("soak threads=%d%n", maxThreads);
+                    System.out.println(Result.HEADER.replaceFirst("threads", "elapsed"));
+                    for (int elapsed = 0; elapsed < soak; elapsed += interval) {
+                        final Result result = harness.run(flowId, maxThreads, Math.min(interval, soak - elapsed));
+                        System.out.println(result.format(elapsed + "s", peak));
+                    }
+                    final Runtime runtime = Runtime.getRuntime();
+                    System.out.printf("heap used=%dMB%n", (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+                }
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Runs complete lifecycles of the given flow from the given number of threads.
+     *
+     * @param flowId Either <code>test</code> or <code>load</code>.
+     * @param threadCount Number of threads.
+     * @param seconds Duration in seconds.
+     *
+     * @return Measurements of the run.
+     *
+     * @throws Exception If a thread cannot be run.
+     */
+    public Result run(final String flowId, final int threadCount, final int seconds) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Result>> futures = new ArrayList<Future<Result>>(threadCount);
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    public Result call() throws Exception {
+                        start.await();
+                        return cycle(flowId, System.nanoTime() + seconds * NANOS_PER_SECOND);
+                    }
+                }));
+            }
+            final long gcTime = gcTime();
+            final long begin = System.nanoTime();
+            start.countDown();
+            final Result total = new Result();
+            for (Future<Result> future : futures) {
+                total.add(future.get());
+            }
+            total.elapsed = System.nanoTime() - begin;
+            total.gcTime = gcTime() - gcTime;
+            return total;
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /** Runs lifecycles on the calling thread until the deadline. */
+    private Result cycle(final String flowId, final long deadline) {
+        final Result result = new Result();
+        final long allocated = allocatedBytes();
+        while (System.nanoTime() < deadline) {
+            try {
+                if ("load".equals(flowId)) {
+                    final LocalAttributeMap input = new LocalAttributeMap();
+                    input.put("payload", this.payload);
+                    String key = launch(result, "load", input);
+                    key = resume(result, key, "next", "token", Long.toString(System.nanoTime()));
+                    key = resume(result, key, "back", null, null);
+                    key = resume(result, key, "next", "token", "again");
+                    resume(result, key, "submit", null, null);
+                } else {
+                    resume(result, launch(result, flowId, null), "submit", "vegan", "0");
+                }
+                result.cycles++;
+            } catch (RuntimeException e) {
+                if (result.errors++ == 0) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        result.allocated = allocatedBytes() - allocated;
+        return result;
+    }
+
+    private String launch(final Result result, final String flowId, final LocalAttributeMap input) {
+        final long start = System.nanoTime();
+        final FlowExecutionResult outcome = this.executor.launchExecution(
+                flowId, input != null ? input : new LocalAttributeMap(), new MockExternalContext());
+        result.launches.record(System.nanoTime() - start);
+        return pausedKey(result, outcome);
+    }
+
+    private String resume(
+            final Result result, final String key, final String event, final String param, final String value) {
+        final MockExternalContext context = new MockExternalContext();
+        context.setEventId(event);
+        if (param != null) {
+            context.getRequestMap().put(param, value);
+            context.putRequestParameter(param, value);
+        }
+        final long start = System.nanoTime();
+        final FlowExecutionResult outcome = this.executor.resumeExecution(key, context);
+        result.resumes.record(System.nanoTime() - start);
+        return pausedKey(result, outcome);
+    }
+
+    private static String pausedKey(final Result result, final FlowExecutionResult outcome) {
+        if (outcome.isPaused()) {
+            result.keySizes.record(outcome.getPausedKey().length());
+            return outcome.getPausedKey();
+        }
+        return null;
+    }
+
+    /** @return Bytes allocated by the current thread, or -1 if unsupported. */
+    private long allocatedBytes() {
+        if (this.threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) this.threads;
+            if (mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled()) {
+                return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+
+    /** Measurements of a run, merged across threads. */
+    public static final class Result {
+
+        static final String HEADER = String.format(
+                "%8s %10s %8s %26s %26s %10s %8s %7s",
+                "threads", "cycles/s", "scaling", "launch p50/p99/p999 us", "resume p50/p99/p999 us",
+                "alloc MB/s", "gc ms/s", "errors");
+
+        private final Distribution launches = new Distribution();
+
+        private final Distribution resumes = new Distribution();
+
+        private final Distribution keySizes = new Distribution();
+
+        private long cycles;
+
+        private long errors;
+
+        /** Bytes allocated by the worker threads; negative if unsupported. */
+        private long allocated;
+
+        private long elapsed;
+
+        private long gcTime;
+
+
+        void add(final Result other) {
+            this.launches.add(other.launches);
+            this.resumes.add(other.resumes);
+            this.keySizes.add(other.keySizes);
+            this.cycles += other.cycles;
+            this.errors += other.errors;
+            this.allocated = this.allocated < 0 || other.allocated < 0 ? -1 : this.allocated + other.allocated;
+        }
+
+        /** @return Completed lifecycles per second. */
+        public double getThroughput() {
+            return this.cycles * (double) NANOS_PER_SECOND / this.elapsed;
+        }
+
+        public Distribution getLaunches() {
+            return this.launches;
+        }
+
+        public Distribution getResumes() {
+            return this.resumes;
+        }
+
+        public Distribution getKeySizes() {
+            return this.keySizes;
+        }
+
+        public long getErrors() {
+            return this.errors;
+        }
+
+        String format(final String label, final double baseline) {
+            final double seconds = this.elapsed / (double) NANOS_PER_SECOND;
+            return String.format(
+                    Locale.ROOT,
+                    "%8s %10.1f %8.2f %26s %26s %10s %8.1f %7d",
+                    label,
+                    getThroughput(),
+                    baseline > 0 ? getThroughput() / baseline : 0,
+                    percentiles(this.launches),
+                    percentiles(this.resumes),
+                    this.allocated >= 0 ? String.format(Locale.ROOT, "%.1f", (this.allocated >> 20) / seconds) : "n/a",
+                    this.gcTime / seconds,
+                    this.errors);
+        }
+
+        private static String percentiles(final Distribution h) {
+            return (h.getPercentile(50) / 1000) + "/" + (h.getPercentile(99) / 1000) + "/"
+                    + (h.getPercentile(99.9) / 1000);
+        }
+    }
+}
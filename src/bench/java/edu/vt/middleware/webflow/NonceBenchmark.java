@@ -0,0 +1,64 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cryptacular.generator.Nonce;
+import org.cryptacular.generator.sp80038d.RBGNonce;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures GCM nonce generation by concurrent threads with {@link RBGNonce} and {@link PerThreadCounterNonce}.
+ *
+ * @author Marvin S. Addison
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class NonceBenchmark {
+
+    @Param({"rbg", "counter"})
+    private String nonceType;
+
+    private Nonce nonce;
+
+
+    @Setup
+    public void setUp() {
+        this.nonce = "rbg".equals(this.nonceType) ? new RBGNonce() : new PerThreadCounterNonce();
+    }
+
+    @Benchmark
+    public byte[] generate() {
+        return this.nonce.generate();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.test.MockExternalContext;
+
+/**
+ * Compares {@link JavaSerializer} and {@link CompactSerializer} on the state of a paused <code>test-flow.xml</code>
+ * execution whose flow scope holds a synthetic payload. The serialized size is printed during setup.
+ *
+ * @author Marvin S. Addison
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"256", "8192"})
+    private int payloadSize;
+
+    @Param({"java", "compact"})
+    private String serializer;
+
+    private ClassPathXmlApplicationContext context;
+
+    private Serializer instance;
+
+    private Object state;
+
+    private final BufferOutputStream buffer = new BufferOutputStream(4096);
+
+    private byte[] serialized;
+
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        this.context = new ClassPathXmlApplicationContext("/webflow-config-context.xml");
+        final FlowDefinitionLocator locator = this.context.getBean("flowRegistry", FlowDefinitionLocator.class);
+        final FlowExecution execution = this.context.getBean(FlowExecutionFactory.class).createFlowExecution(
+                locator.getFlowDefinition("test"));
+        execution.start(null, new MockExternalContext());
+        final Map<String, Serializable> payload = (Map<String, Serializable>) BenchmarkSupport.newPayload(
+                this.payloadSize);
+        for (Map.Entry<String, Serializable> entry : payload.entrySet()) {
+            execution.getActiveSession().getScope().put(entry.getKey(), entry.getValue());
+        }
+        this.state = new ClientFlowExecutionRepository.SerializedFlowExecutionState(execution);
+        this.instance = "compact".equals(this.serializer) ? new CompactSerializer() : new JavaSerializer();
+        this.serialized = serialize().toByteArray();
+        System.out.println("Serialized size: " + this.serialized.length + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public BufferOutputStream serialize() throws Exception {
+        this.buffer.reset();
+        this.instance.serialize(this.state, this.buffer);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return this.instance.deserialize(this.serialized, 0, this.serialized.length);
+    }
+}
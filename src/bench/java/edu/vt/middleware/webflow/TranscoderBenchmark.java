@@ -0,0 +1,116 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link EncryptedTranscoder#encode(Object)} and {@link EncryptedTranscoder#decode(byte[])} across payload
+ * sizes, cipher modes, compression settings and codecs, and buffer pooling.
+ * <p>
+ * The default parameters cover the baseline comparisons, small to large payloads with either cipher mode and with
+ * compression on or off, and complete in a few minutes. The full cross product of the supported values runs for about
+ * an hour; select the other values with JMH's <code>-p</code> option, e.g.
+ * <code>-p cipherMode=HMAC -p compression=deflate,dictionary,parallel,adaptive -p bufferPoolSize=16</code>.
+ *
+ * @author Marvin S. Addison
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranscoderBenchmark {
+
+    /** Payload size in bytes. */
+    @Param({"256", "8192", "102400"})
+    private int payloadSize;
+
+    /** One of GCM, CBC or HMAC. */
+    @Param({"GCM", "CBC"})
+    private String cipherMode;
+
+    /** Either the legacy gzip setting (on/off), a compression codec (deflate, dictionary, parallel) or adaptive. */
+    @Param({"on", "off"})
+    private String compression;
+
+    @Param({"0"})
+    private int bufferPoolSize;
+
+    private EncryptedTranscoder transcoder;
+
+    private Serializable payload;
+
+    private byte[] encoded;
+
+    /** Compresses chunks for the parallel codec. */
+    private ExecutorService executor;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        this.transcoder = BenchmarkSupport.newTranscoder(this.cipherMode, !"off".equals(this.compression));
+        if ("deflate".equals(this.compression)) {
+            this.transcoder.setCompressionCodec(new DeflateCodec());
+        } else if ("dictionary".equals(this.compression)) {
+            this.transcoder.setCompressionCodec(new DictionaryDeflateCodec());
+        } else if ("parallel".equals(this.compression)) {
+            final ParallelDeflateCodec codec = new ParallelDeflateCodec();
+            this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            codec.setExecutor(this.executor);
+            this.transcoder.setCompressionCodec(codec);
+        } else if ("adaptive".equals(this.compression)) {
+            this.transcoder.setCompressionPolicy(new AdaptiveCompressionPolicy());
+        }
+        this.transcoder.setBufferPoolSize(this.bufferPoolSize);
+        this.payload = BenchmarkSupport.newPayload(this.payloadSize);
+        this.encoded = this.transcoder.encode(this.payload);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return this.transcoder.encode(this.payload);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return this.transcoder.decode(this.encoded);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Base class for codecs built on the deflate algorithm. Maintains bounded pools of {@link Deflater} and
+ * {@link Inflater} instances so that native zlib streams are reused rather than allocated on every call.
+ *
+ * @author Marvin S. Addison
+ */
+public abstract class AbstractDeflateCodec implements CompressionCodec {
+
+    /** Default maximum number of idle deflaters and inflaters retained for reuse. */
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    /** Compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}. */
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private ResourcePool<Deflater> deflaters;
+
+    private ResourcePool<Inflater> inflaters;
+
+
+    protected AbstractDeflateCodec() {
+        setPoolSize(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Sets the deflate compression level. The level does not affect decompression, so it may be changed without
+     * invalidating previously encoded payloads.
+     *
+     * @param level 0-9 or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public void setLevel(final int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Sets the maximum number of idle deflaters and inflaters retained for reuse. Defaults to
+     * {@value #DEFAULT_POOL_SIZE}.
+     *
+     * @param size Maximum number of each retained.
+     */
+    public void setPoolSize(final int size) {
+        this.deflaters = new ResourcePool<Deflater>(size) {
+            @Override
+            protected Deflater create() {
+                return new Deflater(level, true);
+            }
+
+            @Override
+            protected boolean recycle(final Deflater deflater) {
+                deflater.reset();
+                return true;
+            }
+
+            @Override
+            protected void destroy(final Deflater deflater) {
+                deflater.end();
+            }
+        };
+        this.inflaters = new ResourcePool<Inflater>(size) {
+            @Override
+            protected Inflater create() {
+                return new Inflater(true);
+            }
+
+            @Override
+            protected boolean recycle(final Inflater inflater) {
+                inflater.reset();
+                return true;
+            }
+
+            @Override
+            protected void destroy(final Inflater inflater) {
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * Borrows a reset deflater producing raw deflate data at the configured level.
+     *
+     * @return Deflater that MUST be returned with {@link #release(Deflater)}.
+     */
+    protected Deflater borrowDeflater() {
+        final Deflater deflater = this.deflaters.borrow();
+        deflater.setLevel(this.level);
+        return deflater;
+    }
+
+    protected void release(final Deflater deflater) {
+        this.deflaters.release(deflater);
+    }
+
+    /**
+     * Borrows a reset inflater consuming raw deflate data.
+     *
+     * @return Inflater that MUST be returned with {@link #release(Inflater)}.
+     */
+    protected Inflater borrowInflater() {
+        return this.inflaters.borrow();
+    }
+
+    protected void release(final Inflater inflater) {
+        this.inflaters.release(inflater);
+    }
+}
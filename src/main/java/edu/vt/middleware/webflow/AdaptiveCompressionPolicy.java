@@ -0,0 +1,243 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Compression policy that adapts to the flow state of each flow. Payloads below a size threshold are never
+ * compressed. For larger payloads the policy keeps an exponentially weighted moving average of the compression ratio
+ * and of the compression cost per input byte observed for each flow id and
+ * <ul>
+ * <li>stores state uncompressed when compression has not paid off for the flow, i.e. the average ratio of compressed
+ * to uncompressed size exceeds {@link #setMaxRatio(double) maxRatio}, compressing one payload in
+ * {@link #setProbeInterval(int) probeInterval} to notice when the state becomes compressible;</li>
+ * <li>compresses with the {@link #setFastCodec(CompressionCodec) fast codec} when the average cost with the
+ * {@link #setCodec(CompressionCodec) default codec} exceeds {@link #setMaxNanosPerByte(double) maxNanosPerByte},
+ * returning to the default codec once the cost drops below half of that budget.</li>
+ * </ul>
+ * Averages are updated without locking, so concurrent updates may occasionally be lost; the policy only needs a trend.
+ *
+ * @author Marvin S. Addison
+ */
+public class AdaptiveCompressionPolicy implements CompressionPolicy {
+
+    /** Default size in bytes below which payloads are not compressed. */
+    public static final int DEFAULT_MIN_SIZE = 256;
+
+    /** Default maximum ratio of compressed to uncompressed size for which compression is considered worthwhile. */
+    public static final double DEFAULT_MAX_RATIO = 0.9;
+
+    /** Default compression cost in nanoseconds per input byte above which the fast codec is chosen. */
+    public static final double DEFAULT_MAX_NANOS_PER_BYTE = 50;
+
+    /** Default number of skipped payloads after which a payload is compressed to refresh the averages. */
+    public static final int DEFAULT_PROBE_INTERVAL = 100;
+
+    /** Weight of the most recent observation in moving averages. */
+    private static final double ALPHA = 0.2;
+
+    private final CompressionCodec none = new NoCompressionCodec();
+
+    private final ConcurrentMap<String, Statistics> flows = new ConcurrentHashMap<String, Statistics>();
+
+    /** Statistics of payloads that are not flow state. */
+    private final Statistics other = new Statistics();
+
+    private CompressionCodec codec;
+
+    private CompressionCodec fastCodec;
+
+    private int minSize = DEFAULT_MIN_SIZE;
+
+    private double maxRatio = DEFAULT_MAX_RATIO;
+
+    private double maxNanosPerByte = DEFAULT_MAX_NANOS_PER_BYTE;
+
+    private int probeInterval = DEFAULT_PROBE_INTERVAL;
+
+
+    public AdaptiveCompressionPolicy() {
+        final DeflateCodec fast = new DeflateCodec();
+        fast.setLevel(Deflater.BEST_SPEED);
+        this.codec = new DeflateCodec();
+        this.fastCodec = fast;
+    }
+
+    /**
+     * Sets the codec used for compressible flow state. Defaults to {@link DeflateCodec} at the default level.
+     *
+     * @param codec Default codec.
+     */
+    public void setCodec(final CompressionCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the codec used for flows whose compression cost exceeds the budget. Defaults to {@link DeflateCodec} at
+     * {@link Deflater#BEST_SPEED}.
+     *
+     * @param codec Fast codec.
+     */
+    public void setFastCodec(final CompressionCodec codec) {
+        this.fastCodec = codec;
+    }
+
+    /**
+     * Sets the size below which payloads are stored uncompressed. Defaults to {@value #DEFAULT_MIN_SIZE} bytes.
+     *
+     * @param size Minimum size in bytes of compressed payloads.
+     */
+    public void setMinSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Minimum size cannot be negative");
+        }
+        this.minSize = size;
+    }
+
+    /**
+     * Sets the ratio of compressed to uncompressed size above which compression of a flow's state is skipped.
+     * Defaults to {@value #DEFAULT_MAX_RATIO}.
+     *
+     * @param ratio Maximum worthwhile compression ratio.
+     */
+    public void setMaxRatio(final double ratio) {
+        if (ratio <= 0) {
+            throw new IllegalArgumentException("Maximum ratio must be positive");
+        }
+        this.maxRatio = ratio;
+    }
+
+    /**
+     * Sets the compression cost per input byte above which the fast codec is used for a flow. Defaults to
+     * {@value #DEFAULT_MAX_NANOS_PER_BYTE} nanoseconds.
+     *
+     * @param nanos Maximum cost in nanoseconds per byte.
+     */
+    public void setMaxNanosPerByte(final double nanos) {
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("Maximum cost must be positive");
+        }
+        this.maxNanosPerByte = nanos;
+    }
+
+    /**
+     * Sets the number of payloads of a flow stored uncompressed after which one is compressed to check whether
+     * compression pays off again. Defaults to {@value #DEFAULT_PROBE_INTERVAL}.
+     *
+     * @param interval Number of skipped payloads between probes.
+     */
+    public void setProbeInterval(final int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Probe interval must be positive");
+        }
+        this.probeInterval = interval;
+    }
+
+    public CompressionCodec select(final String flowId, final int size) {
+        if (size < this.minSize) {
+            return this.none;
+        }
+        final Statistics stats = getStatistics(flowId);
+        if (stats.ratio > this.maxRatio && stats.skipped.incrementAndGet() % this.probeInterval != 0) {
+            return this.none;
+        }
+        return stats.fast ? this.fastCodec : this.codec;
+    }
+
+    public void record(
+            final String flowId,
+            final CompressionCodec codec,
+            final int size,
+            final int compressedSize,
+            final long nanos) {
+        if (codec.getId() == CompressionCodec.NONE || size == 0) {
+            return;
+        }
+        final Statistics stats = getStatistics(flowId);
+        stats.ratio = average(stats.ratio, (double) compressedSize / size);
+        if (codec == this.fastCodec) {
+            stats.fastCost = average(stats.fastCost, (double) nanos / size);
+            if (stats.fastCost < this.maxNanosPerByte / 2) {
+                // Cost has dropped well within budget; try the default codec again
+                stats.fast = false;
+                stats.cost = Double.NaN;
+            }
+        } else {
+            stats.cost = average(stats.cost, (double) nanos / size);
+            if (stats.cost > this.maxNanosPerByte) {
+                stats.fast = true;
+                stats.fastCost = Double.NaN;
+            }
+        }
+    }
+
+    public List<CompressionCodec> getCodecs() {
+        return Arrays.asList(this.none, this.codec, this.fastCodec);
+    }
+
+    /**
+     * @param flowId Flow id.
+     *
+     * @return Moving average of the ratio of compressed to uncompressed size of the flow's state, or NaN if no state
+     * of the flow has been compressed.
+     */
+    public double getCompressionRatio(final String flowId) {
+        final Statistics stats = this.flows.get(flowId);
+        return stats != null ? stats.ratio : Double.NaN;
+    }
+
+    private Statistics getStatistics(final String flowId) {
+        if (flowId == null) {
+            return this.other;
+        }
+        final Statistics stats = this.flows.get(flowId);
+        if (stats != null) {
+            return stats;
+        }
+        final Statistics created = new Statistics();
+        final Statistics existing = this.flows.putIfAbsent(flowId, created);
+        return existing != null ? existing : created;
+    }
+
+    private static double average(final double average, final double sample) {
+        return Double.isNaN(average) ? sample : average + ALPHA * (sample - average);
+    }
+
+
+    /** Observed compression behavior of a flow. */
+    private static class Statistics {
+        /** Average ratio of compressed to uncompressed size. */
+        volatile double ratio = Double.NaN;
+
+        /** Average cost in nanoseconds per byte with the default codec. */
+        volatile double cost = Double.NaN;
+
+        /** Average cost in nanoseconds per byte with the fast codec. */
+        volatile double fastCost = Double.NaN;
+
+        /** Whether the fast codec is used. */
+        volatile boolean fast;
+
+        /** Number of payloads stored uncompressed since compression stopped paying off. */
+        final AtomicInteger skipped = new AtomicInteger();
+    }
+}
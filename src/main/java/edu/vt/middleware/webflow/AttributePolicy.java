@@ -0,0 +1,283 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowSession;
+
+/**
+ * Declares how conversation and flow scope attributes are carried in flow execution state, which allows large or
+ * rebuildable values to be kept out of flow execution keys without changing flow definitions:
+ * <ul>
+ * <li>{@link Disposition#INLINE} attributes are serialized with the state; this is the default.</li>
+ * <li>{@link Disposition#TRANSIENT} attributes are omitted and rebuilt by the {@link AttributeRehydrator} when the
+ * execution is restored.</li>
+ * <li>{@link Disposition#EXTERNALIZED} attributes are placed in a server-side {@link FlowStateStore} under a content
+ * hash of their serialized value, so identical values are stored once for all users, and the state carries only the
+ * hash. If the store has discarded the value when the execution is restored, the value is rebuilt by the rehydrator,
+ * and if it cannot be rebuilt the execution is treated as expired. Values the store declines remain inline.</li>
+ * </ul>
+ * Rules are keyed either by attribute name, which applies to every flow, or by flow id and attribute name separated
+ * by a colon, e.g. <code>booking:hotels</code>, which takes precedence. Rules apply to top-level attributes of
+ * conversation scope, matched against the id of the root flow, and of the flow scope of every flow session.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see ClientFlowExecutionRepository#setAttributePolicy(AttributePolicy)
+ */
+public class AttributePolicy {
+
+    /** How an attribute is carried in flow execution state. */
+    public enum Disposition {
+        /** Serialized with the state. */
+        INLINE,
+
+        /** Omitted and rebuilt on restore. */
+        TRANSIENT,
+
+        /** Stored server-side by content hash. */
+        EXTERNALIZED,
+    }
+
+    /** Number of bytes of the SHA-256 digest of a serialized value used as its reference. */
+    private static final int REFERENCE_SIZE = 16;
+
+    /** Stands in for transient attributes. */
+    private static final Reference TRANSIENT_REFERENCE = new Reference(null);
+
+    private Map<String, Disposition> rules = Collections.emptyMap();
+
+    private AttributeRehydrator rehydrator;
+
+    private FlowStateStore store;
+
+    private Serializer serializer = new JavaSerializer();
+
+
+    /**
+     * Sets the disposition of attributes by attribute name or by flow id and attribute name separated by a colon.
+     *
+     * @param rules Dispositions by attribute.
+     */
+    public void setRules(final Map<String, Disposition> rules) {
+        Assert.notNull(rules, "Rules cannot be null");
+        this.rules = new HashMap<String, Disposition>(rules);
+    }
+
+    /**
+     * Sets the component that rebuilds transient attributes and externalized attributes that are no longer stored.
+     *
+     * @param rehydrator Attribute rehydrator; null to leave such attributes unset.
+     */
+    public void setRehydrator(final AttributeRehydrator rehydrator) {
+        this.rehydrator = rehydrator;
+    }
+
+    /**
+     * Sets the store that holds externalized attribute values. Required if any attribute is externalized. The store
+     * may be shared with {@link ClientFlowExecutionRepository#setFlowStateStore(FlowStateStore)}.
+     *
+     * @param store Attribute value store.
+     */
+    public void setStore(final FlowStateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets the serializer for externalized values. Defaults to {@link JavaSerializer}.
+     *
+     * @param serializer Object serializer.
+     */
+    public void setSerializer(final Serializer serializer) {
+        Assert.notNull(serializer, "Serializer cannot be null");
+        this.serializer = serializer;
+    }
+
+    /**
+     * Gets the disposition of an attribute.
+     *
+     * @param flowId Flow id.
+     * @param name Attribute name.
+     *
+     * @return Attribute disposition.
+     */
+    public Disposition getDisposition(final String flowId, final String name) {
+        Disposition disposition = this.rules.get(flowId + ':' + name);
+        if (disposition == null) {
+            disposition = this.rules.get(name);
+        }
+        return disposition != null ? disposition : Disposition.INLINE;
+    }
+
+    /**
+     * Replaces transient and externalized attributes of an execution with references prior to serialization.
+     *
+     * @param execution Flow execution.
+     *
+     * @return Replaced attributes, to be passed to {@link #reinstate(List)} once the state is serialized.
+     *
+     * @throws IOException On errors serializing externalized values.
+     */
+    List<Replacement> externalize(final FlowExecution execution) throws IOException {
+        if (this.rules.isEmpty() || !execution.isActive()) {
+            return Collections.emptyList();
+        }
+        final List<Replacement> replaced = new ArrayList<Replacement>();
+        try {
+            externalize(execution.getDefinition().getId(), execution.getConversationScope(), replaced);
+            for (FlowSession session = execution.getActiveSession(); session != null; session = session.getParent()) {
+                externalize(session.getDefinition().getId(), session.getScope(), replaced);
+            }
+        } catch (IOException e) {
+            reinstate(replaced);
+            throw e;
+        }
+        return replaced;
+    }
+
+    /**
+     * Restores the attribute values replaced by {@link #externalize(FlowExecution)}.
+     *
+     * @param replaced Replaced attributes.
+     */
+    static void reinstate(final List<Replacement> replaced) {
+        for (Replacement r : replaced) {
+            r.scope.put(r.name, r.value);
+        }
+    }
+
+    /**
+     * Replaces the references in a restored execution with attribute values.
+     *
+     * @param execution Restored flow execution.
+     *
+     * @return False if an externalized value is neither stored nor can be rebuilt.
+     *
+     * @throws IOException On errors deserializing externalized values.
+     */
+    boolean rehydrate(final FlowExecution execution) throws IOException {
+        if (this.rules.isEmpty() || !execution.isActive()) {
+            return true;
+        }
+        boolean complete = rehydrate(execution.getDefinition().getId(), execution.getConversationScope());
+        for (FlowSession session = execution.getActiveSession(); session != null; session = session.getParent()) {
+            complete &= rehydrate(session.getDefinition().getId(), session.getScope());
+        }
+        return complete;
+    }
+
+    private void externalize(final String flowId, final MutableAttributeMap scope, final List<Replacement> replaced)
+            throws IOException {
+        // Values are read only for attributes with a rule, which leaves lazily restored values undecoded
+        for (Object o : scope.asMap().keySet().toArray()) {
+            final String name = (String) o;
+            final Disposition disposition = getDisposition(flowId, name);
+            final Object value = disposition != Disposition.INLINE ? scope.get(name) : null;
+            if (value == null) {
+                continue;
+            }
+            Reference reference = null;
+            if (disposition == Disposition.TRANSIENT) {
+                reference = TRANSIENT_REFERENCE;
+            } else if (disposition == Disposition.EXTERNALIZED) {
+                Assert.state(this.store != null, "Store is required for externalized attributes");
+                final BufferOutputStream out = new BufferOutputStream(1024);
+                this.serializer.serialize(value, out);
+                final byte[] data = out.toByteArray();
+                final byte[] hash = Arrays.copyOf(ClientFlowExecutionRepository.sha256(data), REFERENCE_SIZE);
+                if (this.store.put(hash, data)) {
+                    reference = new Reference(hash);
+                }
+            }
+            if (reference != null) {
+                replaced.add(new Replacement(scope, name, value));
+                scope.put(name, reference);
+            }
+        }
+    }
+
+    private boolean rehydrate(final String flowId, final MutableAttributeMap scope) throws IOException {
+        boolean complete = true;
+        for (Object o : scope.asMap().keySet().toArray()) {
+            final String name = (String) o;
+            if (getDisposition(flowId, name) == Disposition.INLINE) {
+                continue;
+            }
+            final Object reference = scope.get(name);
+            if (!(reference instanceof Reference)) {
+                continue;
+            }
+            final byte[] hash = ((Reference) reference).hash;
+            Object value = null;
+            if (hash != null && this.store != null) {
+                final byte[] data = this.store.get(hash);
+                if (data != null) {
+                    value = this.serializer.deserialize(data, 0, data.length);
+                }
+            }
+            if (value == null && this.rehydrator != null) {
+                value = this.rehydrator.rehydrate(flowId, name);
+            }
+            if (value != null) {
+                scope.put(name, value);
+            } else {
+                scope.remove(name);
+                complete &= hash == null;
+            }
+        }
+        return complete;
+    }
+
+
+    /** Attribute value replaced by a reference. */
+    static class Replacement {
+        final MutableAttributeMap scope;
+
+        final String name;
+
+        final Object value;
+
+        Replacement(final MutableAttributeMap scope, final String name, final Object value) {
+            this.scope = scope;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+
+    /** Stands in for an attribute value in serialized state. */
+    static class Reference implements Serializable {
+        private static final long serialVersionUID = 2876187396591338502L;
+
+        /** Content hash of an externalized value; null for a transient attribute. */
+        private final byte[] hash;
+
+        Reference(final byte[] hash) {
+            this.hash = hash;
+        }
+    }
+}
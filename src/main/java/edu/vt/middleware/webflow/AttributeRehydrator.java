@@ -0,0 +1,37 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+/**
+ * Rebuilds scope attributes that {@link AttributePolicy} omitted from flow execution state, e.g. by reloading
+ * reference data or repeating a service lookup. Implementations MUST be thread safe.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see AttributePolicy#setRehydrator(AttributeRehydrator)
+ */
+public interface AttributeRehydrator {
+
+    /**
+     * Rebuilds the value of an attribute.
+     *
+     * @param flowId Id of the flow that owns the scope; the root flow for conversation scope.
+     * @param name Attribute name.
+     *
+     * @return Attribute value or null to leave the attribute unset.
+     */
+    Object rehydrate(String flowId, String name);
+}
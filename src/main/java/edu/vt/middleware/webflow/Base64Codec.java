@@ -0,0 +1,198 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Base-64 encoder and validating decoder for flow execution keys. The standard variant (RFC 4648 section 4) is padded
+ * and matches the encoding of prior key formats; the URL-safe variant (section 5) is unpadded, so its output needs no
+ * escaping in URLs. Encoding writes characters to a caller-supplied array or directly to a {@link Writer}, which
+ * avoids building intermediate strings for large keys.
+ *
+ * @author Marvin S. Addison
+ */
+final class Base64Codec {
+
+    /** Standard alphabet with padding. */
+    public static final Base64Codec STANDARD = new Base64Codec(
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/", true);
+
+    /** URL and filename safe alphabet without padding. */
+    public static final Base64Codec URL_SAFE = new Base64Codec(
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_", false);
+
+    /** Number of input bytes encoded per write when streaming; a multiple of 3. */
+    private static final int CHUNK_SIZE = 3 * 256;
+
+    private final char[] alphabet;
+
+    /** Values of characters in the alphabet indexed by character; -1 for others. */
+    private final byte[] values = new byte[128];
+
+    private final boolean padded;
+
+
+    private Base64Codec(final String alphabet, final boolean padded) {
+        this.alphabet = alphabet.toCharArray();
+        this.padded = padded;
+        Arrays.fill(this.values, (byte) -1);
+        for (int i = 0; i < this.alphabet.length; i++) {
+            this.values[this.alphabet[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * @param length Number of input bytes.
+     *
+     * @return Number of characters in the encoded form.
+     */
+    public int encodedLength(final int length) {
+        return this.padded ? (length + 2) / 3 * 4 : (length * 4 + 2) / 3;
+    }
+
+    /**
+     * Encodes bytes into a character array.
+     *
+     * @param input Input bytes.
+     * @param offset Offset of first input byte.
+     * @param length Number of input bytes.
+     * @param output Receives {@link #encodedLength(int)} characters.
+     * @param position Position of first output character.
+     *
+     * @return Position following the last output character.
+     */
+    public int encode(final byte[] input, final int offset, final int length, final char[] output, final int position) {
+        int p = position;
+        final int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            final int bits = (input[i] & 0xff) << 16 | (input[i + 1] & 0xff) << 8 | input[i + 2] & 0xff;
+            output[p++] = this.alphabet[bits >>> 18];
+            output[p++] = this.alphabet[(bits >>> 12) & 0x3f];
+            output[p++] = this.alphabet[(bits >>> 6) & 0x3f];
+            output[p++] = this.alphabet[bits & 0x3f];
+        }
+        if (i < end) {
+            final int bits = (input[i] & 0xff) << 16 | (i + 1 < end ? (input[i + 1] & 0xff) << 8 : 0);
+            output[p++] = this.alphabet[bits >>> 18];
+            output[p++] = this.alphabet[(bits >>> 12) & 0x3f];
+            if (i + 1 < end) {
+                output[p++] = this.alphabet[(bits >>> 6) & 0x3f];
+            } else if (this.padded) {
+                output[p++] = '=';
+            }
+            if (this.padded) {
+                output[p++] = '=';
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Encodes bytes to a writer in chunks.
+     *
+     * @param input Input bytes.
+     * @param writer Receives the encoded characters.
+     *
+     * @throws IOException On write errors.
+     */
+    public void encode(final byte[] input, final Writer writer) throws IOException {
+        final char[] buffer = new char[encodedLength(Math.min(input.length, CHUNK_SIZE))];
+        for (int offset = 0; offset < input.length; offset += CHUNK_SIZE) {
+            final int n = encode(input, offset, Math.min(CHUNK_SIZE, input.length - offset), buffer, 0);
+            writer.write(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Determines whether the given range of a string is in the canonical form produced by the encoder, i.e. contains
+     * only characters of the alphabet, is correctly padded and has unused trailing bits set to zero.
+     *
+     * @param s String to check.
+     * @param start Index of first character.
+     * @param end Index following the last character.
+     *
+     * @return True if the range is canonical, false otherwise.
+     */
+    public boolean isCanonical(final String s, final int start, final int end) {
+        int length = end - start;
+        if (this.padded) {
+            if (length % 4 != 0) {
+                return false;
+            }
+            if (length > 0 && s.charAt(end - 1) == '=') {
+                length -= s.charAt(end - 2) == '=' ? 2 : 1;
+            }
+        }
+        if (length % 4 == 1) {
+            return false;
+        }
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            value = value(s.charAt(i));
+            if (value < 0) {
+                return false;
+            }
+        }
+        // The last character of a partial group carries 4 (two characters) or 2 (three characters) unused bits
+        final int remainder = length % 4;
+        return remainder == 0 || (value & (remainder == 2 ? 0x0F : 0x03)) == 0;
+    }
+
+    /**
+     * Decodes a range of a string that is {@link #isCanonical(String, int, int) canonical}.
+     *
+     * @param s String to decode.
+     * @param start Index of first character.
+     * @param end Index following the last character.
+     *
+     * @return Decoded bytes.
+     */
+    public byte[] decode(final String s, final int start, final int end) {
+        int length = end - start;
+        while (length > 0 && s.charAt(start + length - 1) == '=') {
+            length--;
+        }
+        final byte[] output = new byte[length * 3 / 4];
+        int bits = 0;
+        int count = 0;
+        int p = 0;
+        for (int i = start; i < start + length; i++) {
+            bits = bits << 6 | value(s.charAt(i));
+            if (++count == 4) {
+                output[p++] = (byte) (bits >>> 16);
+                output[p++] = (byte) (bits >>> 8);
+                output[p++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            output[p++] = (byte) (bits >>> 10);
+            output[p] = (byte) (bits >>> 2);
+        } else if (count == 2) {
+            output[p] = (byte) (bits >>> 4);
+        }
+        return output;
+    }
+
+    private int value(final char c) {
+        return c < this.values.length ? this.values[c] : -1;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Unsynchronized, reusable alternative to {@link java.io.ByteArrayOutputStream} that exposes its backing array so
+ * that consumers can read written bytes in place without copying. Instances are not thread safe.
+ *
+ * @author Marvin S. Addison
+ */
+public final class BufferOutputStream extends OutputStream {
+
+    private final int initialCapacity;
+
+    private byte[] buffer;
+
+    private int count;
+
+    /** Maximum size enforced by decompressors writing to this stream. */
+    private int limit = Integer.MAX_VALUE;
+
+
+    public BufferOutputStream(final int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buffer = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(final int b) {
+        ensureCapacity(this.count + 1);
+        this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+        ensureCapacity(this.count + len);
+        System.arraycopy(b, off, this.buffer, this.count, len);
+        this.count += len;
+    }
+
+    /**
+     * Ensures the backing array can hold at least the given number of bytes, growing it if necessary.
+     *
+     * @param minCapacity Minimum required capacity.
+     */
+    public void ensureCapacity(final int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("Buffer size exceeds maximum array size");
+        }
+        if (minCapacity > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(minCapacity, this.buffer.length << 1));
+        }
+    }
+
+    /**
+     * Marks bytes written directly into the backing array, e.g. by a {@link java.util.zip.Deflater}, as written.
+     *
+     * @param n Number of bytes written past the current size.
+     */
+    public void advance(final int n) {
+        if (n < 0 || this.count + n > this.buffer.length) {
+            throw new IndexOutOfBoundsException("Cannot advance " + n + " bytes");
+        }
+        this.count += n;
+    }
+
+    /**
+     * Sets the maximum size that decompressors writing to this stream may produce, which guards against
+     * decompression bombs. The limit is advisory for other writers.
+     *
+     * @param limit Maximum size in bytes; {@link Integer#MAX_VALUE} for no limit.
+     */
+    public void setLimit(final int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public int capacity() {
+        return this.buffer.length;
+    }
+
+    public void reset() {
+        this.count = 0;
+    }
+
+    /**
+     * Resets the stream and replaces the backing array with one of the initial capacity if it has grown beyond the
+     * given limit. Prevents a single oversized payload from pinning a large array in a pool indefinitely.
+     *
+     * @param maxCapacity Maximum capacity retained across uses.
+     */
+    public void reset(final int maxCapacity) {
+        this.count = 0;
+        this.limit = Integer.MAX_VALUE;
+        if (this.buffer.length > maxCapacity) {
+            this.buffer = new byte[this.initialCapacity];
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.count);
+    }
+
+    /**
+     * @return Stream that reads the bytes written so far directly from the backing array.
+     */
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(this.buffer, 0, this.count);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.security.KeyStore;
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.modes.AEADBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.cryptacular.CiphertextHeader;
+import org.cryptacular.adapter.AEADBlockCipherAdapter;
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.generator.Nonce;
+import org.cryptacular.spec.Spec;
+
+/**
+ * Drop-in replacement for {@link AEADBlockCipherBean} that avoids its per-call setup cost. The secret key is read
+ * from the keystore once rather than on every call, and each thread keeps one cipher engine per direction that is
+ * reinitialized with only the nonce of each message, so the AES key schedule and GCM multiplication tables are not
+ * recomputed. Ciphertext is byte-compatible with that of {@link AEADBlockCipherBean} in both directions.
+ * <p>
+ * Since the key is cached, changes to the keystore after first use are not observed; configure a new instance to
+ * change keys.
+ *
+ * @author Marvin S. Addison
+ */
+public class CachedAEADBlockCipherBean extends AEADBlockCipherBean {
+
+    private final KeyCache keyCache = new KeyCache() {
+        @Override
+        protected SecretKey resolve(final String alias) {
+            return lookupKey(alias);
+        }
+    };
+
+    private final ThreadLocal<Engine[]> engines = new ThreadLocal<Engine[]>() {
+        @Override
+        protected Engine[] initialValue() {
+            return new Engine[] {
+                new Engine(getBlockCipherSpec().newInstance()),
+                new Engine(getBlockCipherSpec().newInstance()),
+            };
+        }
+    };
+
+
+    public CachedAEADBlockCipherBean() {}
+
+    public CachedAEADBlockCipherBean(
+            final Spec<AEADBlockCipher> cipherSpec,
+            final KeyStore keyStore,
+            final String keyAlias,
+            final String keyPassword,
+            final Nonce nonce) {
+        super(cipherSpec, keyStore, keyAlias, keyPassword, nonce);
+    }
+
+    @Override
+    protected AEADBlockCipherAdapter newCipher(final CiphertextHeader header, final boolean mode) {
+        final Engine engine = this.engines.get()[mode ? 1 : 0];
+        final String alias = header.getKeyName();
+        final KeyParameter key;
+        if (alias.equals(engine.alias)) {
+            // Null key reuses the key schedule from the previous init
+            key = null;
+        } else {
+            key = this.keyCache.get(alias);
+            engine.alias = alias;
+        }
+        try {
+            engine.cipher.init(mode, new AEADParameters(key, MAC_SIZE_BITS, header.getNonce(), header.encode()));
+        } catch (RuntimeException e) {
+            engine.alias = null;
+            throw e;
+        }
+        return new AEADBlockCipherAdapter(engine.cipher);
+    }
+
+
+    /** Cipher engine and the alias of the key with which it was last initialized. */
+    private static class Engine {
+        final AEADBlockCipher cipher;
+
+        String alias;
+
+        Engine(final AEADBlockCipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.security.KeyStore;
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.cryptacular.CiphertextHeader;
+import org.cryptacular.adapter.BufferedBlockCipherAdapter;
+import org.cryptacular.bean.BufferedBlockCipherBean;
+import org.cryptacular.generator.Nonce;
+import org.cryptacular.spec.Spec;
+
+/**
+ * Drop-in replacement for {@link BufferedBlockCipherBean} that avoids its per-call setup cost. The secret key is read
+ * from the keystore once rather than on every call, and each thread keeps one cipher engine per direction. In modes
+ * that take an IV, i.e. CBC, OFB and CFB, an engine is reinitialized with only the IV of each message, so the key
+ * schedule is not recomputed. Ciphertext is byte-compatible with that of {@link BufferedBlockCipherBean} in both
+ * directions.
+ * <p>
+ * Since the key is cached, changes to the keystore after first use are not observed; configure a new instance to
+ * change keys.
+ *
+ * @author Marvin S. Addison
+ */
+public class CachedBufferedBlockCipherBean extends BufferedBlockCipherBean {
+
+    private final KeyCache keyCache = new KeyCache() {
+        @Override
+        protected SecretKey resolve(final String alias) {
+            return lookupKey(alias);
+        }
+    };
+
+    /** Whether the configured mode takes an IV; null until first use. */
+    private volatile Boolean ivMode;
+
+    private final ThreadLocal<Engine[]> engines = new ThreadLocal<Engine[]>() {
+        @Override
+        protected Engine[] initialValue() {
+            return new Engine[] {
+                new Engine(getBlockCipherSpec().newInstance()),
+                new Engine(getBlockCipherSpec().newInstance()),
+            };
+        }
+    };
+
+
+    public CachedBufferedBlockCipherBean() {}
+
+    public CachedBufferedBlockCipherBean(
+            final Spec<BufferedBlockCipher> cipherSpec,
+            final KeyStore keyStore,
+            final String keyAlias,
+            final String keyPassword,
+            final Nonce nonce) {
+        super(cipherSpec, keyStore, keyAlias, keyPassword, nonce);
+    }
+
+    @Override
+    protected BufferedBlockCipherAdapter newCipher(final CiphertextHeader header, final boolean mode) {
+        final Engine engine = this.engines.get()[mode ? 1 : 0];
+        final String alias = header.getKeyName();
+        final CipherParameters params;
+        if (!isIvMode(engine.cipher)) {
+            params = this.keyCache.get(alias);
+        } else if (alias.equals(engine.alias)) {
+            // Null key reuses the key schedule from the previous init
+            params = new ParametersWithIV(null, header.getNonce());
+        } else {
+            params = new ParametersWithIV(this.keyCache.get(alias), header.getNonce());
+            engine.alias = alias;
+        }
+        try {
+            engine.cipher.init(mode, params);
+        } catch (RuntimeException e) {
+            engine.alias = null;
+            throw e;
+        }
+        return new BufferedBlockCipherAdapter(engine.cipher);
+    }
+
+    /** Determines whether the mode takes an IV the way the superclass does. */
+    private boolean isIvMode(final BufferedBlockCipher cipher) {
+        Boolean result = this.ivMode;
+        if (result == null) {
+            final String name = cipher.getUnderlyingCipher().getAlgorithmName();
+            result = name.endsWith("CBC") || name.endsWith("OFB") || name.endsWith("CFB");
+            this.ivMode = result;
+        }
+        return result;
+    }
+
+
+    /** Cipher engine and the alias of the key with which it was last initialized. */
+    private static class Engine {
+        final BufferedBlockCipher cipher;
+
+        String alias;
+
+        Engine(final BufferedBlockCipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+}
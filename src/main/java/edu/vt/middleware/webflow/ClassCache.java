@@ -0,0 +1,223 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ObjectStreamClass;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches classes resolved during deserialization by class loader and name, so that each decode does not repeat the
+ * class loader lookups of every class in the flow execution graph; web application class loaders in particular are
+ * slow to search. Class loaders are weakly referenced, and so are cached classes since they refer to their loader,
+ * hence a cache entry never prevents an undeployed application from being collected.
+ *
+ * @author Marvin S. Addison
+ */
+final class ClassCache {
+
+    /** Classes found in typical flow execution state, whose serialization descriptors are created in advance. */
+    static final String[] DEFAULT_CLASSES = {
+        "org.springframework.webflow.engine.impl.FlowExecutionImpl",
+        "org.springframework.webflow.engine.impl.FlowSessionImpl",
+        "org.springframework.webflow.engine.impl.FlowExecutionStatus",
+        "org.springframework.webflow.core.collection.LocalAttributeMap",
+        "org.springframework.webflow.core.collection.LocalParameterMap",
+        "org.springframework.binding.message.Message",
+        "org.springframework.binding.message.Severity",
+        "edu.vt.middleware.webflow.ClientFlowExecutionRepository$SerializedFlowExecutionState",
+        "java.util.HashMap",
+        "java.util.LinkedHashMap",
+        "java.util.ArrayList",
+        "java.util.LinkedList",
+        "java.util.Date",
+        "java.util.Locale",
+        "java.lang.Boolean",
+        "java.lang.Integer",
+        "java.lang.Long",
+        "java.lang.Number",
+        "java.lang.Enum",
+    };
+
+    /** Stands in for the bootstrap class loader, which is represented by null. */
+    private static final Object BOOTSTRAP = new Object();
+
+    private static final ClassCache INSTANCE = new ClassCache();
+
+    private final ConcurrentMap<Object, ConcurrentMap<String, WeakReference<Class<?>>>> loaders =
+            new ConcurrentHashMap<Object, ConcurrentMap<String, WeakReference<Class<?>>>>();
+
+    /** Receives keys of collected class loaders. */
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+
+
+    private ClassCache() {
+        warm(ClassCache.class.getClassLoader(), DEFAULT_CLASSES);
+    }
+
+    static ClassCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets a previously resolved class.
+     *
+     * @param name Class name.
+     * @param loader Class loader used to resolve the class.
+     *
+     * @return Resolved class or null if none is cached.
+     */
+    public Class<?> get(final String name, final ClassLoader loader) {
+        final ConcurrentMap<String, WeakReference<Class<?>>> classes = this.loaders.get(lookupKey(loader));
+        if (classes == null) {
+            return null;
+        }
+        final WeakReference<Class<?>> ref = classes.get(name);
+        return ref != null ? ref.get() : null;
+    }
+
+    /**
+     * Stores a resolved class.
+     *
+     * @param name Class name.
+     * @param loader Class loader used to resolve the class.
+     * @param type Resolved class.
+     */
+    public void put(final String name, final ClassLoader loader, final Class<?> type) {
+        ConcurrentMap<String, WeakReference<Class<?>>> classes = this.loaders.get(lookupKey(loader));
+        if (classes == null) {
+            purge();
+            classes = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+            final ConcurrentMap<String, WeakReference<Class<?>>> existing = this.loaders.putIfAbsent(
+                    loader != null ? new LoaderKey(loader, this.queue) : BOOTSTRAP, classes);
+            if (existing != null) {
+                classes = existing;
+            }
+        }
+        classes.put(name, new WeakReference<Class<?>>(type));
+    }
+
+    /**
+     * Resolves a class without initializing it, using the cache if possible.
+     *
+     * @param name Class name.
+     * @param loader Class loader; null for the bootstrap class loader.
+     *
+     * @return Resolved class.
+     *
+     * @throws ClassNotFoundException If the class cannot be found.
+     */
+    public Class<?> resolve(final String name, final ClassLoader loader) throws ClassNotFoundException {
+        Class<?> type = get(name, loader);
+        if (type == null) {
+            type = Class.forName(name, false, loader);
+            put(name, loader, type);
+        }
+        return type;
+    }
+
+    /**
+     * Resolves the given classes and creates their serialization descriptors, which the JVM caches, so that the first
+     * decode of each class does not pay for descriptor creation. Classes that cannot be found are ignored.
+     *
+     * @param loader Class loader.
+     * @param names Class names.
+     *
+     * @return Number of classes resolved.
+     */
+    public int warm(final ClassLoader loader, final String... names) {
+        int count = 0;
+        for (String name : names) {
+            try {
+                ObjectStreamClass.lookup(resolve(name, loader));
+                count++;
+            } catch (ClassNotFoundException e) {
+                // Optional class
+            } catch (LinkageError e) {
+                // Optional class with missing dependencies
+            }
+        }
+        return count;
+    }
+
+    /** @return Number of class loaders with cached classes. */
+    int size() {
+        purge();
+        return this.loaders.size();
+    }
+
+    private static Object lookupKey(final ClassLoader loader) {
+        return loader != null ? new Lookup(loader) : BOOTSTRAP;
+    }
+
+    /** Removes the entries of collected class loaders. */
+    private void purge() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = this.queue.poll()) != null) {
+            this.loaders.remove(ref);
+        }
+    }
+
+
+    /** Map key that weakly references a class loader and compares by identity. */
+    private static final class LoaderKey extends WeakReference<ClassLoader> {
+
+        private final int hash;
+
+        LoaderKey(final ClassLoader loader, final ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.hash = System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            final ClassLoader loader = get();
+            return loader != null && o instanceof LoaderKey && ((LoaderKey) o).get() == loader;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+
+    /** Short-lived key used for lookups that avoids creating a weak reference. */
+    private static final class Lookup {
+
+        private final ClassLoader loader;
+
+        Lookup(final ClassLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof LoaderKey && ((LoaderKey) o).get() == this.loader;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.loader);
+        }
+    }
+}
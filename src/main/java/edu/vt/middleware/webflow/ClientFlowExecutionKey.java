@@ -34,10 +34,9 @@ package edu.vt.middleware.webflow;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.Arrays;
+import java.io.Writer;
 import java.util.UUID;
 
-import org.cryptacular.util.CodecUtil;
 import org.springframework.util.Assert;
 import org.springframework.webflow.execution.FlowExecutionKey;
 import org.springframework.webflow.execution.repository.BadlyFormattedFlowExecutionKeyException;
@@ -46,6 +45,15 @@ import org.springframework.webflow.execution.repository.BadlyFormattedFlowExecut
  * Spring Webflow execution id that contains the serialized flow execution state as part of the identifier.
  * Keys produced by this class have the form ID_BASE64 where ID is a globally unique identifier and BASE64
  * is the base-64 encoded bytes of a serialized object output stream.
+ * <p>
+ * Keys created as compact have the form kIDBASE64, where ID is the URL-safe, unpadded base-64 encoding of the 16 bytes
+ * of the identifier and BASE64 is the URL-safe, unpadded base-64 encoding of the flow state. Compact keys are at least
+ * 14 characters shorter and need no escaping in URLs. Both forms are parsed, and a parsed key retains its form.
+ * <p>
+ * Parsing validates the key format without regular expressions and defers decoding of the flow state until
+ * {@link #getData()} is first called. Parsing accepts only the canonical form produced by {@link #toString()}, so the
+ * string form is a faithful representation of the key; it is retained or computed once and serves as the basis of
+ * {@link #equals(Object)} and {@link #hashCode()}.
  *
  * @author Marvin S. Addison
  */
@@ -53,15 +61,31 @@ public class ClientFlowExecutionKey extends FlowExecutionKey {
 
     public static final String KEY_FORMAT = "<uuid>_<base64-encoded-flow-state>";
 
+    public static final String COMPACT_KEY_FORMAT = "k<base64url-encoded-uuid><base64url-encoded-flow-state>";
+
     private static final long serialVersionUID = 3514659327458916297L;
 
-    private static final int HASH_SEED = 31;
+    /** Length of the string form of a UUID. */
+    private static final int UUID_LENGTH = 36;
+
+    private static final char SEPARATOR = '_';
+
+    /** First character of compact keys, which cannot start a standard key. */
+    private static final char COMPACT_PREFIX = 'k';
 
-    private static final int HASH_FACTOR = 99;
+    /** Length of the prefix and identifier of compact keys. */
+    private static final int COMPACT_ID_LENGTH = 1 + 22;
 
     private UUID id;
 
-    private byte[] data;
+    /** Flow state; decoded from {@link #key} on first use. */
+    private transient volatile byte[] data;
+
+    /** Canonical string form; encoded from {@link #id} and {@link #data} on first use. */
+    private transient String key;
+
+    /** True for the compact form, false for the standard form. */
+    private transient boolean compact;
 
 
     public ClientFlowExecutionKey(final byte[] data) {
@@ -69,17 +93,60 @@ public class ClientFlowExecutionKey extends FlowExecutionKey {
     }
 
     public ClientFlowExecutionKey(final UUID id, final byte[] data) {
+        this(id, data, false);
+    }
+
+    /**
+     * Creates a key in either form.
+     *
+     * @param id Globally unique identifier.
+     * @param data Flow state.
+     * @param compact True for the compact form, false for the standard form.
+     */
+    public ClientFlowExecutionKey(final UUID id, final byte[] data, final boolean compact) {
         Assert.notNull(id, "Flow execution id cannot be null.");
         this.id = id;
         this.data = data;
+        this.compact = compact;
+    }
+
+    private ClientFlowExecutionKey(final UUID id, final String key, final boolean compact) {
+        this.id = id;
+        this.key = key;
+        this.compact = compact;
     }
 
     public UUID getId() {
         return this.id;
     }
 
-    public byte[] getData() {
-        return this.data;
+    /**
+     * @return True if this key is in the compact form, false if it is in the standard form.
+     */
+    public boolean isCompact() {
+        return this.compact;
+    }
+
+    /**
+     * Gets the flow state carried by this key, decoding it on first call if the key was parsed.
+     *
+     * @return Encoded flow state.
+     *
+     * @throws BadlyFormattedFlowExecutionKeyException If the flow state cannot be decoded.
+     */
+    public byte[] getData() throws BadlyFormattedFlowExecutionKeyException {
+        byte[] data = this.data;
+        if (data == null) {
+            try {
+                data = this.compact
+                        ? Base64Codec.URL_SAFE.decode(this.key, COMPACT_ID_LENGTH, this.key.length())
+                        : Base64Codec.STANDARD.decode(this.key, UUID_LENGTH + 1, this.key.length());
+            } catch (RuntimeException e) {
+                throw new BadlyFormattedFlowExecutionKeyException(this.key, KEY_FORMAT);
+            }
+            this.data = data;
+        }
+        return data;
     }
 
     @Override
@@ -90,43 +157,168 @@ public class ClientFlowExecutionKey extends FlowExecutionKey {
         if (o == null || !(o instanceof ClientFlowExecutionKey)) {
             return false;
         }
-        final ClientFlowExecutionKey other = (ClientFlowExecutionKey) o;
-        return this.id.equals(other.id) && Arrays.equals(this.data, other.data);
+        return toString().equals(o.toString());
     }
 
     @Override
     public int hashCode() {
-        int hash = HASH_SEED;
-        hash += HASH_FACTOR * this.id.hashCode();
-        for (int i = 0; i < this.data.length; i++) {
-            hash += HASH_FACTOR * this.data[i];
-        }
-        return hash;
+        return toString().hashCode();
     }
 
     @Override
     public String toString() {
-        return this.id + "_" + CodecUtil.b64(this.data);
+        String key = this.key;
+        if (key == null) {
+            if (this.compact) {
+                final char[] chars = new char[COMPACT_ID_LENGTH + Base64Codec.URL_SAFE.encodedLength(this.data.length)];
+                chars[0] = COMPACT_PREFIX;
+                Base64Codec.URL_SAFE.encode(idBytes(), 0, 16, chars, 1);
+                Base64Codec.URL_SAFE.encode(this.data, 0, this.data.length, chars, COMPACT_ID_LENGTH);
+                key = new String(chars);
+            } else {
+                final char[] chars = new char[Base64Codec.STANDARD.encodedLength(this.data.length)];
+                Base64Codec.STANDARD.encode(this.data, 0, this.data.length, chars, 0);
+                key = this.id + "_" + new String(chars);
+            }
+            this.key = key;
+        }
+        return key;
+    }
+
+    /**
+     * Writes the string form of this key to a writer. Unless the string form is already held, the flow state is
+     * encoded directly to the writer in chunks, so rendering a large key does not build it as a string.
+     *
+     * @param writer Receives the string form of this key.
+     *
+     * @throws IOException On write errors.
+     */
+    public void writeTo(final Writer writer) throws IOException {
+        final String key = this.key;
+        if (key != null) {
+            writer.write(key);
+        } else if (this.compact) {
+            final char[] id = new char[COMPACT_ID_LENGTH];
+            id[0] = COMPACT_PREFIX;
+            Base64Codec.URL_SAFE.encode(idBytes(), 0, 16, id, 1);
+            writer.write(id);
+            Base64Codec.URL_SAFE.encode(this.data, writer);
+        } else {
+            writer.write(this.id.toString());
+            writer.write(SEPARATOR);
+            Base64Codec.STANDARD.encode(this.data, writer);
+        }
+    }
+
+    private byte[] idBytes() {
+        final byte[] bytes = new byte[16];
+        long msb = this.id.getMostSignificantBits();
+        long lsb = this.id.getLeastSignificantBits();
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) msb;
+            bytes[i + 8] = (byte) lsb;
+            msb >>>= 8;
+            lsb >>>= 8;
+        }
+        return bytes;
     }
 
     public static ClientFlowExecutionKey parse(final String key) throws BadlyFormattedFlowExecutionKeyException {
-        final String[] tokens = key.split("_");
-        if (tokens.length != 2) {
-            throw new BadlyFormattedFlowExecutionKeyException(key, KEY_FORMAT);
+        return parse(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parses a key, rejecting overly long keys before any other processing.
+     *
+     * @param key Key in the form produced by {@link #toString()}.
+     * @param maxLength Maximum number of characters in the key.
+     *
+     * @return Parsed key.
+     *
+     * @throws BadlyFormattedFlowExecutionKeyException If the key is malformed.
+     * @throws ClientFlowExecutionRepositoryException If the key exceeds the maximum length.
+     */
+    public static ClientFlowExecutionKey parse(final String key, final int maxLength)
+            throws BadlyFormattedFlowExecutionKeyException {
+        if (key.length() > maxLength) {
+            throw new ClientFlowExecutionRepositoryException(
+                    "Flow execution key length " + key.length() + " exceeds limit of " + maxLength);
         }
-        final UUID uuid;
-        try {
-            uuid = UUID.fromString(tokens[0]);
-        } catch (Exception e) {
+        if (key.length() > 0 && key.charAt(0) == COMPACT_PREFIX) {
+            return parseCompact(key);
+        }
+        if (key.length() <= UUID_LENGTH + 1 || key.charAt(UUID_LENGTH) != SEPARATOR) {
             throw new BadlyFormattedFlowExecutionKeyException(key, KEY_FORMAT);
         }
-        final byte[] decoded;
-        try {
-            decoded = CodecUtil.b64(tokens[1]);
-        } catch (Exception e) {
+        final UUID uuid = parseUuid(key);
+        if (uuid == null || !Base64Codec.STANDARD.isCanonical(key, UUID_LENGTH + 1, key.length())) {
             throw new BadlyFormattedFlowExecutionKeyException(key, KEY_FORMAT);
         }
-        return new ClientFlowExecutionKey(uuid, decoded);
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            final char c = key.charAt(i);
+            if (c >= 'A' && c <= 'F') {
+                // Render the identifier in canonical lowercase form
+                return new ClientFlowExecutionKey(uuid, uuid + key.substring(UUID_LENGTH), false);
+            }
+        }
+        return new ClientFlowExecutionKey(uuid, key, false);
+    }
+
+    /** Parses a key in the compact form. */
+    private static ClientFlowExecutionKey parseCompact(final String key)
+            throws BadlyFormattedFlowExecutionKeyException {
+        if (key.length() <= COMPACT_ID_LENGTH
+                || !Base64Codec.URL_SAFE.isCanonical(key, 1, COMPACT_ID_LENGTH)
+                || !Base64Codec.URL_SAFE.isCanonical(key, COMPACT_ID_LENGTH, key.length())) {
+            throw new BadlyFormattedFlowExecutionKeyException(key, COMPACT_KEY_FORMAT);
+        }
+        final byte[] id = Base64Codec.URL_SAFE.decode(key, 1, COMPACT_ID_LENGTH);
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (id[i] & 0xff);
+            lsb = (lsb << 8) | (id[i + 8] & 0xff);
+        }
+        return new ClientFlowExecutionKey(new UUID(msb, lsb), key, true);
+    }
+
+    /** Parses the UUID at the start of the given string; returns null if it is not in the standard form. */
+    private static UUID parseUuid(final String s) {
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            final char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return null;
+                }
+                continue;
+            }
+            final int digit = hexDigit(c);
+            if (digit < 0) {
+                return null;
+            }
+            if (i < 18) {
+                msb = (msb << 4) | digit;
+            } else {
+                lsb = (lsb << 4) | digit;
+            }
+        }
+        return new UUID(msb, lsb);
+    }
+
+    /** Gets the value of an ASCII hexadecimal digit, or -1 for any other character including non-ASCII digits. */
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
     }
 
     private void writeObject(final ObjectOutputStream out) throws IOException {
@@ -136,6 +328,7 @@ public class ClientFlowExecutionKey extends FlowExecutionKey {
     private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
         final ClientFlowExecutionKey temp = parse(in.readUTF());
         this.id = temp.id;
-        this.data = temp.data;
+        this.key = temp.key;
+        this.compact = temp.compact;
     }
 }
@@ -17,23 +17,67 @@ package edu.vt.middleware.webflow;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
 
+import org.springframework.binding.collection.SharedMapDecorator;
 import org.springframework.util.Assert;
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.core.collection.LocalParameterMap;
+import org.springframework.webflow.core.collection.LocalSharedAttributeMap;
 import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.core.collection.ParameterMap;
+import org.springframework.webflow.core.collection.SharedAttributeMap;
 import org.springframework.webflow.definition.FlowDefinition;
 import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
 import org.springframework.webflow.execution.FlowExecution;
 import org.springframework.webflow.execution.FlowExecutionFactory;
 import org.springframework.webflow.execution.FlowExecutionKey;
 import org.springframework.webflow.execution.FlowExecutionKeyFactory;
+import org.springframework.webflow.execution.repository.BadlyFormattedFlowExecutionKeyException;
 import org.springframework.webflow.execution.repository.FlowExecutionLock;
 import org.springframework.webflow.execution.repository.FlowExecutionRepository;
 import org.springframework.webflow.execution.repository.FlowExecutionRepositoryException;
+import org.springframework.webflow.execution.repository.NoSuchFlowExecutionException;
 
 /**
  * Stores all flow execution state in {@link ClientFlowExecutionKey}, which effectively stores execution state on the
  * client in a form parameter when a view is rendered. The details of encoding flow state into a byte stream is handled
  * by a {@link Transcoder} component.
+ * <p>
+ * Setting a {@link FlowStateStore} enables a hybrid mode: encoded state up to the
+ * {@link #setInlineThreshold(int) inline threshold} remains in the key, while larger state is placed in the store and
+ * the key carries only a short content hash that references it. State evicted from the store is treated as an expired
+ * flow execution. Hybrid mode prefixes key data with a two-byte type marker, which keys produced without a store lack;
+ * such keys are still accepted as inline state. The marker begins with 0xAC, which no transcoder produces as its first
+ * byte other than at the start of a legacy Java serialization stream, and continues with a byte that such a stream
+ * never has in second place.
+ * <p>
+ * Setting a {@link SnapshotHistory} enables delta mode: the history retains recent serialized snapshots of each
+ * execution, and the key produced for an execution restored from a key carries only a delta against the snapshot it
+ * was restored from, which keeps keys small on long multi-step flows. A key carries the full state instead if that
+ * snapshot has left the history or if the delta is no smaller. A key carrying a delta whose base has left the history
+ * is treated as an expired flow execution. The history settings of view state transitions are honored:
+ * discarding the current snapshot removes the base of the current key, and invalidating all snapshots removes the
+ * snapshots of the execution from the history. Delta mode prefixes key data with a type marker as hybrid mode does;
+ * keys produced in delta mode are not placed in the flow state store.
+ * <p>
+ * When the transcoder is a {@link SerializingTranscoder}, the key produced for an execution is remembered for the
+ * remainder of the current request. A subsequent request for a key of the same execution reuses the remembered key if
+ * the serialized state is unchanged, which avoids compressing and encrypting the same state again.
  *
  * @author Marvin S. Addison
  *
@@ -42,6 +86,36 @@ import org.springframework.webflow.execution.repository.FlowExecutionRepositoryE
  */
 public class ClientFlowExecutionRepository implements FlowExecutionRepository, FlowExecutionKeyFactory {
 
+    /** Default size of encoded state above which state is placed in the store in hybrid mode. */
+    public static final int DEFAULT_INLINE_THRESHOLD = 4096;
+
+    /** Default maximum number of characters in a flow execution key. */
+    public static final int DEFAULT_MAX_KEY_LENGTH = 1024 * 1024;
+
+    /** First byte of a key data marker; reserved by transcoders for legacy Java serialization streams. */
+    private static final byte MARKER_PREFIX = (byte) 0xAC;
+
+    /** Number of bytes in a key data marker. */
+    private static final int MARKER_SIZE = 2;
+
+    /** Key data marker type for state carried inline in hybrid mode. */
+    private static final byte INLINE = 1;
+
+    /** Key data marker type for a reference to state in the store. */
+    private static final byte REFERENCE = 2;
+
+    /** Key data marker type for state carried as a {@link Snapshot} in delta mode. */
+    private static final byte SNAPSHOT = 3;
+
+    /** Number of bytes of the SHA-256 digest of encoded state used as its reference. */
+    private static final int REFERENCE_SIZE = 16;
+
+    /** Name of the request attribute that holds the most recently produced key. */
+    private static final String ENCODED_KEY_ATTRIBUTE = ClientFlowExecutionRepository.class.getName() + ".encodedKey";
+
+    /** Name of the request attribute that holds the snapshot of the most recently restored or produced key. */
+    private static final String SNAPSHOT_ATTRIBUTE = ClientFlowExecutionRepository.class.getName() + ".snapshot";
+
     /** Client flow storage has not backing store independent from the flow key, so no locking is required. */
     private static final FlowExecutionLock NOOP_LOCK = new FlowExecutionLock() {
         public void lock() {}
@@ -55,6 +129,27 @@ public class ClientFlowExecutionRepository implements FlowExecutionRepository, F
 
     private final Transcoder transcoder;
 
+    /** Holds state that exceeds the inline threshold; null disables hybrid mode. */
+    private FlowStateStore flowStateStore;
+
+    /** Retains recent snapshots that serve as delta bases; null disables delta mode. */
+    private SnapshotHistory snapshotHistory;
+
+    private int inlineThreshold = DEFAULT_INLINE_THRESHOLD;
+
+    private int maxKeyLength = DEFAULT_MAX_KEY_LENGTH;
+
+    private boolean compactKeys;
+
+    /** Determines which scope attributes are omitted from state; null to serialize all attributes. */
+    private AttributePolicy attributePolicy;
+
+    /** Rejects keys of flow executions that have moved on; null to accept any valid key. */
+    private ReplayGuard replayGuard;
+
+    /** Receives malformed key and missing state errors. */
+    private FlowStateMetrics metrics = NoOpFlowStateMetrics.INSTANCE;
+
     public ClientFlowExecutionRepository(
             final FlowExecutionFactory flowExecutionFactory,
             final FlowDefinitionLocator flowDefinitionLocator,
@@ -67,8 +162,108 @@ public class ClientFlowExecutionRepository implements FlowExecutionRepository, F
         this.transcoder = transcoder;
     }
 
+    /**
+     * Sets the store that holds encoded state larger than the inline threshold, enabling hybrid mode.
+     *
+     * @param store Flow state store; null to keep all state inline (default).
+     */
+    public void setFlowStateStore(final FlowStateStore store) {
+        this.flowStateStore = store;
+    }
+
+    /**
+     * Sets the history of recent snapshots, enabling delta mode. Requires a {@link SerializingTranscoder}.
+     *
+     * @param history Snapshot history; null to carry full state in every key (default).
+     */
+    public void setSnapshotHistory(final SnapshotHistory history) {
+        if (history != null && !(this.transcoder instanceof SerializingTranscoder)) {
+            throw new IllegalArgumentException("Snapshot history requires a SerializingTranscoder");
+        }
+        this.snapshotHistory = history;
+    }
+
+    /**
+     * Sets the size of encoded state above which state is placed in the flow state store rather than in the key.
+     * Defaults to {@value #DEFAULT_INLINE_THRESHOLD} bytes. Has no effect unless a store is set.
+     *
+     * @param threshold Maximum size in bytes of encoded state carried inline.
+     */
+    public void setInlineThreshold(final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Inline threshold cannot be negative");
+        }
+        this.inlineThreshold = threshold;
+    }
+
+    /**
+     * Sets the maximum number of characters in a flow execution key. Longer keys are rejected before they are
+     * decoded. Defaults to {@value #DEFAULT_MAX_KEY_LENGTH}.
+     *
+     * @param length Maximum key length.
+     */
+    public void setMaxKeyLength(final int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Maximum key length must be positive");
+        }
+        this.maxKeyLength = length;
+    }
+
+    /**
+     * Sets whether keys are produced in the compact form, which is shorter and URL-safe. Keys in either form are
+     * accepted regardless, but nodes running prior versions do not accept compact keys, so enable this once all nodes
+     * are upgraded. Defaults to false.
+     *
+     * @param compactKeys True to produce compact keys, false to produce keys in the standard form.
+     *
+     * @see ClientFlowExecutionKey
+     */
+    public void setCompactKeys(final boolean compactKeys) {
+        this.compactKeys = compactKeys;
+    }
+
+    /**
+     * Sets the policy that determines which conversation and flow scope attributes are omitted from flow execution
+     * state and how they are restored.
+     *
+     * @param policy Attribute policy; null to serialize all attributes (default).
+     */
+    public void setAttributePolicy(final AttributePolicy policy) {
+        this.attributePolicy = policy;
+    }
+
+    /**
+     * Sets the guard that rejects replayed keys. A key is consumed once the flow execution restored from it is
+     * assigned a new key or ends, after which it is rejected as if its state had expired, without being decoded.
+     * Resubmitting a key while its view is refreshed, e.g. after a validation error, remains possible, but going back
+     * to an earlier view with the browser's back button and submitting it does not. Keys are recorded by a digest of
+     * their data rather than by their id, which is not bound to the data, so a replayed key cannot evade the guard by
+     * carrying a different id.
+     *
+     * @param guard Replay guard; null to accept every valid key (default).
+     */
+    public void setReplayGuard(final ReplayGuard guard) {
+        this.replayGuard = guard;
+    }
+
+    /**
+     * Sets the component that receives malformed key and missing state errors. Defaults to
+     * {@link NoOpFlowStateMetrics}. Phase latencies and payload sizes are recorded by the transcoder.
+     *
+     * @param metrics Metrics recorder.
+     */
+    public void setMetrics(final FlowStateMetrics metrics) {
+        Assert.notNull(metrics, "Metrics cannot be null");
+        this.metrics = metrics;
+    }
+
     public FlowExecutionKey parseFlowExecutionKey(final String encodedKey) throws FlowExecutionRepositoryException {
-        return ClientFlowExecutionKey.parse(encodedKey);
+        try {
+            return ClientFlowExecutionKey.parse(encodedKey, this.maxKeyLength);
+        } catch (BadlyFormattedFlowExecutionKeyException e) {
+            this.metrics.recordError(FlowStateMetrics.ErrorCause.BAD_FORMAT);
+            throw e;
+        }
     }
 
     public FlowExecutionLock getLock(final FlowExecutionKey key) throws FlowExecutionRepositoryException {
@@ -80,12 +275,26 @@ public class ClientFlowExecutionRepository implements FlowExecutionRepository, F
             throw new IllegalArgumentException(
                     "Expected instance of ClientFlowExecutionKey but got " + key.getClass().getName());
         }
-        final byte[] encoded = ((ClientFlowExecutionKey) key).getData();
+        final byte[] data = getData((ClientFlowExecutionKey) key);
+        if (this.replayGuard != null && this.replayGuard.isConsumed(digest(data))) {
+            this.metrics.recordError(FlowStateMetrics.ErrorCause.REPLAY);
+            throw new NoSuchFlowExecutionException(key, null);
+        }
         try {
-            final SerializedFlowExecutionState state = (SerializedFlowExecutionState) this.transcoder.decode(encoded);
+            final SerializedFlowExecutionState state;
+            if (this.snapshotHistory != null && markerOf(data) == SNAPSHOT) {
+                state = restoreSnapshot(key, data);
+            } else {
+                state = (SerializedFlowExecutionState) this.transcoder.decode(resolve(key, data));
+            }
             final FlowDefinition flow = this.flowDefinitionLocator.getFlowDefinition(state.getFlowId());
-            return this.flowExecutionFactory.restoreFlowExecution(
+            final FlowExecution execution = this.flowExecutionFactory.restoreFlowExecution(
                     state.getExecution(), flow, key, state.getConversationScope(), this.flowDefinitionLocator);
+            if (this.attributePolicy != null && !this.attributePolicy.rehydrate(execution)) {
+                this.metrics.recordError(FlowStateMetrics.ErrorCause.MISSING_STATE);
+                throw new NoSuchFlowExecutionException(key, null);
+            }
+            return execution;
         } catch (IOException e) {
             throw new ClientFlowExecutionRepositoryException("Error decoding flow execution", e);
         }
@@ -93,21 +302,472 @@ public class ClientFlowExecutionRepository implements FlowExecutionRepository, F
 
     public void putFlowExecution(final FlowExecution flowExecution) throws FlowExecutionRepositoryException {}
 
-    public void removeFlowExecution(final FlowExecution flowExecution) throws FlowExecutionRepositoryException {}
+    public void removeFlowExecution(final FlowExecution flowExecution) throws FlowExecutionRepositoryException {
+        consume(flowExecution.getKey());
+        removeAllFlowExecutionSnapshots(flowExecution);
+    }
 
     public FlowExecutionKey getKey(final FlowExecution execution) {
+        final FlowExecutionKey key = newKey(execution);
+        // The execution still holds the key it was restored from, if any, which is consumed unless it is reused
+        if (!key.equals(execution.getKey())) {
+            consume(execution.getKey());
+        }
+        return key;
+    }
+
+    /** Produces a key for the current state of an execution. */
+    private FlowExecutionKey newKey(final FlowExecution execution) {
         try {
-            return new ClientFlowExecutionKey(this.transcoder.encode(new SerializedFlowExecutionState(execution)));
+            if (this.transcoder instanceof SerializingTranscoder) {
+                return getKey(execution, (SerializingTranscoder) this.transcoder);
+            }
+            final List<AttributePolicy.Replacement> replaced = externalize(execution);
+            final byte[] encoded;
+            try {
+                encoded = this.transcoder.encode(new SerializedFlowExecutionState(execution));
+            } finally {
+                AttributePolicy.reinstate(replaced);
+            }
+            return new ClientFlowExecutionKey(UUID.randomUUID(), store(encoded), this.compactKeys);
         } catch (IOException e) {
             throw new ClientFlowExecutionRepositoryException("Error encoding flow execution", e);
         }
     }
 
+    /**
+     * Exercises the encode and decode paths for a flow so that classes are loaded, caches are populated and the JIT
+     * has compiled the hot paths before the first real request. The flow is launched with the given input in a
+     * synthetic external context, and the key of the paused execution is decoded and re-encoded the given number of
+     * times. Note that the flow's start actions run as usual, and in hybrid mode the state is placed in the store.
+     *
+     * @param flowId Flow definition id.
+     * @param input Flow input; may be null.
+     * @param iterations Number of decode and encode round trips.
+     *
+     * @return True if the flow paused and was round tripped, false if it ended on launch.
+     */
+    public boolean warmUp(final String flowId, final MutableAttributeMap input, final int iterations) {
+        final FlowExecution execution = launch(flowId, input);
+        if (!execution.isActive()) {
+            return false;
+        }
+        final ExternalContext previous = ExternalContextHolder.getExternalContext();
+        try {
+            FlowExecutionKey key = execution.getKey();
+            for (int i = 0; i < iterations; i++) {
+                // A new context per round trip prevents reuse of the key produced in the previous one
+                ExternalContextHolder.setExternalContext(new SyntheticExternalContext());
+                key = getKey(getFlowExecution(key));
+            }
+            return true;
+        } finally {
+            ExternalContextHolder.setExternalContext(previous);
+        }
+    }
+
+    /**
+     * Launches a flow in a synthetic external context.
+     *
+     * @param flowId Flow definition id.
+     * @param input Flow input; may be null.
+     *
+     * @return Started flow execution, which is paused unless the flow ended on launch.
+     */
+    FlowExecution launch(final String flowId, final MutableAttributeMap input) {
+        final FlowExecution execution = this.flowExecutionFactory.createFlowExecution(
+                this.flowDefinitionLocator.getFlowDefinition(flowId));
+        final ExternalContext previous = ExternalContextHolder.getExternalContext();
+        final ExternalContext context = new SyntheticExternalContext();
+        ExternalContextHolder.setExternalContext(context);
+        try {
+            execution.start(input, context);
+        } finally {
+            ExternalContextHolder.setExternalContext(previous);
+        }
+        return execution;
+    }
+
+    /**
+     * @return Ids of all flows if the flow definition locator is a registry, otherwise an empty array.
+     */
+    String[] getFlowDefinitionIds() {
+        if (this.flowDefinitionLocator instanceof FlowDefinitionRegistry) {
+            return ((FlowDefinitionRegistry) this.flowDefinitionLocator).getFlowDefinitionIds();
+        }
+        return new String[0];
+    }
+
     public void updateFlowExecutionSnapshot(final FlowExecution execution) {}
 
-    public void removeFlowExecutionSnapshot(final FlowExecution execution) {}
+    public void removeFlowExecutionSnapshot(final FlowExecution execution) {
+        final SnapshotRef current = getSnapshot(execution.getKey());
+        if (current != null && current.base != null) {
+            // Keys carrying a delta against the same base, the current key among them, can no longer be restored
+            this.snapshotHistory.remove(current.base);
+        }
+    }
+
+    public void removeAllFlowExecutionSnapshots(final FlowExecution execution) {
+        final SnapshotRef current = getSnapshot(execution.getKey());
+        if (current != null) {
+            this.snapshotHistory.removeConversation(current.conversation);
+        }
+    }
+
+    /** Produces a key, reusing the key last produced in the current request if the state is unchanged. */
+    private FlowExecutionKey getKey(final FlowExecution execution, final SerializingTranscoder transcoder)
+            throws IOException {
+        final SerializedFlowExecutionState state = new SerializedFlowExecutionState(execution);
+        final List<AttributePolicy.Replacement> replaced = externalize(execution);
+        final byte[] serialized;
+        try {
+            serialized = transcoder.serialize(state);
+        } finally {
+            AttributePolicy.reinstate(replaced);
+        }
+        final ExternalContext context = ExternalContextHolder.getExternalContext();
+        final EncodedKey previous = context != null
+                ? (EncodedKey) context.getRequestMap().get(ENCODED_KEY_ATTRIBUTE) : null;
+        if (previous != null && previous.execution == execution && Arrays.equals(previous.serialized, serialized)) {
+            return previous.key;
+        }
+        final FlowExecutionKey key;
+        if (this.snapshotHistory != null) {
+            key = newSnapshotKey(execution, serialized, transcoder);
+        } else {
+            key = new ClientFlowExecutionKey(
+                    UUID.randomUUID(), store(transcoder.encodeSerialized(state, serialized)), this.compactKeys);
+        }
+        if (context != null) {
+            context.getRequestMap().put(ENCODED_KEY_ATTRIBUTE, new EncodedKey(execution, serialized, key));
+        }
+        return key;
+    }
+
+    /** Produces a key in delta mode, which carries a delta against the snapshot the execution was restored from. */
+    private FlowExecutionKey newSnapshotKey(
+            final FlowExecution execution, final byte[] serialized, final SerializingTranscoder transcoder)
+            throws IOException {
+        final UUID id = UUID.randomUUID();
+        final SnapshotRef previous = getSnapshot(execution.getKey());
+        final SnapshotHistory.Entry base = previous != null ? this.snapshotHistory.get(previous.id) : null;
+        Snapshot snapshot = null;
+        UUID conversation = id;
+        if (base != null) {
+            conversation = base.conversation;
+            final byte[] delta = DeltaCodec.diff(base.snapshot, serialized);
+            if (delta.length < serialized.length) {
+                snapshot = new Snapshot(id, previous.id, delta);
+            }
+        }
+        if (snapshot == null) {
+            snapshot = new Snapshot(id, null, serialized);
+        }
+        this.snapshotHistory.put(conversation, id, serialized);
+        final FlowExecutionKey key = new ClientFlowExecutionKey(
+                id, mark(SNAPSHOT, transcoder.encode(snapshot)), this.compactKeys);
+        setSnapshot(new SnapshotRef(key, id, snapshot.base, conversation));
+        return key;
+    }
+
+    /** Reconstructs serialized state from key data produced in delta mode and records the snapshot it represents. */
+    private SerializedFlowExecutionState restoreSnapshot(final FlowExecutionKey key, final byte[] data)
+            throws IOException {
+        final Snapshot snapshot = (Snapshot) this.transcoder.decode(
+                Arrays.copyOfRange(data, MARKER_SIZE, data.length));
+        final byte[] serialized;
+        final UUID conversation;
+        if (snapshot.base == null) {
+            serialized = snapshot.data;
+            final SnapshotHistory.Entry entry = this.snapshotHistory.get(snapshot.id);
+            conversation = entry != null ? entry.conversation : snapshot.id;
+        } else {
+            final SnapshotHistory.Entry base = this.snapshotHistory.get(snapshot.base);
+            if (base == null) {
+                this.metrics.recordError(FlowStateMetrics.ErrorCause.MISSING_STATE);
+                throw new NoSuchFlowExecutionException(key, null);
+            }
+            final int limit = (int) Math.min(Integer.MAX_VALUE, this.snapshotHistory.getMaxBytes());
+            serialized = DeltaCodec.apply(base.snapshot, snapshot.data, limit);
+            conversation = base.conversation;
+        }
+        // Retain the snapshot again if it has left the history so that the next key can carry a delta against it
+        this.snapshotHistory.put(conversation, snapshot.id, serialized);
+        setSnapshot(new SnapshotRef(key, snapshot.id, snapshot.base, conversation));
+        return (SerializedFlowExecutionState) ((SerializingTranscoder) this.transcoder).deserialize(serialized);
+    }
+
+    /** Gets the snapshot recorded in the current request for the given key, if any. */
+    private SnapshotRef getSnapshot(final FlowExecutionKey key) {
+        final ExternalContext context = ExternalContextHolder.getExternalContext();
+        if (this.snapshotHistory == null || key == null || context == null) {
+            return null;
+        }
+        final SnapshotRef ref = (SnapshotRef) context.getRequestMap().get(SNAPSHOT_ATTRIBUTE);
+        return ref != null && ref.key.equals(key) ? ref : null;
+    }
+
+    private void setSnapshot(final SnapshotRef ref) {
+        final ExternalContext context = ExternalContextHolder.getExternalContext();
+        if (context != null) {
+            context.getRequestMap().put(SNAPSHOT_ATTRIBUTE, ref);
+        }
+    }
+
+    /** Records a key as consumed if a replay guard is set. */
+    private void consume(final FlowExecutionKey key) {
+        if (this.replayGuard != null && key instanceof ClientFlowExecutionKey) {
+            this.replayGuard.consume(digest(((ClientFlowExecutionKey) key).getData()));
+        }
+    }
+
+    /** Identifies key data for the replay guard; the data is authenticated by the transcoder, unlike the key id. */
+    private static UUID digest(final byte[] data) {
+        final ByteBuffer hash = ByteBuffer.wrap(sha256(data));
+        return new UUID(hash.getLong(), hash.getLong());
+    }
+
+    /** Replaces attributes the policy omits from state; the caller must reinstate them once state is serialized. */
+    private List<AttributePolicy.Replacement> externalize(final FlowExecution execution) throws IOException {
+        if (this.attributePolicy == null) {
+            return Collections.emptyList();
+        }
+        return this.attributePolicy.externalize(execution);
+    }
+
+    /** Produces key data for encoded state, placing the state in the store if it exceeds the inline threshold. */
+    private byte[] store(final byte[] encoded) {
+        if (this.flowStateStore == null) {
+            return encoded;
+        }
+        if (encoded.length > this.inlineThreshold) {
+            final byte[] hash = Arrays.copyOf(sha256(encoded), REFERENCE_SIZE);
+            if (this.flowStateStore.put(hash, encoded)) {
+                return mark(REFERENCE, hash);
+            }
+        }
+        return mark(INLINE, encoded);
+    }
+
+    /** Prefixes data with the marker of the given type. */
+    private static byte[] mark(final byte type, final byte[] payload) {
+        final byte[] data = new byte[payload.length + MARKER_SIZE];
+        data[0] = MARKER_PREFIX;
+        data[1] = type;
+        System.arraycopy(payload, 0, data, MARKER_SIZE, payload.length);
+        return data;
+    }
+
+    /** Gets the marker type of key data, or 0 if the data carries no marker. */
+    private static byte markerOf(final byte[] data) {
+        if (data.length < MARKER_SIZE || data[0] != MARKER_PREFIX) {
+            return 0;
+        }
+        return data[1] == INLINE || data[1] == REFERENCE || data[1] == SNAPSHOT ? data[1] : 0;
+    }
+
+    private byte[] getData(final ClientFlowExecutionKey key) {
+        try {
+            return key.getData();
+        } catch (BadlyFormattedFlowExecutionKeyException e) {
+            this.metrics.recordError(FlowStateMetrics.ErrorCause.BAD_FORMAT);
+            throw e;
+        }
+    }
+
+    /** Gets the encoded state for key data produced by {@link #store(byte[])}. */
+    private byte[] resolve(final FlowExecutionKey key, final byte[] data) {
+        if (this.flowStateStore == null) {
+            return data;
+        }
+        final byte marker = markerOf(data);
+        if (marker == INLINE) {
+            return Arrays.copyOfRange(data, MARKER_SIZE, data.length);
+        }
+        if (marker == REFERENCE && data.length == REFERENCE_SIZE + MARKER_SIZE) {
+            final byte[] encoded = this.flowStateStore.get(Arrays.copyOfRange(data, MARKER_SIZE, data.length));
+            if (encoded == null) {
+                this.metrics.recordError(FlowStateMetrics.ErrorCause.MISSING_STATE);
+                throw new NoSuchFlowExecutionException(key, null);
+            }
+            return encoded;
+        }
+        // Inline state produced before hybrid mode was enabled
+        return data;
+    }
+
+    static byte[] sha256(final byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+
+    /** Key produced for an execution in the current request along with the serialized state it encodes. */
+    private static class EncodedKey {
+        final FlowExecution execution;
+
+        final byte[] serialized;
+
+        final FlowExecutionKey key;
+
+        EncodedKey(final FlowExecution execution, final byte[] serialized, final FlowExecutionKey key) {
+            this.execution = execution;
+            this.serialized = serialized;
+            this.key = key;
+        }
+    }
+
+
+    /** External context of a request with no parameters or session, in which flows are launched for warm-up. */
+    private static class SyntheticExternalContext implements ExternalContext {
+        private final ParameterMap requestParameterMap = new LocalParameterMap(new HashMap<String, Object>());
+
+        private final MutableAttributeMap requestMap = new LocalAttributeMap();
+
+        private final SharedAttributeMap sessionMap = newSharedMap();
+
+        private final SharedAttributeMap applicationMap = newSharedMap();
+
+        private final StringWriter responseWriter = new StringWriter();
+
+        private boolean responseComplete;
+
+        private boolean flowExecutionRedirect;
+
+        public String getContextPath() {
+            return "";
+        }
+
+        public ParameterMap getRequestParameterMap() {
+            return this.requestParameterMap;
+        }
+
+        public MutableAttributeMap getRequestMap() {
+            return this.requestMap;
+        }
+
+        public SharedAttributeMap getSessionMap() {
+            return this.sessionMap;
+        }
+
+        public SharedAttributeMap getGlobalSessionMap() {
+            return this.sessionMap;
+        }
+
+        public SharedAttributeMap getApplicationMap() {
+            return this.applicationMap;
+        }
+
+        public boolean isAjaxRequest() {
+            return false;
+        }
+
+        public String getFlowExecutionUrl(final String flowId, final String flowExecutionKey) {
+            return "/" + flowId + "?execution=" + flowExecutionKey;
+        }
+
+        public Principal getCurrentUser() {
+            return null;
+        }
+
+        public Locale getLocale() {
+            return Locale.getDefault();
+        }
+
+        public Object getNativeContext() {
+            return null;
+        }
+
+        public Object getNativeRequest() {
+            return null;
+        }
+
+        public Object getNativeResponse() {
+            return null;
+        }
+
+        public Writer getResponseWriter() {
+            return this.responseWriter;
+        }
+
+        public boolean isResponseAllowed() {
+            return !this.responseComplete;
+        }
+
+        public void requestFlowExecutionRedirect() {
+            this.flowExecutionRedirect = true;
+            recordResponseComplete();
+        }
+
+        public void requestFlowDefinitionRedirect(final String flowId, final MutableAttributeMap input) {
+            recordResponseComplete();
+        }
+
+        public void requestExternalRedirect(final String location) {
+            recordResponseComplete();
+        }
+
+        public void requestRedirectInPopup() {}
+
+        public void recordResponseComplete() {
+            this.responseComplete = true;
+        }
+
+        public boolean isResponseComplete() {
+            return this.responseComplete;
+        }
+
+        public boolean isResponseCompleteFlowExecutionRedirect() {
+            return this.flowExecutionRedirect;
+        }
+
+        private static SharedAttributeMap newSharedMap() {
+            return new LocalSharedAttributeMap(new SharedMapDecorator(new HashMap<String, Object>()));
+        }
+    }
+
+
+    /** Snapshot of an execution recorded for the remainder of the request in which its key was restored or produced. */
+    private static class SnapshotRef {
+        final FlowExecutionKey key;
+
+        final UUID id;
+
+        final UUID base;
+
+        final UUID conversation;
+
+        SnapshotRef(final FlowExecutionKey key, final UUID id, final UUID base, final UUID conversation) {
+            this.key = key;
+            this.id = id;
+            this.base = base;
+            this.conversation = conversation;
+        }
+    }
+
+
+    /** State carried in a key in delta mode: either a delta against a base snapshot or the full serialized state. */
+    static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 2829645181604379470L;
+
+        /** Id of this snapshot, which is also the id of the key that carries it. */
+        private final UUID id;
+
+        /** Id of the base snapshot; null if data holds the full serialized state. */
+        private final UUID base;
 
-    public void removeAllFlowExecutionSnapshots(final FlowExecution execution) {}
+        private final byte[] data;
+
+        Snapshot(final UUID id, final UUID base, final byte[] data) {
+            this.id = id;
+            this.base = base;
+            this.data = data;
+        }
+    }
 
 
     static class SerializedFlowExecutionState implements Serializable {
@@ -125,6 +785,13 @@ public class ClientFlowExecutionRepository implements FlowExecutionRepository, F
             this.conversationScope = execution.getConversationScope();
         }
 
+        SerializedFlowExecutionState(
+                final String flowId, final MutableAttributeMap conversationScope, final FlowExecution execution) {
+            this.flowId = flowId;
+            this.conversationScope = conversationScope;
+            this.execution = execution;
+        }
+
         public String getFlowId() {
             return flowId;
         }
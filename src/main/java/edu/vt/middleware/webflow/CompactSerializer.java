@@ -0,0 +1,961 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.execution.FlowExecution;
+
+/**
+ * Serializer that writes a compact binary representation of flow execution state. The flow id, the flow session
+ * stack, and the flow and conversation scopes are written directly, and the externalized form of the Web Flow
+ * execution and session classes is written inline without class descriptors. Class names and strings are written once
+ * per stream and referenced by index thereafter; strings common to all flows are known in advance and never written.
+ * Integers and lengths use a variable-length encoding. Values of any other type fall back to Java serialization in a
+ * single embedded object stream, so class descriptors are written at most once per stream. Shared references are
+ * preserved throughout the object graph, including those between values written directly and values that fall back,
+ * e.g. a list held in flow scope and in a field of a serializable bean.
+ * <p>
+ * Java serialization streams, e.g. those produced by {@link JavaSerializer}, are recognized and decoded, which allows
+ * switching serializers without invalidating outstanding flow execution keys. Both formats are decoded subject to
+ * {@link DeserializationLimits}.
+ *
+ * @author Marvin S. Addison
+ */
+public class CompactSerializer implements Serializer {
+
+    /** First byte of a compact stream; chosen to differ from the first byte of a Java serialization stream. */
+    static final int MAGIC = 0xCF;
+
+    /** Stream format version. Changes to the known string table require a new version. */
+    static final int VERSION = 1;
+
+    /** First byte of a Java serialization stream. */
+    private static final int JAVA_STREAM_MAGIC = 0xAC;
+
+    private static final int NULL = 0;
+
+    private static final int REFERENCE = 1;
+
+    private static final int STRING = 2;
+
+    private static final int INTEGER = 3;
+
+    private static final int LONG = 4;
+
+    private static final int TRUE = 5;
+
+    private static final int FALSE = 6;
+
+    private static final int ENUM = 7;
+
+    private static final int FLOW_STATE = 8;
+
+    private static final int ATTRIBUTE_MAP = 9;
+
+    private static final int HASH_MAP = 10;
+
+    private static final int ARRAY_LIST = 11;
+
+    private static final int LINKED_LIST = 12;
+
+    private static final int EXTERNALIZABLE = 13;
+
+    private static final int JAVA = 14;
+
+    /** Web Flow classes whose externalized form is written inline. */
+    private static final String[] EXTERNALIZABLE_CLASSES = {
+        "org.springframework.webflow.engine.impl.FlowExecutionImpl",
+        "org.springframework.webflow.engine.impl.FlowSessionImpl",
+    };
+
+    /** Strings known to both ends of a stream. */
+    private static final String[] KNOWN_STRINGS = {
+        EXTERNALIZABLE_CLASSES[0],
+        EXTERNALIZABLE_CLASSES[1],
+        "org.springframework.webflow.engine.impl.FlowExecutionStatus",
+        "NOT_STARTED",
+        "ACTIVE",
+        "ENDED",
+        "flashScope",
+        "viewScope",
+        "embeddedMode",
+        "messagesMemento",
+    };
+
+    private static final Map<String, Integer> KNOWN_STRING_INDEX = new HashMap<String, Integer>();
+
+    /** No-argument constructors of classes in {@link #EXTERNALIZABLE_CLASSES} that could be loaded. */
+    private static final Map<String, Constructor<?>> CONSTRUCTORS = new HashMap<String, Constructor<?>>();
+
+    /** Backing map of {@link LocalAttributeMap}; null if inaccessible, in which case such maps fall back. */
+    private static final Field ATTRIBUTES_FIELD;
+
+    static {
+        for (int i = 0; i < KNOWN_STRINGS.length; i++) {
+            KNOWN_STRING_INDEX.put(KNOWN_STRINGS[i], i);
+        }
+        for (String name : EXTERNALIZABLE_CLASSES) {
+            try {
+                final Constructor<?> constructor = Class.forName(name).getDeclaredConstructor();
+                constructor.setAccessible(true);
+                CONSTRUCTORS.put(name, constructor);
+            } catch (Exception e) {
+                // Instances of an unavailable class are serialized with the Java fallback
+            }
+        }
+        Field field;
+        try {
+            field = LocalAttributeMap.class.getDeclaredField("attributes");
+            field.setAccessible(true);
+        } catch (Exception e) {
+            field = null;
+        }
+        ATTRIBUTES_FIELD = field;
+    }
+
+    /** Decodes Java serialization streams. */
+    private final JavaSerializer javaSerializer = new JavaSerializer();
+
+    private DeserializationLimits limits = this.javaSerializer.getLimits();
+
+    private boolean lazyScopes;
+
+
+    /**
+     * Sets the limits on decoded object graphs, which also apply to Java serialization streams and embedded values.
+     * Defaults to the default limits, which do not restrict classes.
+     *
+     * @param limits Deserialization limits.
+     */
+    public void setLimits(final DeserializationLimits limits) {
+        Assert.notNull(limits, "Limits cannot be null");
+        this.javaSerializer.setLimits(limits);
+        this.limits = limits;
+    }
+
+    /**
+     * Sets whether attribute values are written as independent blobs that are deserialized on first access after the
+     * flow execution is restored. See {@link JavaSerializer#setLazyScopes(boolean)}. Defaults to false.
+     *
+     * @param lazyScopes True to restore scope attributes lazily.
+     */
+    public void setLazyScopes(final boolean lazyScopes) {
+        this.javaSerializer.setLazyScopes(lazyScopes);
+        this.lazyScopes = lazyScopes;
+    }
+
+    public void serialize(final Object o, final BufferOutputStream output) throws IOException {
+        output.write(MAGIC);
+        output.write(VERSION);
+        new Writer(output, this.lazyScopes).writeValue(o);
+    }
+
+    /**
+     * Gets the backing map of an attribute map.
+     *
+     * @param map Attribute map.
+     *
+     * @return Backing map or null if it is inaccessible.
+     */
+    static Map<?, ?> attributes(final LocalAttributeMap map) {
+        if (ATTRIBUTES_FIELD == null) {
+            return null;
+        }
+        try {
+            return (Map<?, ?>) ATTRIBUTES_FIELD.get(map);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access attribute map", e);
+        }
+    }
+
+    public Object deserialize(final byte[] input, final int offset, final int length) throws IOException {
+        if (length > 0 && (input[offset] & 0xff) == JAVA_STREAM_MAGIC) {
+            return this.javaSerializer.deserialize(input, offset, length);
+        }
+        if (length < 2 || (input[offset] & 0xff) != MAGIC) {
+            throw new StreamCorruptedException("Not a compact serialization stream");
+        }
+        if (input[offset + 1] != VERSION) {
+            throw new StreamCorruptedException("Unsupported compact serialization version " + input[offset + 1]);
+        }
+        final Reader reader = new Reader(input, offset + 2, offset + length, this.limits);
+        final Object o = reader.readValue();
+        if (reader.available() > 0) {
+            throw new StreamCorruptedException("Unexpected data following object");
+        }
+        return o;
+    }
+
+
+    /** Writes a single stream. Implements {@link ObjectOutput} to receive the output of externalizable objects. */
+    private static class Writer implements ObjectOutput {
+
+        private final BufferOutputStream out;
+
+        /** Whether attribute map values are written as blobs restored on first access. */
+        private final boolean lazyScopes;
+
+        /** Indices of strings written to the stream, offset by the number of known strings. */
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        /** Handles of objects written to the stream by identity. */
+        private final Map<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+
+        /** Receives values that fall back to Java serialization; created on first use. */
+        private FallbackOutputStream javaOut;
+
+        /** Objects written to the fallback stream, which writes back-references to them thereafter. */
+        private final Map<Object, Boolean> javaObjects = new IdentityHashMap<Object, Boolean>();
+
+
+        Writer(final BufferOutputStream out, final boolean lazyScopes) {
+            this.out = out;
+            this.lazyScopes = lazyScopes;
+        }
+
+        void writeValue(final Object o) throws IOException {
+            if (o == null) {
+                out.write(NULL);
+                return;
+            }
+            final Class<?> type = o.getClass();
+            if (type == String.class) {
+                out.write(STRING);
+                writeString((String) o);
+            } else if (type == Integer.class) {
+                out.write(INTEGER);
+                writeVarint(zigzag((Integer) o));
+            } else if (type == Long.class) {
+                out.write(LONG);
+                writeVarlong(zigzag((Long) o));
+            } else if (type == Boolean.class) {
+                out.write((Boolean) o ? TRUE : FALSE);
+            } else if (o instanceof Enum) {
+                out.write(ENUM);
+                writeString(((Enum<?>) o).getDeclaringClass().getName());
+                writeString(((Enum<?>) o).name());
+            } else if (type == ClientFlowExecutionRepository.SerializedFlowExecutionState.class) {
+                final ClientFlowExecutionRepository.SerializedFlowExecutionState state =
+                        (ClientFlowExecutionRepository.SerializedFlowExecutionState) o;
+                out.write(FLOW_STATE);
+                writeString(state.getFlowId());
+                writeValue(state.getConversationScope());
+                writeValue(state.getExecution());
+            } else {
+                final Integer handle = handles.get(o);
+                if (handle != null) {
+                    out.write(REFERENCE);
+                    writeVarint(handle);
+                    return;
+                }
+                handles.put(o, handles.size());
+                writeObjectValue(o, type);
+            }
+        }
+
+        private void writeObjectValue(final Object o, final Class<?> type) throws IOException {
+            final Constructor<?> constructor;
+            if (javaObjects.containsKey(o)) {
+                // Reached from a value that fell back; only the fallback stream can refer to it
+                writeJava(o);
+            } else if (type == LocalAttributeMap.class && ATTRIBUTES_FIELD != null) {
+                out.write(ATTRIBUTE_MAP);
+                final Map<?, ?> attributes = attributes((LocalAttributeMap) o);
+                if (lazyScopes && !(attributes instanceof LazyValueMap)) {
+                    writeValue(new LazyValueMap(attributes));
+                } else {
+                    writeValue(attributes);
+                }
+            } else if (type == HashMap.class) {
+                out.write(HASH_MAP);
+                final Map<?, ?> map = (Map<?, ?>) o;
+                writeVarint(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else if (type == ArrayList.class || type == LinkedList.class) {
+                out.write(type == ArrayList.class ? ARRAY_LIST : LINKED_LIST);
+                final List<?> list = (List<?>) o;
+                writeVarint(list.size());
+                for (Object item : list) {
+                    writeValue(item);
+                }
+            } else if ((constructor = CONSTRUCTORS.get(type.getName())) != null
+                    && constructor.getDeclaringClass() == type) {
+                out.write(EXTERNALIZABLE);
+                writeString(type.getName());
+                ((Externalizable) o).writeExternal(this);
+            } else {
+                writeJava(o);
+            }
+        }
+
+        private void writeJava(final Object o) throws IOException {
+            out.write(JAVA);
+            if (javaOut == null) {
+                javaOut = new FallbackOutputStream();
+            }
+            javaOut.root = o;
+            javaOut.writeObject(o);
+            javaOut.flush();
+        }
+
+        private void writeString(final String s) {
+            Integer index = KNOWN_STRING_INDEX.get(s);
+            if (index == null) {
+                index = strings.get(s);
+                if (index == null) {
+                    strings.put(s, KNOWN_STRINGS.length + strings.size());
+                    out.write(0);
+                    writeStringData(s);
+                    return;
+                }
+            }
+            writeVarint(index + 1);
+        }
+
+        /** Writes the character count followed by each character in one to three bytes. */
+        private void writeStringData(final String s) {
+            final int n = s.length();
+            writeVarint(n);
+            out.ensureCapacity(out.size() + n * 3);
+            final byte[] b = out.getBuffer();
+            final int start = out.size();
+            int p = start;
+            for (int i = 0; i < n; i++) {
+                final char c = s.charAt(i);
+                if (c < 0x80) {
+                    b[p++] = (byte) c;
+                } else if (c < 0x800) {
+                    b[p++] = (byte) (0xC0 | (c >> 6));
+                    b[p++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    b[p++] = (byte) (0xE0 | (c >> 12));
+                    b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    b[p++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            out.advance(p - start);
+        }
+
+        private void writeVarint(final int value) {
+            int v = value;
+            while ((v & ~0x7F) != 0) {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+
+        private void writeVarlong(final long value) {
+            long v = value;
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) (v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        public void writeObject(final Object o) throws IOException {
+            writeValue(o);
+        }
+
+        public void write(final int b) {
+            out.write(b);
+        }
+
+        public void write(final byte[] b) {
+            out.write(b, 0, b.length);
+        }
+
+        public void write(final byte[] b, final int off, final int len) {
+            out.write(b, off, len);
+        }
+
+        public void writeBoolean(final boolean v) {
+            out.write(v ? 1 : 0);
+        }
+
+        public void writeByte(final int v) {
+            out.write(v);
+        }
+
+        public void writeShort(final int v) {
+            out.write(v >>> 8);
+            out.write(v);
+        }
+
+        public void writeChar(final int v) {
+            writeShort(v);
+        }
+
+        public void writeInt(final int v) {
+            writeShort(v >>> 16);
+            writeShort(v);
+        }
+
+        public void writeLong(final long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        public void writeFloat(final float v) {
+            writeInt(Float.floatToIntBits(v));
+        }
+
+        public void writeDouble(final double v) {
+            writeLong(Double.doubleToLongBits(v));
+        }
+
+        public void writeBytes(final String s) {
+            for (int i = 0; i < s.length(); i++) {
+                out.write(s.charAt(i));
+            }
+        }
+
+        public void writeChars(final String s) {
+            for (int i = 0; i < s.length(); i++) {
+                writeChar(s.charAt(i));
+            }
+        }
+
+        /** Writes modified UTF-8 as {@link java.io.DataOutputStream#writeUTF(String)} does. */
+        public void writeUTF(final String s) throws IOException {
+            int length = 0;
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                length += c >= 0x01 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            }
+            if (length > 0xFFFF) {
+                throw new UTFDataFormatException("Encoded string too long: " + length + " bytes");
+            }
+            writeShort(length);
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c >= 0x01 && c < 0x80) {
+                    out.write(c);
+                } else if (c < 0x800) {
+                    out.write(0xC0 | (c >> 6));
+                    out.write(0x80 | (c & 0x3F));
+                } else {
+                    out.write(0xE0 | (c >> 12));
+                    out.write(0x80 | ((c >> 6) & 0x3F));
+                    out.write(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        public void flush() {}
+
+        public void close() {}
+
+        private static int zigzag(final int v) {
+            return (v << 1) ^ (v >> 31);
+        }
+
+        private static long zigzag(final long v) {
+            return (v << 1) ^ (v >> 63);
+        }
+
+
+        /**
+         * Embedded Java object stream that writes objects already written directly as {@link Handle handles} and
+         * records the objects it writes, so that references between the two forms are preserved.
+         */
+        private final class FallbackOutputStream extends ObjectOutputStream {
+
+            /** Value being written, which has a handle but must be written by this stream. */
+            Object root;
+
+            FallbackOutputStream() throws IOException {
+                super(out);
+                enableReplaceObject(true);
+            }
+
+            @Override
+            protected Object replaceObject(final Object obj) {
+                if (obj != root) {
+                    final Integer handle = handles.get(obj);
+                    if (handle != null) {
+                        return new Handle(handle);
+                    }
+                }
+                javaObjects.put(obj, Boolean.TRUE);
+                return obj;
+            }
+        }
+    }
+
+
+    /** Reference from a value that fell back to Java serialization to a value written directly. */
+    private static final class Handle implements Serializable {
+        private static final long serialVersionUID = -3212372465009658367L;
+
+        private final int index;
+
+        Handle(final int index) {
+            this.index = index;
+        }
+    }
+
+
+    /**
+     * Reads a single stream. Extends {@link InputStream} so that an embedded Java object stream can read from it
+     * and implements {@link ObjectInput} to supply the input of externalizable objects.
+     */
+    private static class Reader extends InputStream implements ObjectInput {
+
+        private final byte[] buf;
+
+        private final int end;
+
+        private int pos;
+
+        private final List<String> strings = new ArrayList<String>();
+
+        private final List<Object> handles = new ArrayList<Object>();
+
+        private final DeserializationLimits limits;
+
+        /** Nesting depth of the value being read. */
+        private int depth;
+
+        /** Reads values that fell back to Java serialization; created on first use. */
+        private RestrictedObjectInputStream javaIn;
+
+
+        Reader(final byte[] buf, final int offset, final int end, final DeserializationLimits limits) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = end;
+            this.limits = limits;
+        }
+
+        Object readValue() throws IOException {
+            if (++depth > limits.getMaxDepth()) {
+                throw new InvalidObjectException("Object graph exceeds maximum depth of " + limits.getMaxDepth());
+            }
+            try {
+                return readTaggedValue();
+            } finally {
+                depth--;
+            }
+        }
+
+        private Object readTaggedValue() throws IOException {
+            final int tag = readUnsignedByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case REFERENCE:
+                final int handle = readVarint();
+                if (handle < 0 || handle >= handles.size()) {
+                    throw new StreamCorruptedException("Invalid object reference " + handle);
+                }
+                return handles.get(handle);
+            case STRING:
+                return readString();
+            case INTEGER:
+                final int i = readVarint();
+                return (i >>> 1) ^ -(i & 1);
+            case LONG:
+                final long l = readVarlong();
+                return (l >>> 1) ^ -(l & 1);
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case ENUM:
+                return readEnum();
+            case FLOW_STATE:
+                final String flowId = readString();
+                final MutableAttributeMap scope = cast(readValue(), MutableAttributeMap.class);
+                return new ClientFlowExecutionRepository.SerializedFlowExecutionState(
+                        flowId, scope, cast(readValue(), FlowExecution.class));
+            case ATTRIBUTE_MAP:
+                final int index = handles.size();
+                addHandle(null);
+                final Map<?, ?> attributes = cast(readValue(), Map.class);
+                if (attributes == null) {
+                    throw new StreamCorruptedException("Attribute map has no backing map");
+                }
+                final LocalAttributeMap attributeMap = new LocalAttributeMap(attributes);
+                handles.set(index, attributeMap);
+                return attributeMap;
+            case HASH_MAP:
+                return readMap();
+            case ARRAY_LIST:
+                final int size = readLength();
+                return readItems(new ArrayList<Object>(size), size);
+            case LINKED_LIST:
+                return readItems(new LinkedList<Object>(), readLength());
+            case EXTERNALIZABLE:
+                return readExternalizable();
+            case JAVA:
+                return readJava();
+            default:
+                throw new StreamCorruptedException("Invalid type code " + tag);
+            }
+        }
+
+        private Object readMap() throws IOException {
+            final int size = readLength();
+            final Map<Object, Object> map = new HashMap<Object, Object>(Math.max((int) (size / .75f) + 1, 16));
+            addHandle(map);
+            for (int i = 0; i < size; i++) {
+                map.put(readValue(), readValue());
+            }
+            return map;
+        }
+
+        private Object readItems(final List<Object> list, final int size) throws IOException {
+            addHandle(list);
+            for (int i = 0; i < size; i++) {
+                list.add(readValue());
+            }
+            return list;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private Object readEnum() throws IOException {
+            final String className = readString();
+            final String name = readString();
+            final Class<?> type = resolveClass(className);
+            if (!type.isEnum()) {
+                throw new StreamCorruptedException(className + " is not an enum");
+            }
+            try {
+                return Enum.valueOf((Class) type, name);
+            } catch (IllegalArgumentException e) {
+                throw new StreamCorruptedException("Invalid " + className + " constant " + name);
+            }
+        }
+
+        private Object readExternalizable() throws IOException {
+            final String className = readString();
+            final Constructor<?> constructor = CONSTRUCTORS.get(className);
+            if (constructor == null) {
+                throw new StreamCorruptedException("Unsupported externalizable class " + className);
+            }
+            limits.checkClass(className);
+            final Externalizable o;
+            try {
+                o = (Externalizable) constructor.newInstance();
+            } catch (Exception e) {
+                throw new IOException("Cannot instantiate " + className, e);
+            }
+            addHandle(o);
+            try {
+                o.readExternal(this);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Deserialization error", e);
+            }
+            return o;
+        }
+
+        private Object readJava() throws IOException {
+            if (javaIn == null) {
+                javaIn = new FallbackInputStream();
+            }
+            final Object o;
+            try {
+                o = javaIn.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Deserialization error", e);
+            }
+            addHandle(o);
+            return o;
+        }
+
+        /** Embedded Java object stream that resolves {@link Handle handles} to values read directly. */
+        private final class FallbackInputStream extends RestrictedObjectInputStream {
+
+            FallbackInputStream() throws IOException {
+                super(Reader.this, limits);
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(final Object obj) throws IOException {
+                if (obj instanceof Handle) {
+                    final int handle = ((Handle) obj).index;
+                    if (handle < 0 || handle >= handles.size()) {
+                        throw new StreamCorruptedException("Invalid object reference " + handle);
+                    }
+                    return handles.get(handle);
+                }
+                return obj;
+            }
+        }
+
+        private void addHandle(final Object o) throws InvalidObjectException {
+            if (handles.size() >= limits.getMaxReferences()) {
+                throw new InvalidObjectException(
+                        "Object graph exceeds maximum of " + limits.getMaxReferences() + " references");
+            }
+            handles.add(o);
+        }
+
+        private Class<?> resolveClass(final String className) throws IOException {
+            limits.checkClass(className);
+            final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            try {
+                return ClassCache.getInstance().resolve(
+                        className, loader != null ? loader : CompactSerializer.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Deserialization error", e);
+            }
+        }
+
+        private String readString() throws IOException {
+            final int index = readVarint() - 1;
+            if (index < 0) {
+                final String s = readChars(readLength());
+                strings.add(s);
+                return s;
+            }
+            if (index < KNOWN_STRINGS.length) {
+                return KNOWN_STRINGS[index];
+            }
+            if (index - KNOWN_STRINGS.length >= strings.size()) {
+                throw new StreamCorruptedException("Invalid string reference " + index);
+            }
+            return strings.get(index - KNOWN_STRINGS.length);
+        }
+
+        private String readChars(final int n) throws IOException {
+            final char[] chars = new char[n];
+            for (int i = 0; i < n; i++) {
+                final int b = readUnsignedByte();
+                if (b < 0x80) {
+                    chars[i] = (char) b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    chars[i] = (char) (((b & 0x1F) << 6) | (readUnsignedByte() & 0x3F));
+                } else if ((b & 0xF0) == 0xE0) {
+                    chars[i] = (char) (((b & 0x0F) << 12) | ((readUnsignedByte() & 0x3F) << 6)
+                            | (readUnsignedByte() & 0x3F));
+                } else {
+                    throw new StreamCorruptedException("Malformed string data");
+                }
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Reads a length, which cannot exceed the number of remaining bytes since every element takes one, nor the
+         * maximum array length.
+         */
+        private int readLength() throws IOException {
+            final int length = readVarint();
+            if (length < 0 || length > end - pos) {
+                throw new StreamCorruptedException("Invalid length " + length);
+            }
+            if (length > limits.getMaxArrayLength()) {
+                throw new InvalidObjectException(
+                        "Length " + length + " exceeds maximum array length of " + limits.getMaxArrayLength());
+            }
+            return length;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        private long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        private void require(final int n) throws EOFException {
+            if (n > end - pos) {
+                throw new EOFException();
+            }
+        }
+
+        private static <T> T cast(final Object o, final Class<T> type) throws StreamCorruptedException {
+            if (o != null && !type.isInstance(o)) {
+                throw new StreamCorruptedException(
+                        "Expected " + type.getName() + " but got " + o.getClass().getName());
+            }
+            return type.cast(o);
+        }
+
+        public Object readObject() throws IOException {
+            return readValue();
+        }
+
+        @Override
+        public int read() {
+            return pos < end ? buf[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b) {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= end) {
+                return -1;
+            }
+            final int n = Math.min(len, end - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, end - pos));
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return end - pos;
+        }
+
+        @Override
+        public void close() {}
+
+        public void readFully(final byte[] b) throws IOException {
+            readFully(b, 0, b.length);
+        }
+
+        public void readFully(final byte[] b, final int off, final int len) throws IOException {
+            require(len);
+            System.arraycopy(buf, pos, b, off, len);
+            pos += len;
+        }
+
+        public int skipBytes(final int n) {
+            return (int) skip(n);
+        }
+
+        public boolean readBoolean() throws IOException {
+            return readUnsignedByte() != 0;
+        }
+
+        public byte readByte() throws IOException {
+            return (byte) readUnsignedByte();
+        }
+
+        public int readUnsignedByte() throws IOException {
+            require(1);
+            return buf[pos++] & 0xff;
+        }
+
+        public short readShort() throws IOException {
+            return (short) readUnsignedShort();
+        }
+
+        public int readUnsignedShort() throws IOException {
+            require(2);
+            final int v = ((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff);
+            pos += 2;
+            return v;
+        }
+
+        public char readChar() throws IOException {
+            return (char) readUnsignedShort();
+        }
+
+        public int readInt() throws IOException {
+            return (readUnsignedShort() << 16) | readUnsignedShort();
+        }
+
+        public long readLong() throws IOException {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        public float readFloat() throws IOException {
+            return Float.intBitsToFloat(readInt());
+        }
+
+        public double readDouble() throws IOException {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        public String readLine() {
+            if (pos >= end) {
+                return null;
+            }
+            final StringBuilder sb = new StringBuilder();
+            while (pos < end) {
+                final int c = buf[pos++] & 0xff;
+                if (c == '\n') {
+                    break;
+                }
+                if (c == '\r') {
+                    if (pos < end && buf[pos] == '\n') {
+                        pos++;
+                    }
+                    break;
+                }
+                sb.append((char) c);
+            }
+            return sb.toString();
+        }
+
+        public String readUTF() throws IOException {
+            return DataInputStream.readUTF(this);
+        }
+    }
+}
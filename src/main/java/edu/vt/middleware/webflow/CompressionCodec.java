@@ -0,0 +1,79 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+
+/**
+ * Strategy pattern interface for compressing the serialized form of flow state prior to encryption. Each codec has
+ * an identifier that {@link EncryptedTranscoder} records in the encoded payload so that the codec that produced a
+ * payload can be selected on decode. Implementations MUST be thread safe.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see EncryptedTranscoder#setCompressionCodec(CompressionCodec)
+ */
+public interface CompressionCodec {
+
+    /** Identifier of {@link NoCompressionCodec}. */
+    int NONE = 0;
+
+    /** Identifier of {@link GzipCodec}. */
+    int GZIP = 1;
+
+    /** Identifier of {@link DeflateCodec}. */
+    int DEFLATE = 2;
+
+    /** Identifier of {@link DictionaryDeflateCodec} with its built-in dictionary. */
+    int DEFLATE_DEFAULT_DICTIONARY = 3;
+
+    /** Identifier of {@link ParallelDeflateCodec}. */
+    int PARALLEL_DEFLATE = 4;
+
+    /**
+     * Gets the identifier recorded in encoded payloads. Identifiers are in the range 0-255. The values 0x1F and 0xAC
+     * are reserved since they are the first bytes of the legacy gzip and uncompressed payload formats, respectively.
+     *
+     * @return Codec identifier.
+     */
+    int getId();
+
+
+    /**
+     * Compresses bytes.
+     *
+     * @param input Uncompressed bytes.
+     * @param offset Offset of first byte in input.
+     * @param length Number of input bytes.
+     * @param output Receives compressed bytes, which are appended to any existing content.
+     *
+     * @throws IOException On compression errors.
+     */
+    void compress(byte[] input, int offset, int length, BufferOutputStream output) throws IOException;
+
+
+    /**
+     * Decompresses bytes produced by {@link #compress(byte[], int, int, BufferOutputStream)}.
+     *
+     * @param input Compressed bytes.
+     * @param offset Offset of first byte in input.
+     * @param length Number of input bytes.
+     * @param output Receives uncompressed bytes, which are appended to any existing content.
+     *
+     * @throws IOException On malformed input.
+     */
+    void decompress(byte[] input, int offset, int length, BufferOutputStream output) throws IOException;
+}
@@ -0,0 +1,58 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.List;
+
+/**
+ * Strategy pattern interface for choosing, per payload, the {@link CompressionCodec} that compresses serialized flow
+ * state. The identifier of the chosen codec is recorded in the payload, so decoding does not depend on the policy.
+ * Implementations MUST be thread safe.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see EncryptedTranscoder#setCompressionPolicy(CompressionPolicy)
+ */
+public interface CompressionPolicy {
+
+    /**
+     * Chooses the codec for a payload.
+     *
+     * @param flowId Id of the flow whose state is encoded; null if the payload is not flow state.
+     * @param size Size of the serialized payload in bytes.
+     *
+     * @return Codec to compress the payload; a {@link NoCompressionCodec} to store it uncompressed.
+     */
+    CompressionCodec select(String flowId, int size);
+
+
+    /**
+     * Receives the outcome of compressing a payload with the codec returned by {@link #select(String, int)}.
+     *
+     * @param flowId Id of the flow whose state was encoded; null if the payload is not flow state.
+     * @param codec Codec that compressed the payload.
+     * @param size Size of the serialized payload in bytes.
+     * @param compressedSize Size of the compressed payload in bytes.
+     * @param nanos Time spent compressing in nanoseconds.
+     */
+    void record(String flowId, CompressionCodec codec, int size, int compressedSize, long nanos);
+
+
+    /**
+     * @return All codecs this policy may select, which are registered for decoding.
+     */
+    List<CompressionCodec> getCodecs();
+}
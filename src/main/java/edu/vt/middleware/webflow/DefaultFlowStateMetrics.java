@@ -0,0 +1,148 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics implementation that keeps {@link FlowStateStatistics} for all flows combined and for each flow id, along
+ * with error counts by cause. Recording is lock-free and does not allocate once a flow id has been seen.
+ * Use {@link FlowStateMetricsExporter} to expose the statistics via JMX.
+ *
+ * @author Marvin S. Addison
+ */
+public class DefaultFlowStateMetrics implements FlowStateMetrics {
+
+    private final FlowStateStatistics global = new FlowStateStatistics();
+
+    private final ConcurrentMap<String, FlowStateStatistics> flows =
+            new ConcurrentHashMap<String, FlowStateStatistics>();
+
+    private final AtomicLongArray errors = Stripes.newArray(ErrorCause.values().length);
+
+    private final int errorStride = Stripes.stride(ErrorCause.values().length);
+
+    private final List<FlowListener> listeners = new CopyOnWriteArrayList<FlowListener>();
+
+
+    public void recordPhase(final Phase phase, final String flowId, final long nanos) {
+        this.global.recordPhase(phase, nanos);
+        if (flowId != null) {
+            getOrCreate(flowId).recordPhase(phase, nanos);
+        }
+    }
+
+    public void recordSizes(
+            final String flowId, final int serializedBytes, final int compressedBytes, final int encodedBytes) {
+        this.global.recordSizes(serializedBytes, compressedBytes, encodedBytes);
+        if (flowId != null) {
+            getOrCreate(flowId).recordSizes(serializedBytes, compressedBytes, encodedBytes);
+        }
+    }
+
+    public void recordError(final ErrorCause cause) {
+        this.errors.incrementAndGet(Stripes.current() * this.errorStride + cause.ordinal());
+    }
+
+    /**
+     * @return Statistics for all flows combined.
+     */
+    public FlowStateStatistics getGlobalStatistics() {
+        return this.global;
+    }
+
+    /**
+     * @param flowId Flow id.
+     *
+     * @return Statistics for the given flow or null if nothing has been recorded for it.
+     */
+    public FlowStateStatistics getFlowStatistics(final String flowId) {
+        return this.flows.get(flowId);
+    }
+
+    /**
+     * @return Ids of flows for which statistics have been recorded.
+     */
+    public Set<String> getFlowIds() {
+        return Collections.unmodifiableSet(this.flows.keySet());
+    }
+
+    /**
+     * @param cause Cause of failure.
+     *
+     * @return Number of failures recorded with the given cause.
+     */
+    public long getErrorCount(final ErrorCause cause) {
+        long count = 0;
+        for (int s = 0; s < Stripes.COUNT; s++) {
+            count += this.errors.get(s * this.errorStride + cause.ordinal());
+        }
+        return count;
+    }
+
+    /**
+     * Adds a listener that is notified when statistics are first recorded for a flow.
+     *
+     * @param listener Listener to add.
+     */
+    public void addFlowListener(final FlowListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added by {@link #addFlowListener(FlowListener)}.
+     *
+     * @param listener Listener to remove.
+     */
+    public void removeFlowListener(final FlowListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    private FlowStateStatistics getOrCreate(final String flowId) {
+        final FlowStateStatistics stats = this.flows.get(flowId);
+        if (stats != null) {
+            return stats;
+        }
+        final FlowStateStatistics created = new FlowStateStatistics();
+        final FlowStateStatistics existing = this.flows.putIfAbsent(flowId, created);
+        if (existing != null) {
+            return existing;
+        }
+        for (FlowListener listener : this.listeners) {
+            listener.flowAdded(flowId, created);
+        }
+        return created;
+    }
+
+
+    /** Receives notification of flows for which statistics are recorded. */
+    public interface FlowListener {
+
+        /**
+         * Invoked when statistics are first recorded for a flow.
+         *
+         * @param flowId Flow id.
+         * @param statistics Statistics for the flow.
+         */
+        void flowAdded(String flowId, FlowStateStatistics statistics);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec that produces raw deflate data (RFC 1951) with no header, trailer or checksum. Integrity of the payload is
+ * already guaranteed by encryption, so the gzip framing only adds overhead.
+ *
+ * @author Marvin S. Addison
+ */
+public class DeflateCodec extends AbstractDeflateCodec {
+
+    public int getId() {
+        return DEFLATE;
+    }
+
+    public void compress(final byte[] input, final int offset, final int length, final BufferOutputStream output) {
+        final Deflater deflater = borrowDeflater();
+        try {
+            prepare(deflater);
+            GzipFormat.deflate(input, offset, length, deflater, output);
+        } finally {
+            release(deflater);
+        }
+    }
+
+    public void decompress(final byte[] input, final int offset, final int length, final BufferOutputStream output)
+            throws IOException {
+        final Inflater inflater = borrowInflater();
+        try {
+            prepare(inflater);
+            GzipFormat.inflate(input, offset, length, inflater, output);
+        } finally {
+            release(inflater);
+        }
+    }
+
+    /**
+     * Hook to configure a deflater before compression, e.g. with a preset dictionary.
+     *
+     * @param deflater Reset deflater.
+     */
+    protected void prepare(final Deflater deflater) {}
+
+    /**
+     * Hook to configure an inflater before decompression, e.g. with a preset dictionary.
+     *
+     * @param inflater Reset inflater.
+     */
+    protected void prepare(final Inflater inflater) {}
+}
@@ -0,0 +1,184 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+
+/**
+ * Produces and applies compact binary deltas that describe one byte sequence, the target, in terms of another, the
+ * base. A delta is a sequence of operations that either copy a run of bytes from the base or add literal bytes, which
+ * suits serialized flow state: consecutive snapshots of an execution share most of their content. The target length
+ * precedes the operations, and all lengths and offsets are unsigned variable-length integers with seven bits per byte.
+ * An add operation is encoded as <code>length &lt;&lt; 1</code> followed by the literal bytes, a copy operation as
+ * <code>length &lt;&lt; 1 | 1</code> followed by the base offset.
+ *
+ * @author Marvin S. Addison
+ */
+final class DeltaCodec {
+
+    /** Shortest run of bytes that is copied from the base; also the number of bytes hashed to find candidates. */
+    private static final int MIN_MATCH = 8;
+
+    private static final int MIN_TABLE_BITS = 8;
+
+    private static final int MAX_TABLE_BITS = 16;
+
+
+    private DeltaCodec() {}
+
+    /**
+     * Computes a delta that turns the base into the target.
+     *
+     * @param base Base bytes.
+     * @param target Target bytes.
+     *
+     * @return Delta for {@link #apply(byte[], byte[], int)}.
+     */
+    public static byte[] diff(final byte[] base, final byte[] target) {
+        final BufferOutputStream out = new BufferOutputStream(64 + (target.length >>> 4));
+        writeInt(out, target.length);
+        if (base.length < MIN_MATCH || target.length < MIN_MATCH) {
+            add(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+        final int bits = Math.min(
+                MAX_TABLE_BITS, Math.max(MIN_TABLE_BITS, 32 - Integer.numberOfLeadingZeros(base.length)));
+        // Holds the most recent base position plus one for each hash; zero marks an empty slot
+        final int[] table = new int[1 << bits];
+        for (int p = 0; p <= base.length - MIN_MATCH; p++) {
+            table[hash(base, p, bits)] = p + 1;
+        }
+        int literal = 0;
+        int i = 0;
+        while (i <= target.length - MIN_MATCH) {
+            final int candidate = table[hash(target, i, bits)] - 1;
+            final int length = candidate < 0 ? 0 : matchLength(base, candidate, target, i);
+            if (length < MIN_MATCH) {
+                i++;
+                continue;
+            }
+            // Extend the match backwards over pending literal bytes
+            int back = 0;
+            while (back < i - literal && back < candidate && base[candidate - back - 1] == target[i - back - 1]) {
+                back++;
+            }
+            add(out, target, literal, i - back - literal);
+            writeInt(out, (length + back) << 1 | 1);
+            writeInt(out, candidate - back);
+            i += length;
+            literal = i;
+        }
+        add(out, target, literal, target.length - literal);
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies a delta produced by {@link #diff(byte[], byte[])} to the base it was computed against.
+     *
+     * @param base Base bytes.
+     * @param delta Delta bytes.
+     * @param maxLength Maximum target length.
+     *
+     * @return Target bytes.
+     *
+     * @throws IOException If the delta is malformed, does not fit the base or describes a target longer than allowed.
+     */
+    public static byte[] apply(final byte[] base, final byte[] delta, final int maxLength) throws IOException {
+        final int[] position = new int[1];
+        final int length = readInt(delta, position);
+        if (length > maxLength) {
+            throw new IOException("Delta target size exceeds limit of " + maxLength + " bytes");
+        }
+        final byte[] target = new byte[length];
+        int n = 0;
+        while (position[0] < delta.length) {
+            final int op = readInt(delta, position);
+            final int count = op >>> 1;
+            if (count > length - n) {
+                throw new IOException("Delta exceeds target size");
+            }
+            if ((op & 1) == 0) {
+                if (count > delta.length - position[0]) {
+                    throw new IOException("Truncated delta");
+                }
+                System.arraycopy(delta, position[0], target, n, count);
+                position[0] += count;
+            } else {
+                final int offset = readInt(delta, position);
+                if (offset > base.length - count) {
+                    throw new IOException("Delta does not fit base");
+                }
+                System.arraycopy(base, offset, target, n, count);
+            }
+            n += count;
+        }
+        if (n != length) {
+            throw new IOException("Truncated delta");
+        }
+        return target;
+    }
+
+    private static void add(final BufferOutputStream out, final byte[] target, final int offset, final int length) {
+        if (length > 0) {
+            writeInt(out, length << 1);
+            out.write(target, offset, length);
+        }
+    }
+
+    private static int matchLength(final byte[] base, final int b, final byte[] target, final int t) {
+        final int max = Math.min(base.length - b, target.length - t);
+        int n = 0;
+        while (n < max && base[b + n] == target[t + n]) {
+            n++;
+        }
+        return n;
+    }
+
+    private static int hash(final byte[] b, final int offset, final int bits) {
+        long value = 0;
+        for (int i = 0; i < MIN_MATCH; i++) {
+            value = value << 8 | (b[offset + i] & 0xff);
+        }
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+
+    private static void writeInt(final BufferOutputStream out, final int value) {
+        int v = value;
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readInt(final byte[] b, final int[] position) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= b.length) {
+                throw new IOException("Truncated delta");
+            }
+            final int next = b[position[0]++];
+            value |= (next & 0x7f) << shift;
+            if ((next & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid delta integer");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Invalid delta integer");
+    }
+}
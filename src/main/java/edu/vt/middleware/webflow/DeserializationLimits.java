@@ -0,0 +1,230 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.InvalidClassException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.util.Assert;
+
+/**
+ * Bounds on the object graphs a {@link Serializer} accepts when decoding: nesting depth, number of object references,
+ * array lengths, and optionally the classes that may be instantiated. Each limit fails decoding as soon as it is
+ * exceeded rather than after the graph has been built.
+ * <p>
+ * Flow state is authenticated before it is deserialized, so the limits are a second line of defense against a
+ * compromised key or a flaw in the cipher configuration. The class allow-list is disabled by default since flow scope
+ * may hold arbitrary application and JDK types. Enabling it with {@link #DEFAULT_ALLOWED_CLASSES}, which covers Web
+ * Flow's own state, boxed primitives and common collections, plus the application's own flow scope types added with
+ * {@link #setAdditionalAllowedClasses(List)}, is strongly recommended.
+ * <p>
+ * Limits on Java serialization streams other than the allow-list are enforced with a serialization filter, which
+ * requires Java 9, or Java 8 update 121 or later. On older platforms only the allow-list applies to such streams.
+ *
+ * @author Marvin S. Addison
+ */
+public class DeserializationLimits {
+
+    /** Default maximum nesting depth of an object graph. */
+    public static final int DEFAULT_MAX_DEPTH = 100;
+
+    /** Default maximum number of objects in a graph. */
+    public static final int DEFAULT_MAX_REFERENCES = 100000;
+
+    /** Default maximum length of an array or collection. */
+    public static final int DEFAULT_MAX_ARRAY_LENGTH = 1000000;
+
+    /** Classes and packages required to restore flow execution state holding boxed primitives and collections. */
+    public static final List<String> DEFAULT_ALLOWED_CLASSES = Collections.unmodifiableList(Arrays.asList(
+            "java.lang.Object",
+            "java.lang.String",
+            "java.lang.Enum",
+            "java.lang.Number",
+            "java.lang.Boolean",
+            "java.lang.Byte",
+            "java.lang.Character",
+            "java.lang.Short",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Float",
+            "java.lang.Double",
+            "java.math.BigInteger",
+            "java.math.BigDecimal",
+            "java.util.ArrayList",
+            "java.util.LinkedList",
+            "java.util.HashMap",
+            "java.util.LinkedHashMap",
+            "java.util.TreeMap",
+            "java.util.HashSet",
+            "java.util.LinkedHashSet",
+            "java.util.TreeSet",
+            "java.util.Arrays$ArrayList",
+            "java.util.Collections$EmptyList",
+            "java.util.Collections$EmptyMap",
+            "java.util.Collections$EmptySet",
+            "java.util.Collections$SingletonList",
+            "java.util.Collections$SingletonMap",
+            "java.util.Collections$SingletonSet",
+            "java.util.Collections$UnmodifiableCollection",
+            "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList",
+            "java.util.Collections$UnmodifiableSet",
+            "java.util.Collections$UnmodifiableMap",
+            "java.util.Date",
+            "java.util.Locale",
+            "java.util.UUID",
+            "org.springframework.webflow.",
+            "org.springframework.binding.",
+            "edu.vt.middleware.webflow."));
+
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+
+    private int maxReferences = DEFAULT_MAX_REFERENCES;
+
+    private int maxArrayLength = DEFAULT_MAX_ARRAY_LENGTH;
+
+    /** Allowed class names and package prefixes; null to allow any class. */
+    private String[] allowedClasses;
+
+    /** Allowed class names and package prefixes in addition to {@link #allowedClasses}. */
+    private String[] additionalAllowedClasses = new String[0];
+
+
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Sets the maximum nesting depth of an object graph. Defaults to {@value #DEFAULT_MAX_DEPTH}.
+     *
+     * @param depth Maximum depth.
+     */
+    public void setMaxDepth(final int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Maximum depth must be positive");
+        }
+        this.maxDepth = depth;
+    }
+
+    public int getMaxReferences() {
+        return this.maxReferences;
+    }
+
+    /**
+     * Sets the maximum number of objects, including strings and class descriptors, in a graph. Defaults to
+     * {@value #DEFAULT_MAX_REFERENCES}.
+     *
+     * @param references Maximum number of references.
+     */
+    public void setMaxReferences(final int references) {
+        if (references <= 0) {
+            throw new IllegalArgumentException("Maximum references must be positive");
+        }
+        this.maxReferences = references;
+    }
+
+    public int getMaxArrayLength() {
+        return this.maxArrayLength;
+    }
+
+    /**
+     * Sets the maximum length of an array and, in compact serialization streams, of a collection or string. Defaults
+     * to {@value #DEFAULT_MAX_ARRAY_LENGTH}.
+     *
+     * @param length Maximum length.
+     */
+    public void setMaxArrayLength(final int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Maximum array length cannot be negative");
+        }
+        this.maxArrayLength = length;
+    }
+
+    /**
+     * Restricts the classes that may be instantiated. Each entry is either a fully-qualified class name or, if it ends
+     * with a period, a package prefix that also matches subpackages. Arrays are allowed if their component type is;
+     * arrays of primitives are always allowed. Typically {@link #DEFAULT_ALLOWED_CLASSES}, extended with
+     * {@link #setAdditionalAllowedClasses(List)}. By default any class is allowed.
+     *
+     * @param classes Allowed class names and package prefixes; null to allow any class.
+     */
+    public void setAllowedClasses(final List<String> classes) {
+        this.allowedClasses = classes != null ? classes.toArray(new String[classes.size()]) : null;
+    }
+
+    /**
+     * Allows classes in addition to those set by {@link #setAllowedClasses(List)}, typically the application types
+     * kept in flow scope. Entries have the same form as allowed classes. Has no effect unless allowed classes are set.
+     *
+     * @param classes Additional allowed class names and package prefixes.
+     */
+    public void setAdditionalAllowedClasses(final List<String> classes) {
+        Assert.notNull(classes, "Classes cannot be null");
+        this.additionalAllowedClasses = classes.toArray(new String[classes.size()]);
+    }
+
+    /**
+     * Determines whether the named class may be instantiated.
+     *
+     * @param className Class name as returned by {@link Class#getName()}.
+     *
+     * @return True if the class is allowed.
+     */
+    public boolean isAllowed(final String className) {
+        final String[] allowed = this.allowedClasses;
+        if (allowed == null) {
+            return true;
+        }
+        int start = 0;
+        while (start < className.length() && className.charAt(start) == '[') {
+            start++;
+        }
+        String name = className;
+        if (start > 0) {
+            if (start == className.length()) {
+                return false;
+            }
+            if (className.charAt(start) != 'L') {
+                return true;
+            }
+            name = className.substring(start + 1, className.length() - 1);
+        }
+        return matches(allowed, name) || matches(this.additionalAllowedClasses, name);
+    }
+
+    private static boolean matches(final String[] entries, final String name) {
+        for (String entry : entries) {
+            if (entry.endsWith(".") ? name.startsWith(entry) : name.equals(entry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the named class against the allow-list.
+     *
+     * @param className Class name as returned by {@link Class#getName()}.
+     *
+     * @throws InvalidClassException If the class is not allowed.
+     */
+    public void checkClass(final String className) throws InvalidClassException {
+        if (!isAllowed(className)) {
+            throw new InvalidClassException(className, "Class is not allowed");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Raw deflate codec primed with a preset dictionary. Serialized flow state repeats the same class names, field names
+ * and type signatures in every payload; with a dictionary containing them, the compressor can emit back-references
+ * from the first byte of a payload, which is where plain deflate does poorly on small inputs.
+ * <p>
+ * A built-in dictionary of common Spring Webflow and JDK serialization strings is used by default. A dictionary
+ * trained from sample flow states with {@link DictionaryTrainer} usually performs better. Since a payload can only be
+ * decompressed with the exact dictionary that compressed it, every distinct dictionary MUST be paired with a distinct
+ * codec identifier, and codecs for retired dictionaries should remain registered for decoding until keys produced
+ * with them have expired.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see DictionaryTrainer
+ */
+public class DictionaryDeflateCodec extends DeflateCodec {
+
+    /** Maximum useful dictionary size; deflate can only reference the last 32K of the dictionary. */
+    public static final int MAX_DICTIONARY_SIZE = 32768;
+
+    /** Strings frequently found in serialized flow state, least likely first since later bytes are cheaper to use. */
+    private static final String[] DEFAULT_STRINGS = {
+        "java.lang.Boolean", "valuexp", "java.lang.Integer", "java.lang.Long", "java.lang.Number",
+        "java.util.ArrayList", "sizexp", "java.util.Date", "java.util.Locale",
+        "org.springframework.binding.message.DefaultMessageContext",
+        "org.springframework.binding.message.Message", "org.springframework.binding.message.Severity",
+        "org.springframework.webflow.core.collection.LocalParameterMap", "parameters",
+        "java.lang.Enum", "xpt", "ACTIVE", "java.util.LinkedHashMap", "accessOrderxq", "flashScopesq",
+        "messagesMementosr", "viewScopesq", "java.util.LinkedList", "xpw",
+        "org.springframework.webflow.engine.impl.FlowExecutionStatus",
+        "org.springframework.webflow.engine.impl.FlowSessionImpl",
+        "org.springframework.webflow.engine.impl.FlowExecutionImpl",
+        "java.util.HashMap", "loadFactorI", "thresholdxp?@", "attributest", "Ljava/util/Map;xpsr",
+        "org.springframework.webflow.core.collection.LocalAttributeMap",
+        "flowIdt", "Ljava/lang/String;xpsr", "executiont", "Lorg/springframework/webflow/execution/FlowExecution;L",
+        "conversationScopet", "Lorg/springframework/webflow/core/collection/MutableAttributeMap;L",
+        "edu.vt.middleware.webflow.ClientFlowExecutionRepository$SerializedFlowExecutionState",
+    };
+
+    private static final byte[] DEFAULT_DICTIONARY = defaultDictionary();
+
+    private int id = DEFLATE_DEFAULT_DICTIONARY;
+
+    private byte[] dictionary = DEFAULT_DICTIONARY;
+
+
+    /** Creates a codec that uses the built-in dictionary. */
+    public DictionaryDeflateCodec() {}
+
+    /**
+     * Creates a codec that uses a custom dictionary.
+     *
+     * @param id Codec identifier unique to the dictionary.
+     * @param dictionary Preset dictionary.
+     */
+    public DictionaryDeflateCodec(final int id, final byte[] dictionary) {
+        setId(id);
+        setDictionary(dictionary);
+    }
+
+    @Override
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Sets the codec identifier. Required when a custom dictionary is used, and must then be set first and differ from
+     * {@link #DEFLATE_DEFAULT_DICTIONARY}, which identifies the built-in dictionary.
+     *
+     * @param id Codec identifier unique to the dictionary.
+     */
+    public void setId(final int id) {
+        if (id < 0 || id > 255 || id == 0x1F || id == 0xAC) {
+            throw new IllegalArgumentException("Invalid codec identifier " + id);
+        }
+        if (id == DEFLATE_DEFAULT_DICTIONARY && this.dictionary != DEFAULT_DICTIONARY) {
+            throw new IllegalArgumentException("Codec identifier " + id + " is reserved for the built-in dictionary");
+        }
+        this.id = id;
+    }
+
+    public byte[] getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * Sets the preset dictionary. Only the last {@value #MAX_DICTIONARY_SIZE} bytes are retained.
+     *
+     * @param dictionary Preset dictionary.
+     *
+     * @throws IllegalStateException If no codec identifier other than that of the built-in dictionary has been set.
+     */
+    public void setDictionary(final byte[] dictionary) {
+        if (dictionary == null || dictionary.length == 0) {
+            throw new IllegalArgumentException("Dictionary cannot be empty");
+        }
+        if (this.id == DEFLATE_DEFAULT_DICTIONARY) {
+            throw new IllegalStateException("A custom dictionary requires a codec identifier other than " + this.id);
+        }
+        if (dictionary.length > MAX_DICTIONARY_SIZE) {
+            this.dictionary = Arrays.copyOfRange(
+                    dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+        } else {
+            this.dictionary = dictionary;
+        }
+    }
+
+    /**
+     * Sets the preset dictionary from a resource, e.g. a file produced by {@link DictionaryTrainer}.
+     *
+     * @param resource Resource containing the dictionary bytes.
+     *
+     * @throws IOException On errors reading the resource.
+     * @throws IllegalStateException If no codec identifier other than that of the built-in dictionary has been set.
+     */
+    public void setDictionaryResource(final Resource resource) throws IOException {
+        if (this.id == DEFLATE_DEFAULT_DICTIONARY) {
+            throw new IllegalStateException("A custom dictionary requires a codec identifier other than " + this.id);
+        }
+        final InputStream in = resource.getInputStream();
+        setDictionary(FileCopyUtils.copyToByteArray(in));
+    }
+
+    @Override
+    protected void prepare(final Deflater deflater) {
+        deflater.setDictionary(this.dictionary);
+    }
+
+    @Override
+    protected void prepare(final Inflater inflater) {
+        inflater.setDictionary(this.dictionary);
+    }
+
+    private static byte[] defaultDictionary() {
+        final StringBuilder sb = new StringBuilder();
+        for (String s : DEFAULT_STRINGS) {
+            sb.append(s);
+        }
+        return sb.toString().getBytes(Charset.forName("US-ASCII"));
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Builds a preset dictionary for {@link DictionaryDeflateCodec} from samples of serialized flow state. Fixed-length
+ * segments are ranked by the number of samples that contain them, and the highest ranked segments are marked in the
+ * sample where they first occur. Overlapping and adjacent marks merge into runs, and segments largely covered wherever
+ * a selected segment occurs are skipped, so a common string longer than a segment is included once rather than as a
+ * series of shifted copies. The runs are packed into the dictionary with the most common ones at the end, where
+ * deflate back-references are shortest.
+ * <p>
+ * The trainer can be run from the command line against files containing serialized flow state, e.g. files captured
+ * from {@link Transcoder} input in a test environment:
+ * <pre>
+ * java edu.vt.middleware.webflow.DictionaryTrainer dictionary.bin sample1.bin sample2.bin ...
+ * </pre>
+ *
+ * @author Marvin S. Addison
+ */
+public final class DictionaryTrainer {
+
+    /** Default length of the segments considered for inclusion. */
+    public static final int DEFAULT_SEGMENT_LENGTH = 16;
+
+    private DictionaryTrainer() {}
+
+    /**
+     * Trains a dictionary using the default segment length.
+     *
+     * @param samples Serialized flow state samples.
+     * @param maxSize Maximum dictionary size in bytes.
+     *
+     * @return Dictionary bytes.
+     */
+    public static byte[] train(final Collection<byte[]> samples, final int maxSize) {
+        return train(samples, maxSize, DEFAULT_SEGMENT_LENGTH);
+    }
+
+    /**
+     * Trains a dictionary.
+     *
+     * @param samples Serialized flow state samples.
+     * @param maxSize Maximum dictionary size in bytes, at most {@link DictionaryDeflateCodec#MAX_DICTIONARY_SIZE}.
+     * @param segmentLength Length of candidate segments.
+     *
+     * @return Dictionary bytes.
+     */
+    public static byte[] train(final Collection<byte[]> samples, final int maxSize, final int segmentLength) {
+        if (maxSize <= 0 || maxSize > DictionaryDeflateCodec.MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Invalid dictionary size " + maxSize);
+        }
+        // Record the first occurrence of each segment in every sample containing it
+        final Map<Segment, List<Segment>> occurrences = new HashMap<Segment, List<Segment>>();
+        final Map<byte[], int[]> marks = new IdentityHashMap<byte[], int[]>();
+        final Map<byte[], boolean[]> covered = new IdentityHashMap<byte[], boolean[]>();
+        for (byte[] sample : samples) {
+            marks.put(sample, new int[sample.length]);
+            covered.put(sample, new boolean[sample.length]);
+            final Set<Segment> seen = new HashSet<Segment>();
+            for (int i = 0; i + segmentLength <= sample.length; i++) {
+                final Segment segment = new Segment(sample, i, segmentLength);
+                if (seen.add(segment)) {
+                    final List<Segment> list = occurrences.get(segment);
+                    if (list == null) {
+                        final List<Segment> first = new ArrayList<Segment>();
+                        first.add(segment);
+                        occurrences.put(segment, first);
+                    } else {
+                        list.add(segment);
+                    }
+                }
+            }
+        }
+        final List<List<Segment>> ranked = new ArrayList<List<Segment>>(occurrences.values());
+        Collections.sort(ranked, new Comparator<List<Segment>>() {
+            public int compare(final List<Segment> a, final List<Segment> b) {
+                return b.size() - a.size();
+            }
+        });
+        // Greedily mark segments at their first occurrence, skipping those seen in a single sample. A segment
+        // overlapping marked bytes there extends them; one mostly covered at any occurrence of a marked segment is a
+        // shifted copy of dictionary content and is skipped. Marked bytes record the selection order, counting from 1.
+        int size = 0;
+        int order = 0;
+        for (List<Segment> list : ranked) {
+            if (list.size() < 2 && samples.size() > 1) {
+                break;
+            }
+            final Segment segment = list.get(0);
+            final int[] mark = marks.get(segment.bytes);
+            final int added = count(mark, segment.offset, segmentLength);
+            if (added == 0 || size + added > maxSize) {
+                continue;
+            }
+            if (added == segmentLength && isCovered(list, covered, segmentLength)) {
+                continue;
+            }
+            order++;
+            for (int i = segment.offset; i < segment.offset + segmentLength; i++) {
+                if (mark[i] == 0) {
+                    mark[i] = order;
+                }
+            }
+            size += added;
+            for (Segment occurrence : list) {
+                Arrays.fill(covered.get(occurrence.bytes), occurrence.offset, occurrence.offset + segmentLength, true);
+            }
+        }
+        // Collect runs of marked bytes ranked by their earliest selected segment
+        final List<Run> runs = new ArrayList<Run>();
+        for (Map.Entry<byte[], int[]> entry : marks.entrySet()) {
+            final int[] mark = entry.getValue();
+            int i = 0;
+            while (i < mark.length) {
+                if (mark[i] == 0) {
+                    i++;
+                    continue;
+                }
+                final int start = i;
+                int rank = mark[i];
+                while (i < mark.length && mark[i] != 0) {
+                    rank = Math.min(rank, mark[i]);
+                    i++;
+                }
+                runs.add(new Run(entry.getKey(), start, i - start, rank));
+            }
+        }
+        Collections.sort(runs, new Comparator<Run>() {
+            public int compare(final Run a, final Run b) {
+                return a.rank - b.rank;
+            }
+        });
+        // Most frequent runs go last
+        final byte[] dictionary = new byte[size];
+        int pos = size;
+        for (Run run : runs) {
+            pos -= run.length;
+            System.arraycopy(run.bytes, run.offset, dictionary, pos, run.length);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Command line entry point.
+     *
+     * @param args Output file followed by one or more sample files.
+     *
+     * @throws IOException On I/O errors.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("USAGE: DictionaryTrainer output_file sample_file [sample_file ...]");
+            System.exit(1);
+        }
+        final List<byte[]> samples = new ArrayList<byte[]>(args.length - 1);
+        for (int i = 1; i < args.length; i++) {
+            samples.add(FileCopyUtils.copyToByteArray(new File(args[i])));
+        }
+        final byte[] dictionary = train(samples, DictionaryDeflateCodec.MAX_DICTIONARY_SIZE);
+        final OutputStream out = new FileOutputStream(args[0]);
+        try {
+            out.write(dictionary);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + dictionary.length + " byte dictionary to " + args[0]);
+    }
+
+    /** @return Number of unmarked bytes in the given range. */
+    private static int count(final int[] mark, final int offset, final int length) {
+        int unmarked = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (mark[i] == 0) {
+                unmarked++;
+            }
+        }
+        return unmarked;
+    }
+
+    /** @return True if at least half of the segment is covered by marked segments at any of its occurrences. */
+    private static boolean isCovered(
+            final List<Segment> occurrences, final Map<byte[], boolean[]> covered, final int segmentLength) {
+        for (Segment occurrence : occurrences) {
+            final boolean[] cover = covered.get(occurrence.bytes);
+            int n = 0;
+            for (int i = occurrence.offset; i < occurrence.offset + segmentLength; i++) {
+                if (cover[i]) {
+                    n++;
+                }
+            }
+            if (2 * n >= segmentLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** Byte range of a sample compared by content. */
+    private static final class Segment {
+        private final byte[] bytes;
+
+        private final int offset;
+
+        private final int length;
+
+        private final int hash;
+
+        Segment(final byte[] bytes, final int offset, final int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            int h = 1;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Segment)) {
+                return false;
+            }
+            final Segment other = (Segment) o;
+            if (other.hash != this.hash || other.length != this.length) {
+                return false;
+            }
+            for (int i = 0; i < this.length; i++) {
+                if (this.bytes[this.offset + i] != other.bytes[other.offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+
+    /** Run of marked bytes in a sample, ranked by the selection order of its earliest segment. */
+    private static final class Run {
+        private final byte[] bytes;
+
+        private final int offset;
+
+        private final int length;
+
+        private final int rank;
+
+        Run(final byte[] bytes, final int offset, final int length, final int rank) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.rank = rank;
+        }
+    }
+}
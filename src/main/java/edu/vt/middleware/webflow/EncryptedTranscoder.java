@@ -16,87 +16,495 @@
 package edu.vt.middleware.webflow;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.List;
 
 import org.cryptacular.bean.CipherBean;
+import org.springframework.util.Assert;
 
 /**
  * Encodes an object by encrypting its serialized byte stream. Details of encryption are handled by an instance of
- * {@link CipherBean}.
+ * {@link CipherBean}. Objects are serialized by a {@link Serializer}, which is {@link JavaSerializer} by default.
  * <p>
  * Optional gzip compression of the serialized byte stream before encryption is supported and enabled by default.
+ * Alternatively, a {@link CompressionCodec} may be configured, in which case the codec identifier is recorded as the
+ * first byte of the plaintext and the matching codec is selected on decode. Payloads in the legacy format, i.e.
+ * produced without a codec, are still decoded when a codec is configured. A {@link CompressionPolicy} may instead
+ * choose the codec for each payload, e.g. to skip compression of small or incompressible flow state.
+ * <p>
+ * Setting a positive {@link #setBufferPoolSize(int) buffer pool size} enables a pooled buffer mode that reuses
+ * scratch buffers across calls and encrypts directly from the pooled buffer. Output of the pooled mode is
+ * byte-compatible with that of the default mode.
+ * <p>
+ * An optional {@link PlaintextCache} holds the serialized plaintext of recently encoded and decoded payloads so that
+ * decoding a payload seen before skips decryption and decompression.
  *
  * @author Marvin S. Addison
  */
-public class EncryptedTranscoder implements Transcoder {
+public class EncryptedTranscoder implements SerializingTranscoder {
+
+    /** Default maximum size of a buffer retained in the pool. */
+    public static final int DEFAULT_MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    /** Default maximum size of decompressed plaintext. */
+    public static final int DEFAULT_MAX_PLAINTEXT_SIZE = 16 * 1024 * 1024;
+
+    /** Initial size of pooled buffers. */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /** First byte of a legacy gzip-compressed payload. */
+    private static final int LEGACY_GZIP_MAGIC = 0x1F;
+
+    /** First byte of a legacy uncompressed payload, i.e. the Java serialization stream magic. */
+    private static final int LEGACY_STREAM_MAGIC = 0xAC;
 
     /** Handles encryption/decryption details. */
     private CipherBean cipherBean;
 
+    /** Converts objects to bytes and back. */
+    private Serializer serializer = new JavaSerializer();
+
     /** Flag to indicate whether to Gzip compression before encryption. */
     private boolean compression = true;
 
+    /** Codec used to compress plaintext; null to use the legacy format governed by {@link #compression}. */
+    private CompressionCodec compressionCodec;
+
+    /** Chooses the codec for each payload; null to always use {@link #compressionCodec}. */
+    private CompressionPolicy compressionPolicy;
+
+    /** Codecs available for decoding indexed by identifier. */
+    private final CompressionCodec[] codecs = new CompressionCodec[256];
+
+    /** Produces the legacy gzip format. */
+    private final GzipCodec legacyCodec = new GzipCodec();
+
+    /** Pool of reusable encoding buffers; null when pooling is disabled. */
+    private ResourcePool<Buffers> bufferPool;
+
+    /** Buffers that have grown beyond this size are discarded rather than returned to the pool. */
+    private int maxRetainedBufferSize = DEFAULT_MAX_RETAINED_BUFFER_SIZE;
+
+    /** Decompression fails once plaintext grows beyond this size. */
+    private int maxPlaintextSize = DEFAULT_MAX_PLAINTEXT_SIZE;
+
+    /** Cache of serialized plaintext by encoded bytes; null when caching is disabled. */
+    private PlaintextCache plaintextCache;
+
+    /** Receives phase latencies, payload sizes and errors. */
+    private FlowStateMetrics metrics = NoOpFlowStateMetrics.INSTANCE;
+
+
+    public EncryptedTranscoder() {
+        register(new NoCompressionCodec());
+        register(this.legacyCodec);
+        register(new DeflateCodec());
+        register(new DictionaryDeflateCodec());
+        register(new ParallelDeflateCodec());
+    }
 
     public void setCompression(final boolean compression) {
         this.compression = compression;
     }
 
+    /**
+     * Sets the codec used to compress plaintext. The codec is also registered for decoding. When no codec is set, the
+     * default, the legacy format without a codec identifier is produced and {@link #setCompression(boolean)}
+     * determines whether gzip compression is applied.
+     *
+     * @param codec Compression codec.
+     */
+    public void setCompressionCodec(final CompressionCodec codec) {
+        if (codec != null) {
+            register(codec);
+        }
+        this.compressionCodec = codec;
+    }
+
+    /**
+     * Sets a policy that chooses the codec for each payload, e.g. {@link AdaptiveCompressionPolicy}, which takes
+     * precedence over {@link #setCompressionCodec(CompressionCodec)} and {@link #setCompression(boolean)} on encode.
+     * The identifier of the chosen codec is recorded in the payload as it is for a fixed codec, and all codecs of the
+     * policy are registered for decoding.
+     *
+     * @param policy Compression policy; null to compress with the configured codec or legacy setting.
+     */
+    public void setCompressionPolicy(final CompressionPolicy policy) {
+        if (policy != null) {
+            for (CompressionCodec codec : policy.getCodecs()) {
+                register(codec);
+            }
+        }
+        this.compressionPolicy = policy;
+    }
+
+    /**
+     * Registers additional codecs for decoding, e.g. codecs with retired dictionaries. Codecs for all built-in
+     * identifiers are registered by default.
+     *
+     * @param codecs Codecs available for decoding.
+     */
+    public void setCompressionCodecs(final List<CompressionCodec> codecs) {
+        for (CompressionCodec codec : codecs) {
+            register(codec);
+        }
+    }
+
+    /**
+     * Sets the maximum number of idle buffer sets retained for reuse. A value of zero, the default, disables pooling.
+     * A reasonable value is the number of threads concurrently handling flow requests.
+     *
+     * @param size Maximum number of pooled buffer sets.
+     */
+    public void setBufferPoolSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Buffer pool size cannot be negative");
+        }
+        if (size == 0) {
+            this.bufferPool = null;
+            return;
+        }
+        this.bufferPool = new ResourcePool<Buffers>(size) {
+            @Override
+            protected Buffers create() {
+                return new Buffers();
+            }
+
+            @Override
+            protected boolean recycle(final Buffers buffers) {
+                buffers.primary.reset(maxRetainedBufferSize);
+                buffers.secondary.reset(maxRetainedBufferSize);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Sets the size above which a pooled buffer is replaced with a smaller one when it is returned to the pool.
+     * Defaults to {@value #DEFAULT_MAX_RETAINED_BUFFER_SIZE} bytes.
+     *
+     * @param size Maximum retained buffer size in bytes.
+     */
+    public void setMaxRetainedBufferSize(final int size) {
+        this.maxRetainedBufferSize = size;
+    }
+
+    /**
+     * Sets the maximum size of decompressed plaintext. Decoding fails as soon as inflation exceeds the limit, which
+     * bounds the memory a small, highly compressible payload can claim. Defaults to
+     * {@value #DEFAULT_MAX_PLAINTEXT_SIZE} bytes.
+     *
+     * @param size Maximum plaintext size in bytes.
+     */
+    public void setMaxPlaintextSize(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Maximum plaintext size must be positive");
+        }
+        this.maxPlaintextSize = size;
+    }
+
     public void setCipherBean(final CipherBean cipherBean) {
         this.cipherBean = cipherBean;
     }
 
+    public CipherBean getCipherBean() {
+        return this.cipherBean;
+    }
+
+    /**
+     * Sets the serializer that converts objects to bytes prior to compression and encryption. Defaults to
+     * {@link JavaSerializer}. Note that {@link CompactSerializer} also decodes Java serialization streams, so switching
+     * from the default to it does not invalidate outstanding flow execution keys.
+     *
+     * @param serializer Object serializer.
+     */
+    public void setSerializer(final Serializer serializer) {
+        Assert.notNull(serializer, "Serializer cannot be null");
+        this.serializer = serializer;
+    }
+
+    /**
+     * Sets the cache of serialized plaintext. Both encoded and decoded payloads are cached, so the first submission
+     * of a newly issued key is also served from the cache. Disabled by default.
+     *
+     * @param cache Plaintext cache; null to disable caching.
+     */
+    public void setPlaintextCache(final PlaintextCache cache) {
+        this.plaintextCache = cache;
+    }
+
+    /**
+     * Sets the component that receives phase latencies, payload sizes and errors. Defaults to
+     * {@link NoOpFlowStateMetrics}.
+     *
+     * @param metrics Metrics recorder.
+     */
+    public void setMetrics(final FlowStateMetrics metrics) {
+        Assert.notNull(metrics, "Metrics cannot be null");
+        this.metrics = metrics;
+    }
+
     public byte[] encode(final Object o) throws IOException {
         if (o == null) {
             return new byte[0];
         }
-        final ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-        ObjectOutputStream out = null;
+        final Buffers buffers = borrowBuffers();
         try {
-            if (this.compression) {
-                out = new ObjectOutputStream(new GZIPOutputStream(outBuffer));
-            } else {
-                out = new ObjectOutputStream(outBuffer);
-            }
-            out.writeObject(o);
+            final String flowId = flowId(o);
+            serialize(o, flowId, buffers.primary);
+            return encrypt(buffers, flowId, this.plaintextCache != null ? buffers.primary.toByteArray() : null);
         } finally {
-            if (out != null) {
-                out.close();
-            }
+            releaseBuffers(buffers);
         }
+    }
+
+    public byte[] serialize(final Object o) throws IOException {
+        final Buffers buffers = borrowBuffers();
         try {
-            return cipherBean.encrypt(outBuffer.toByteArray());
-        } catch (Exception e) {
-            throw new IOException("Encryption error", e);
+            serialize(o, flowId(o), buffers.primary);
+            return buffers.primary.toByteArray();
+        } finally {
+            releaseBuffers(buffers);
         }
     }
 
-    public Object decode(final byte[] encoded) throws IOException {
-        final byte[] data;
+    public byte[] encodeSerialized(final Object o, final byte[] serialized) throws IOException {
+        final Buffers buffers = borrowBuffers();
         try {
-            data = cipherBean.decrypt(encoded);
-        } catch (Exception e) {
-            throw new IOException("Decryption error", e);
+            buffers.primary.write(serialized, 0, serialized.length);
+            return encrypt(buffers, flowId(o), this.plaintextCache != null ? serialized.clone() : null);
+        } finally {
+            releaseBuffers(buffers);
         }
-        final ByteArrayInputStream inBuffer = new ByteArrayInputStream(data);
-        ObjectInputStream in = null;
+    }
+
+    public Object deserialize(final byte[] serialized) throws IOException {
+        final long start = System.nanoTime();
+        final Object o = deserialize(serialized, serialized.length);
+        this.metrics.recordPhase(FlowStateMetrics.Phase.DESERIALIZE, flowId(o), System.nanoTime() - start);
+        return o;
+    }
+
+    public Object decode(final byte[] encoded) throws IOException {
+        if (this.plaintextCache != null) {
+            final byte[] cached = this.plaintextCache.get(encoded);
+            if (cached != null) {
+                final long start = System.nanoTime();
+                final Object o = deserialize(cached, cached.length);
+                this.metrics.recordPhase(FlowStateMetrics.Phase.DESERIALIZE, flowId(o), System.nanoTime() - start);
+                return o;
+            }
+        }
+        final Buffers buffers = borrowBuffers();
         try {
-            if (this.compression) {
-                in = new ObjectInputStream(new GZIPInputStream(inBuffer));
+            final long start = System.nanoTime();
+            try {
+                decrypt(encoded, buffers.primary);
+            } catch (Exception e) {
+                this.metrics.recordError(FlowStateMetrics.ErrorCause.DECRYPTION);
+                throw new IOException("Decryption error", e);
+            }
+            final long decrypted = System.nanoTime();
+            final BufferOutputStream plaintext;
+            if (isLegacyFormat() && !this.compression) {
+                plaintext = buffers.primary;
             } else {
-                in = new ObjectInputStream(inBuffer);
+                plaintext = buffers.secondary;
+                try {
+                    decompress(buffers.primary, plaintext);
+                } catch (IOException e) {
+                    this.metrics.recordError(FlowStateMetrics.ErrorCause.DECOMPRESSION);
+                    throw e;
+                }
+            }
+            final long decompressed = System.nanoTime();
+            final Object o = deserialize(plaintext.getBuffer(), plaintext.size());
+            final long deserialized = System.nanoTime();
+            final String flowId = flowId(o);
+            this.metrics.recordPhase(FlowStateMetrics.Phase.DECRYPT, flowId, decrypted - start);
+            if (plaintext != buffers.primary) {
+                this.metrics.recordPhase(FlowStateMetrics.Phase.DECOMPRESS, flowId, decompressed - decrypted);
+            }
+            this.metrics.recordPhase(FlowStateMetrics.Phase.DESERIALIZE, flowId, deserialized - decompressed);
+            if (this.plaintextCache != null) {
+                this.plaintextCache.put(encoded, plaintext.toByteArray());
             }
-            return in.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new IOException("Deserialization error", e);
+            return o;
         } finally {
-            if (in != null) {
-                in.close();
+            releaseBuffers(buffers);
+        }
+    }
+
+    /**
+     * Encrypts plaintext with the configured cipher bean. Subclasses may override to change the cipher or to frame
+     * the ciphertext.
+     *
+     * @param plaintext Compressed plaintext, which begins with the codec identifier unless the legacy format is used.
+     * @param ciphertext Receives the encoded bytes.
+     *
+     * @throws IOException On encryption errors.
+     */
+    protected void encrypt(final BufferOutputStream plaintext, final BufferOutputStream ciphertext)
+            throws IOException {
+        this.cipherBean.encrypt(plaintext.toInputStream(), ciphertext);
+    }
+
+    /**
+     * Decrypts bytes produced by {@link #encrypt(BufferOutputStream, BufferOutputStream)}.
+     *
+     * @param encoded Encoded bytes.
+     * @param plaintext Receives the compressed plaintext.
+     *
+     * @throws IOException On decryption errors.
+     */
+    protected void decrypt(final byte[] encoded, final BufferOutputStream plaintext) throws IOException {
+        this.cipherBean.decrypt(new ByteArrayInputStream(encoded), plaintext);
+    }
+
+    private void serialize(final Object o, final String flowId, final BufferOutputStream output) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            this.serializer.serialize(o, output);
+        } catch (IOException e) {
+            this.metrics.recordError(FlowStateMetrics.ErrorCause.ENCODING);
+            throw e;
+        }
+        this.metrics.recordPhase(FlowStateMetrics.Phase.SERIALIZE, flowId, System.nanoTime() - start);
+    }
+
+    private Object deserialize(final byte[] plaintext, final int length) throws IOException {
+        try {
+            return this.serializer.deserialize(plaintext, 0, length);
+        } catch (IOException e) {
+            this.metrics.recordError(
+                    e.getCause() instanceof ClassNotFoundException
+                            ? FlowStateMetrics.ErrorCause.CLASS_NOT_FOUND
+                            : FlowStateMetrics.ErrorCause.DESERIALIZATION);
+            throw e;
+        }
+    }
+
+    /**
+     * Compresses and encrypts the serialized bytes held in the primary buffer.
+     *
+     * @param buffers Buffers whose primary buffer holds serialized bytes.
+     * @param flowId Flow id of the serialized state, if any, for metrics.
+     * @param serialized Copy of the serialized bytes to cache, or null if caching is disabled.
+     *
+     * @return Encoded bytes.
+     */
+    private byte[] encrypt(final Buffers buffers, final String flowId, final byte[] serialized) throws IOException {
+        final int serializedSize = buffers.primary.size();
+        final long start = System.nanoTime();
+        final BufferOutputStream plaintext;
+        final BufferOutputStream ciphertext;
+        if (isLegacyFormat() && !this.compression) {
+            plaintext = buffers.primary;
+            ciphertext = buffers.secondary;
+        } else {
+            plaintext = buffers.secondary;
+            try {
+                compress(buffers.primary, flowId, plaintext);
+            } catch (IOException e) {
+                this.metrics.recordError(FlowStateMetrics.ErrorCause.ENCODING);
+                throw e;
+            }
+            ciphertext = buffers.primary;
+            ciphertext.reset();
+            this.metrics.recordPhase(FlowStateMetrics.Phase.COMPRESS, flowId, System.nanoTime() - start);
+        }
+        final long compressed = System.nanoTime();
+        try {
+            encrypt(plaintext, ciphertext);
+        } catch (Exception e) {
+            this.metrics.recordError(FlowStateMetrics.ErrorCause.ENCODING);
+            throw new IOException("Encryption error", e);
+        }
+        this.metrics.recordPhase(FlowStateMetrics.Phase.ENCRYPT, flowId, System.nanoTime() - compressed);
+        this.metrics.recordSizes(flowId, serializedSize, plaintext.size(), ciphertext.size());
+        final byte[] encoded = ciphertext.toByteArray();
+        if (serialized != null) {
+            this.plaintextCache.put(encoded, serialized);
+        }
+        return encoded;
+    }
+
+    private void compress(final BufferOutputStream serialized, final String flowId, final BufferOutputStream output)
+            throws IOException {
+        if (this.compressionPolicy != null) {
+            final CompressionCodec codec = this.compressionPolicy.select(flowId, serialized.size());
+            final long start = System.nanoTime();
+            output.write(codec.getId());
+            codec.compress(serialized.getBuffer(), 0, serialized.size(), output);
+            this.compressionPolicy.record(
+                    flowId, codec, serialized.size(), output.size() - 1, System.nanoTime() - start);
+        } else if (this.compressionCodec == null) {
+            this.legacyCodec.compress(serialized.getBuffer(), 0, serialized.size(), output);
+        } else {
+            output.write(this.compressionCodec.getId());
+            this.compressionCodec.compress(serialized.getBuffer(), 0, serialized.size(), output);
+        }
+    }
+
+    private void decompress(final BufferOutputStream plaintext, final BufferOutputStream output) throws IOException {
+        if (plaintext.size() == 0) {
+            throw new IOException("Empty plaintext");
+        }
+        final byte[] data = plaintext.getBuffer();
+        final int id = data[0] & 0xff;
+        output.setLimit(this.maxPlaintextSize);
+        if (isLegacyFormat() || id == LEGACY_GZIP_MAGIC) {
+            this.legacyCodec.decompress(data, 0, plaintext.size(), output);
+        } else if (id == LEGACY_STREAM_MAGIC) {
+            output.write(data, 0, plaintext.size());
+        } else {
+            final CompressionCodec codec = this.codecs[id];
+            if (codec == null) {
+                throw new IOException("Unknown compression codec " + id);
             }
+            codec.decompress(data, 1, plaintext.size() - 1, output);
         }
     }
+
+    /** @return True if plaintext has no codec identifier, i.e. neither a codec nor a compression policy is set. */
+    private boolean isLegacyFormat() {
+        return this.compressionCodec == null && this.compressionPolicy == null;
+    }
+
+    /** Gets the flow id of flow state for attribution in metrics. */
+    private static String flowId(final Object o) {
+        if (o instanceof ClientFlowExecutionRepository.SerializedFlowExecutionState) {
+            return ((ClientFlowExecutionRepository.SerializedFlowExecutionState) o).getFlowId();
+        }
+        return null;
+    }
+
+    private void register(final CompressionCodec codec) {
+        final int id = codec.getId();
+        if (id < 0 || id > 255 || id == LEGACY_GZIP_MAGIC || id == LEGACY_STREAM_MAGIC) {
+            throw new IllegalArgumentException("Invalid codec identifier " + id);
+        }
+        this.codecs[id] = codec;
+    }
+
+    private Buffers borrowBuffers() {
+        if (this.bufferPool == null) {
+            return new Buffers();
+        }
+        return this.bufferPool.borrow();
+    }
+
+    private void releaseBuffers(final Buffers buffers) {
+        if (this.bufferPool != null) {
+            this.bufferPool.release(buffers);
+        }
+    }
+
+
+    /** Scratch buffers reused across calls in pooled mode. */
+    private static class Buffers {
+        final BufferOutputStream primary = new BufferOutputStream(INITIAL_BUFFER_SIZE);
+
+        final BufferOutputStream secondary = new BufferOutputStream(INITIAL_BUFFER_SIZE);
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+/**
+ * Instrumentation SPI for recording the cost of encoding and decoding flow state. {@link EncryptedTranscoder} reports
+ * the latency of each processing phase and payload sizes; {@link ClientFlowExecutionRepository} and the transcoder
+ * report errors. Measurements are attributed to a flow id where it is known; it is null otherwise, e.g. when decoding
+ * fails before the flow id is available.
+ * <p>
+ * Methods are invoked on the request processing path. Implementations MUST be thread safe and SHOULD neither block
+ * nor allocate.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see NoOpFlowStateMetrics
+ * @see DefaultFlowStateMetrics
+ */
+public interface FlowStateMetrics {
+
+    /** Phases of encoding and decoding flow state. */
+    enum Phase {
+        SERIALIZE,
+        COMPRESS,
+        ENCRYPT,
+        DECRYPT,
+        DECOMPRESS,
+        DESERIALIZE,
+    }
+
+    /** Causes of encoding and decoding failures. */
+    enum ErrorCause {
+        /** Flow execution key is malformed. */
+        BAD_FORMAT,
+        /** State referenced by a key is no longer held by the flow state store. */
+        MISSING_STATE,
+        /** Key was already consumed by a request that moved the flow execution past it. */
+        REPLAY,
+        /** Decryption or authentication failed, e.g. due to tampering or a key mismatch. */
+        DECRYPTION,
+        /** Decrypted plaintext could not be decompressed. */
+        DECOMPRESSION,
+        /** Serialized state references a class that cannot be loaded. */
+        CLASS_NOT_FOUND,
+        /** Serialized state could not be deserialized for any other reason. */
+        DESERIALIZATION,
+        /** State could not be serialized, compressed or encrypted. */
+        ENCODING,
+    }
+
+
+    /**
+     * Records the time spent in a phase.
+     *
+     * @param phase Processing phase.
+     * @param flowId Flow id or null if unknown.
+     * @param nanos Elapsed time in nanoseconds.
+     */
+    void recordPhase(Phase phase, String flowId, long nanos);
+
+
+    /**
+     * Records the sizes of encoded state at successive stages.
+     *
+     * @param flowId Flow id or null if unknown.
+     * @param serializedBytes Size of serialized state.
+     * @param compressedBytes Size of serialized state after compression; equal to serialized size if not compressed.
+     * @param encodedBytes Size of encoded state carried in the flow execution key.
+     */
+    void recordSizes(String flowId, int serializedBytes, int compressedBytes, int encodedBytes);
+
+
+    /**
+     * Records a failure.
+     *
+     * @param cause Cause of failure.
+     */
+    void recordError(ErrorCause cause);
+}
@@ -0,0 +1,297 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Exposes the statistics of a {@link DefaultFlowStateMetrics} instance as read-only JMX MBeans: one for all flows
+ * combined, which also carries error counts, and one for each flow id as it is first seen. MBean names have the form
+ * <code>DOMAIN:type=FlowStateMetrics,scope=global</code> and
+ * <code>DOMAIN:type=FlowStateMetrics,scope=flow,flow="FLOW_ID"</code>. Latencies are reported in microseconds and
+ * sizes in bytes; percentiles are accurate to within a factor of two.
+ * <p>
+ * MBeans for flows seen after {@link #register()} are registered asynchronously on a background thread, so the request
+ * that first records statistics for a flow neither waits on JMX nor fails if registration fails; such failures are
+ * logged.
+ *
+ * @author Marvin S. Addison
+ */
+public class FlowStateMetricsExporter implements DefaultFlowStateMetrics.FlowListener {
+
+    /** Default JMX domain. */
+    public static final String DEFAULT_DOMAIN = "edu.vt.middleware.webflow";
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final DefaultFlowStateMetrics metrics;
+
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    private MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private String domain = DEFAULT_DOMAIN;
+
+    /** Registers MBeans for flows seen after registration; null while unregistered. */
+    private volatile ExecutorService executor;
+
+
+    public FlowStateMetricsExporter(final DefaultFlowStateMetrics metrics) {
+        Assert.notNull(metrics, "Metrics cannot be null");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the server with which MBeans are registered. Defaults to the platform MBean server.
+     *
+     * @param server MBean server.
+     */
+    public void setMBeanServer(final MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Sets the domain of MBean names. Defaults to {@value #DEFAULT_DOMAIN}.
+     *
+     * @param domain JMX domain.
+     */
+    public void setDomain(final String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Registers MBeans for statistics recorded so far and for flows seen thereafter.
+     *
+     * @throws JMException On registration errors.
+     */
+    public synchronized void register() throws JMException {
+        register(new ObjectName(this.domain + ":type=FlowStateMetrics,scope=global"),
+                new StatisticsMBean(this.metrics.getGlobalStatistics(), this.metrics));
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, FlowStateMetricsExporter.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.metrics.addFlowListener(this);
+        for (String flowId : this.metrics.getFlowIds()) {
+            registerFlow(flowId, this.metrics.getFlowStatistics(flowId));
+        }
+    }
+
+    /**
+     * Unregisters all MBeans registered by this instance.
+     *
+     * @throws JMException On errors unregistering MBeans.
+     */
+    public synchronized void unregister() throws JMException {
+        this.metrics.removeFlowListener(this);
+        if (this.executor != null) {
+            this.executor.shutdown();
+            this.executor = null;
+        }
+        for (ObjectName name : this.registered) {
+            if (this.server.isRegistered(name)) {
+                this.server.unregisterMBean(name);
+            }
+        }
+        this.registered.clear();
+    }
+
+    /** Invoked on the request thread that first records statistics for a flow; hands registration off. */
+    public void flowAdded(final String flowId, final FlowStateStatistics statistics) {
+        final ExecutorService executor = this.executor;
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    registerFlow(flowId, statistics);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Unregistered concurrently
+        }
+    }
+
+    /**
+     * Waits for registration of MBeans for flows seen so far to complete.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void awaitRegistration() throws InterruptedException {
+        final ExecutorService executor = this.executor;
+        if (executor != null) {
+            try {
+                executor.submit(new Runnable() {
+                    public void run() {}
+                }).get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /** Registers the MBean of a flow; failures are logged since they must not affect flow state encoding. */
+    private synchronized void registerFlow(final String flowId, final FlowStateStatistics statistics) {
+        if (this.executor == null) {
+            return;
+        }
+        try {
+            final ObjectName name = new ObjectName(
+                    this.domain + ":type=FlowStateMetrics,scope=flow,flow=" + ObjectName.quote(flowId));
+            if (!this.registered.contains(name)) {
+                register(name, new StatisticsMBean(statistics, null));
+            }
+        } catch (JMException e) {
+            this.logger.warn("Cannot register MBean for flow " + flowId, e);
+        } catch (RuntimeException e) {
+            this.logger.warn("Cannot register MBean for flow " + flowId, e);
+        }
+    }
+
+    private void register(final ObjectName name, final StatisticsMBean mbean) throws JMException {
+        this.server.registerMBean(mbean, name);
+        this.registered.add(name);
+    }
+
+    /** Converts an enum constant name such as CLASS_NOT_FOUND to the form ClassNotFound. */
+    private static String camelCase(final Enum<?> constant) {
+        final StringBuilder sb = new StringBuilder();
+        for (String part : constant.name().split("_")) {
+            sb.append(part.charAt(0)).append(part.substring(1).toLowerCase());
+        }
+        return sb.toString();
+    }
+
+
+    /** Read-only MBean whose attributes are computed from statistics on each access. */
+    private static class StatisticsMBean implements DynamicMBean {
+
+        private final FlowStateStatistics statistics;
+
+        /** Source of error counts; null to omit them. */
+        private final DefaultFlowStateMetrics errors;
+
+        private final MBeanInfo info;
+
+        StatisticsMBean(final FlowStateStatistics statistics, final DefaultFlowStateMetrics errors) {
+            this.statistics = statistics;
+            this.errors = errors;
+            final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Object> entry : values().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(
+                        entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false));
+            }
+            this.info = new MBeanInfo(
+                    getClass().getName(),
+                    "Flow state encoding statistics",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                    null,
+                    new MBeanOperationInfo[0],
+                    new MBeanNotificationInfo[0]);
+        }
+
+        public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+            final Object value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Attribute " + attribute.getName() + " is read-only");
+        }
+
+        public AttributeList getAttributes(final String[] attributes) {
+            final Map<String, Object> values = values();
+            final AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                if (values.containsKey(name)) {
+                    list.add(new Attribute(name, values.get(name)));
+                }
+            }
+            return list;
+        }
+
+        public AttributeList setAttributes(final AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(final String actionName, final Object[] params, final String[] signature) {
+            throw new UnsupportedOperationException("No operations supported");
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            return this.info;
+        }
+
+        private Map<String, Object> values() {
+            final Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (FlowStateMetrics.Phase phase : FlowStateMetrics.Phase.values()) {
+                final Histogram latency = this.statistics.getLatency(phase);
+                final String name = camelCase(phase);
+                values.put(name + "Count", latency.getCount());
+                values.put(name + "MeanMicros", latency.getMean() / 1000);
+                values.put(name + "P99Micros", latency.getPercentile(99) / 1000.0);
+                values.put(name + "MaxMicros", latency.getMax() / 1000.0);
+            }
+            putSizes(values, "SerializedSize", this.statistics.getSerializedSize());
+            putSizes(values, "CompressedSize", this.statistics.getCompressedSize());
+            putSizes(values, "EncodedSize", this.statistics.getEncodedSize());
+            values.put("CompressionRatio", this.statistics.getCompressionRatio());
+            if (this.errors != null) {
+                for (FlowStateMetrics.ErrorCause cause : FlowStateMetrics.ErrorCause.values()) {
+                    values.put(camelCase(cause) + "Errors", this.errors.getErrorCount(cause));
+                }
+            }
+            return values;
+        }
+
+        private static void putSizes(final Map<String, Object> values, final String name, final Histogram size) {
+            values.put(name + "Mean", size.getMean());
+            values.put(name + "P99", size.getPercentile(99));
+            values.put(name + "Max", size.getMax());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Breakdown of the size of the state of a single flow execution produced by {@link FlowStateProfiler}. Entries of
+ * each kind are ordered by serialized size, largest first.
+ *
+ * @author Marvin S. Addison
+ */
+public class FlowStateProfile {
+
+    private static final Comparator<Entry> BY_SIZE = new Comparator<Entry>() {
+        public int compare(final Entry a, final Entry b) {
+            return a.serializedSize > b.serializedSize ? -1 : a.serializedSize < b.serializedSize ? 1 : 0;
+        }
+    };
+
+    private final String flowId;
+
+    private final int serializedSize;
+
+    private final int compressedSize;
+
+    private final List<Entry> sessions = new ArrayList<Entry>();
+
+    private final List<Entry> attributes = new ArrayList<Entry>();
+
+    private final List<Entry> classes = new ArrayList<Entry>();
+
+
+    FlowStateProfile(final String flowId, final int serializedSize, final int compressedSize) {
+        this.flowId = flowId;
+        this.serializedSize = serializedSize;
+        this.compressedSize = compressedSize;
+    }
+
+    public String getFlowId() {
+        return this.flowId;
+    }
+
+    /** @return Size of the serialized state in bytes. */
+    public int getSerializedSize() {
+        return this.serializedSize;
+    }
+
+    /** @return Size of the compressed state in bytes. */
+    public int getCompressedSize() {
+        return this.compressedSize;
+    }
+
+    /**
+     * @return Size of the flow scope, which includes the view scope, of each flow session, named by session depth and
+     * flow id, e.g. <code>0:main</code> for the root session of flow <code>main</code>.
+     */
+    public List<Entry> getSessions() {
+        return Collections.unmodifiableList(this.sessions);
+    }
+
+    /**
+     * @return Size of each scope attribute value serialized on its own, named by scope and attribute name, e.g.
+     * <code>conversationScope.user</code> or <code>0:main.viewScope.results</code>.
+     */
+    public List<Entry> getAttributes() {
+        return Collections.unmodifiableList(this.attributes);
+    }
+
+    /**
+     * @return Bytes of the serialized state written for instances of each class, excluding the objects they refer to.
+     * Compressed sizes are not available.
+     */
+    public List<Entry> getClasses() {
+        return Collections.unmodifiableList(this.classes);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Flow ").append(this.flowId).append(": ").append(this.serializedSize).append(" bytes serialized, ")
+                .append(this.compressedSize).append(" bytes compressed\n");
+        append(sb, "Sessions", this.sessions);
+        append(sb, "Attributes", this.attributes);
+        append(sb, "Classes", this.classes);
+        return sb.toString();
+    }
+
+    void addSession(final String name, final int size, final int compressed) {
+        add(this.sessions, new Entry(name, size, compressed));
+    }
+
+    void addAttribute(final String name, final int size, final int compressed) {
+        add(this.attributes, new Entry(name, size, compressed));
+    }
+
+    void addClass(final String name, final int size) {
+        add(this.classes, new Entry(name, size, -1));
+    }
+
+    private static void add(final List<Entry> entries, final Entry entry) {
+        final int i = Collections.binarySearch(entries, entry, BY_SIZE);
+        entries.add(i < 0 ? -i - 1 : i, entry);
+    }
+
+    private static void append(final StringBuilder sb, final String title, final List<Entry> entries) {
+        sb.append(title).append(":\n");
+        for (Entry entry : entries) {
+            sb.append(String.format("  %10d %10s  %s%n", entry.serializedSize,
+                    entry.compressedSize < 0 ? "-" : String.valueOf(entry.compressedSize), entry.name));
+        }
+    }
+
+
+    /** Size attributed to a named part of the state. */
+    public static class Entry {
+
+        private final String name;
+
+        private final int serializedSize;
+
+        private final int compressedSize;
+
+        Entry(final String name, final int serializedSize, final int compressedSize) {
+            this.name = name;
+            this.serializedSize = serializedSize;
+            this.compressedSize = compressedSize;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getSerializedSize() {
+            return this.serializedSize;
+        }
+
+        /** @return Compressed size in bytes, or -1 if not available. */
+        public int getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + "=" + this.serializedSize + "/" + this.compressedSize;
+        }
+    }
+}
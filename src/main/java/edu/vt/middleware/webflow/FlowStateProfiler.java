@@ -0,0 +1,234 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+import org.springframework.webflow.core.collection.AttributeMap;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowSession;
+
+/**
+ * Diagnostic tool that attributes the size of flow execution state to flow sessions, scope attributes and classes,
+ * which helps find the cause of unexpectedly large flow execution keys. State may be profiled from a live execution,
+ * from a flow execution key, or for every flow in the registry by launching each flow.
+ * <p>
+ * Session and attribute sizes are those of the session scopes or attribute value serialized on their own, so objects
+ * shared with other parts of the state are counted in each part that refers to them. Class sizes are measured on the
+ * Java serialization stream of the complete state and count each object once. All sizes are those before encryption.
+ *
+ * @author Marvin S. Addison
+ */
+public class FlowStateProfiler {
+
+    private final ClientFlowExecutionRepository repository;
+
+    private Serializer serializer = new JavaSerializer();
+
+    private CompressionCodec compressionCodec = new DeflateCodec();
+
+
+    public FlowStateProfiler(final ClientFlowExecutionRepository repository) {
+        Assert.notNull(repository, "Repository cannot be null");
+        this.repository = repository;
+    }
+
+    /**
+     * Sets the serializer used to measure serialized sizes, which should match that of the transcoder. Defaults to
+     * {@link JavaSerializer}.
+     *
+     * @param serializer Object serializer.
+     */
+    public void setSerializer(final Serializer serializer) {
+        Assert.notNull(serializer, "Serializer cannot be null");
+        this.serializer = serializer;
+    }
+
+    /**
+     * Sets the codec used to measure compressed sizes, which should match that of the transcoder. Defaults to
+     * {@link DeflateCodec}.
+     *
+     * @param codec Compression codec.
+     */
+    public void setCompressionCodec(final CompressionCodec codec) {
+        Assert.notNull(codec, "Compression codec cannot be null");
+        this.compressionCodec = codec;
+    }
+
+    /**
+     * Profiles the state carried by a flow execution key.
+     *
+     * @param key Flow execution key as rendered in a view.
+     *
+     * @return Size profile.
+     *
+     * @throws IOException On serialization errors.
+     */
+    public FlowStateProfile profile(final String key) throws IOException {
+        return profile(this.repository.getFlowExecution(this.repository.parseFlowExecutionKey(key)));
+    }
+
+    /**
+     * Profiles the current state of a flow execution.
+     *
+     * @param execution Flow execution.
+     *
+     * @return Size profile.
+     *
+     * @throws IOException On serialization errors.
+     */
+    public FlowStateProfile profile(final FlowExecution execution) throws IOException {
+        final BufferOutputStream serialized = serialize(
+                new ClientFlowExecutionRepository.SerializedFlowExecutionState(execution));
+        final FlowStateProfile profile = new FlowStateProfile(
+                execution.getDefinition().getId(), serialized.size(), compress(serialized));
+        addAttributes(profile, "conversationScope", execution.getConversationScope(), null);
+        addAttributes(profile, "flashScope", execution.getFlashScope(), null);
+        final List<FlowSession> sessions = new ArrayList<FlowSession>();
+        for (FlowSession session = execution.getActiveSession(); session != null; session = session.getParent()) {
+            sessions.add(0, session);
+        }
+        for (int i = 0; i < sessions.size(); i++) {
+            final FlowSession session = sessions.get(i);
+            final String name = i + ":" + session.getDefinition().getId();
+            // Web Flow keeps the view scope in the flow scope; its attributes are listed individually
+            final AttributeMap viewScope = session.getState() != null && session.getState().isViewState()
+                    ? session.getViewScope() : null;
+            addAttributes(profile, name + ".flowScope", session.getScope(), viewScope);
+            if (viewScope != null) {
+                addAttributes(profile, name + ".viewScope", viewScope, null);
+            }
+            final BufferOutputStream out = serialize(session.getScope());
+            profile.addSession(name, out.size(), compress(out));
+        }
+        for (Map.Entry<String, int[]> entry : classSizes(execution).entrySet()) {
+            profile.addClass(entry.getKey(), entry.getValue()[0]);
+        }
+        return profile;
+    }
+
+    /**
+     * Launches every flow in the registry and profiles its state once it pauses. Flows that end on launch are
+     * omitted. Note that the flows' start actions run as usual.
+     *
+     * @param input Flow input passed to every flow; may be null.
+     *
+     * @return Size profiles by flow id.
+     *
+     * @throws IOException On serialization errors.
+     */
+    public Map<String, FlowStateProfile> profileAll(final MutableAttributeMap input) throws IOException {
+        final Map<String, FlowStateProfile> profiles = new LinkedHashMap<String, FlowStateProfile>();
+        for (String id : this.repository.getFlowDefinitionIds()) {
+            final FlowExecution execution = this.repository.launch(id, input);
+            if (execution.isActive()) {
+                profiles.put(id, profile(execution));
+            }
+        }
+        return profiles;
+    }
+
+    /** Adds the attributes of a scope except for the given nested scope, which is added separately. */
+    private void addAttributes(
+            final FlowStateProfile profile, final String scopeName, final AttributeMap scope, final Object nested)
+            throws IOException {
+        for (Object o : scope.asMap().entrySet()) {
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getValue() == nested) {
+                continue;
+            }
+            final BufferOutputStream out = serialize(entry.getValue());
+            profile.addAttribute(scopeName + "." + entry.getKey(), out.size(), compress(out));
+        }
+    }
+
+    private BufferOutputStream serialize(final Object o) throws IOException {
+        final BufferOutputStream out = new BufferOutputStream(1024);
+        this.serializer.serialize(o, out);
+        return out;
+    }
+
+    private int compress(final BufferOutputStream serialized) throws IOException {
+        final BufferOutputStream out = new BufferOutputStream(serialized.size());
+        this.compressionCodec.compress(serialized.getBuffer(), 0, serialized.size(), out);
+        return out.size();
+    }
+
+    /** Serializes the state and attributes the bytes written for each object to its class. */
+    private static Map<String, int[]> classSizes(final FlowExecution execution) throws IOException {
+        final ClassSizeOutputStream out = new ClassSizeOutputStream(new BufferOutputStream(1024));
+        out.writeObject(new ClientFlowExecutionRepository.SerializedFlowExecutionState(execution));
+        out.close();
+        return out.sizes;
+    }
+
+
+    /**
+     * Object stream that uses the per-object replacement hook to note the stream position at which each object
+     * begins. Bytes up to the next object are attributed to the class of the current one.
+     */
+    private static class ClassSizeOutputStream extends ObjectOutputStream {
+
+        private final BufferOutputStream out;
+
+        private final Map<String, int[]> sizes = new HashMap<String, int[]>();
+
+        private String current;
+
+        private int position;
+
+
+        ClassSizeOutputStream(final BufferOutputStream out) throws IOException {
+            super(out);
+            this.out = out;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(final Object o) throws IOException {
+            record();
+            this.current = o.getClass().getName();
+            return o;
+        }
+
+        @Override
+        public void close() throws IOException {
+            record();
+            super.close();
+        }
+
+        private void record() throws IOException {
+            drain();
+            if (this.current != null) {
+                int[] size = this.sizes.get(this.current);
+                if (size == null) {
+                    size = new int[1];
+                    this.sizes.put(this.current, size);
+                }
+                size[0] += this.out.size() - this.position;
+            }
+            this.position = this.out.size();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+/**
+ * Latency and size histograms for encoding and decoding flow state, either for a single flow or for all flows.
+ * Latencies are in nanoseconds and sizes in bytes.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see DefaultFlowStateMetrics
+ */
+public class FlowStateStatistics {
+
+    private final Histogram[] phases;
+
+    private final Histogram serializedSize = new Histogram();
+
+    private final Histogram compressedSize = new Histogram();
+
+    private final Histogram encodedSize = new Histogram();
+
+
+    public FlowStateStatistics() {
+        this.phases = new Histogram[FlowStateMetrics.Phase.values().length];
+        for (int i = 0; i < this.phases.length; i++) {
+            this.phases[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @param phase Processing phase.
+     *
+     * @return Latency histogram of the given phase.
+     */
+    public Histogram getLatency(final FlowStateMetrics.Phase phase) {
+        return this.phases[phase.ordinal()];
+    }
+
+    /**
+     * @return Histogram of serialized state sizes.
+     */
+    public Histogram getSerializedSize() {
+        return this.serializedSize;
+    }
+
+    /**
+     * @return Histogram of state sizes after compression.
+     */
+    public Histogram getCompressedSize() {
+        return this.compressedSize;
+    }
+
+    /**
+     * @return Histogram of encoded state sizes, which determine key sizes.
+     */
+    public Histogram getEncodedSize() {
+        return this.encodedSize;
+    }
+
+    /**
+     * @return Ratio of total compressed size to total serialized size, or zero if nothing has been recorded.
+     */
+    public double getCompressionRatio() {
+        final long serialized = this.serializedSize.getSum();
+        return serialized == 0 ? 0 : (double) this.compressedSize.getSum() / serialized;
+    }
+
+    void recordPhase(final FlowStateMetrics.Phase phase, final long nanos) {
+        this.phases[phase.ordinal()].record(nanos);
+    }
+
+    void recordSizes(final int serializedBytes, final int compressedBytes, final int encodedBytes) {
+        this.serializedSize.record(serializedBytes);
+        this.compressedSize.record(compressedBytes);
+        this.encodedSize.record(encodedBytes);
+    }
+}
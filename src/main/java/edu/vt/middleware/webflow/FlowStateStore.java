@@ -0,0 +1,49 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+/**
+ * Server-side store for encoded flow state that is too large to carry inline in a {@link ClientFlowExecutionKey}.
+ * Entries are addressed by a content hash of the encoded state. A store MAY discard entries at any time, e.g. to stay
+ * within a memory budget; the flow execution that referenced a discarded entry is then treated as expired.
+ * Implementations MUST be thread safe.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see ClientFlowExecutionRepository#setFlowStateStore(FlowStateStore)
+ */
+public interface FlowStateStore {
+
+    /**
+     * Stores encoded flow state.
+     *
+     * @param hash Content hash of the encoded state.
+     * @param data Encoded flow state.
+     *
+     * @return True if the state was stored, false if the store declined it, e.g. because it exceeds its capacity.
+     */
+    boolean put(byte[] hash, byte[] data);
+
+
+    /**
+     * Retrieves encoded flow state.
+     *
+     * @param hash Content hash of the encoded state.
+     *
+     * @return Encoded flow state or null if no state is stored under the given hash.
+     */
+    byte[] get(byte[] hash);
+}
@@ -0,0 +1,150 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+
+/**
+ * Warms up {@link ClientFlowExecutionRepository} when the application context starts, so that the first requests
+ * after a deploy do not pay for cold serialization, compression and cipher paths. Each flow is launched and its state
+ * round tripped through the repository a number of times; see {@link ClientFlowExecutionRepository#warmUp}. Since the
+ * context is not refreshed until every lifecycle bean has started, the node does not report ready before warm-up
+ * completes. Flows that fail to launch with the synthetic input are logged and skipped.
+ * <p>
+ * Warm-up is opt-in; declare the bean to enable it:
+ * <pre>
+ * &lt;bean class="edu.vt.middleware.webflow.FlowStateWarmer" c:repository-ref="flowExecutionRepository" /&gt;
+ * </pre>
+ *
+ * @author Marvin S. Addison
+ */
+public class FlowStateWarmer implements SmartLifecycle {
+
+    /** Default number of round trips per flow. */
+    public static final int DEFAULT_ITERATIONS = 100;
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final ClientFlowExecutionRepository repository;
+
+    /** Flows to warm up; null for all flows in the registry. */
+    private String[] flowIds;
+
+    private Map<String, ?> input;
+
+    private int iterations = DEFAULT_ITERATIONS;
+
+    private int phase;
+
+    private volatile boolean running;
+
+
+    public FlowStateWarmer(final ClientFlowExecutionRepository repository) {
+        Assert.notNull(repository, "Repository cannot be null");
+        this.repository = repository;
+    }
+
+    /**
+     * Sets the flows to warm up. Defaults to every flow in the repository's flow definition locator, provided it is a
+     * {@link org.springframework.webflow.definition.registry.FlowDefinitionRegistry}.
+     *
+     * @param flowIds Flow definition ids.
+     */
+    public void setFlowIds(final List<String> flowIds) {
+        this.flowIds = flowIds != null ? flowIds.toArray(new String[flowIds.size()]) : null;
+    }
+
+    /**
+     * Sets the synthetic input passed to every flow on launch. Defaults to no input.
+     *
+     * @param input Flow input attributes.
+     */
+    public void setInput(final Map<String, ?> input) {
+        this.input = input;
+    }
+
+    /**
+     * Sets the number of decode and encode round trips per flow. Defaults to {@value #DEFAULT_ITERATIONS}.
+     *
+     * @param iterations Number of round trips.
+     */
+    public void setIterations(final int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Iterations cannot be negative");
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * Sets the lifecycle phase in which warm-up runs. Defaults to 0.
+     *
+     * @param phase Lifecycle phase.
+     */
+    public void setPhase(final int phase) {
+        this.phase = phase;
+    }
+
+    public int getPhase() {
+        return this.phase;
+    }
+
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    public void start() {
+        final String[] ids = this.flowIds != null ? this.flowIds : this.repository.getFlowDefinitionIds();
+        final long start = System.currentTimeMillis();
+        int count = 0;
+        for (String id : ids) {
+            try {
+                final LocalAttributeMap flowInput = this.input != null
+                        ? new LocalAttributeMap(new HashMap<String, Object>(this.input)) : null;
+                if (this.repository.warmUp(id, flowInput, this.iterations)) {
+                    count++;
+                } else {
+                    this.logger.debug("Flow " + id + " ended on launch; skipping warm-up");
+                }
+            } catch (RuntimeException e) {
+                this.logger.warn("Warm-up of flow " + id + " failed", e);
+            }
+        }
+        this.logger.info("Warmed up " + count + " of " + ids.length + " flows in "
+                + (System.currentTimeMillis() - start) + "ms");
+        this.running = true;
+    }
+
+    public void stop() {
+        this.running = false;
+    }
+
+    public void stop(final Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    public boolean isRunning() {
+        return this.running;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec that produces the gzip format, which is what {@link EncryptedTranscoder} uses when compression is enabled and
+ * no codec is configured. The gzip header and trailer add 18 bytes to every payload, so {@link DeflateCodec} is
+ * preferable unless gzip compatibility is needed.
+ *
+ * @author Marvin S. Addison
+ */
+public class GzipCodec extends AbstractDeflateCodec {
+
+    public int getId() {
+        return GZIP;
+    }
+
+    public void compress(final byte[] input, final int offset, final int length, final BufferOutputStream output) {
+        final Deflater deflater = borrowDeflater();
+        try {
+            GzipFormat.compress(input, offset, length, deflater, new CRC32(), output);
+        } finally {
+            release(deflater);
+        }
+    }
+
+    public void decompress(final byte[] input, final int offset, final int length, final BufferOutputStream output)
+            throws IOException {
+        final Inflater inflater = borrowInflater();
+        try {
+            GzipFormat.decompress(input, offset, length, inflater, new CRC32(), output);
+        } finally {
+            release(inflater);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes and reads the gzip format (RFC 1952) using caller-supplied {@link Deflater}, {@link Inflater} and
+ * {@link CRC32} instances so they can be reused across calls. Compressed output is byte-for-byte identical to that of
+ * {@link GZIPOutputStream} on the running platform, and input produced by {@link GZIPOutputStream} is accepted.
+ *
+ * @author Marvin S. Addison
+ */
+final class GzipFormat {
+
+    /** Fixed member header; taken from the platform implementation so the output matches it exactly. */
+    private static final byte[] HEADER = platformHeader();
+
+    private static final int MAGIC = 0x8b1f;
+
+    private static final int TRAILER_SIZE = 8;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    /** Minimum number of bytes of free space made available for each deflate call. */
+    private static final int MIN_CHUNK_SIZE = 512;
+
+
+    private GzipFormat() {}
+
+    /**
+     * Creates a deflater configured as {@link GZIPOutputStream} does.
+     *
+     * @return New deflater producing raw deflate data.
+     */
+    public static Deflater newDeflater() {
+        return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    /**
+     * Creates an inflater suitable for {@link #decompress(byte[], int, int, Inflater, CRC32, BufferOutputStream)}.
+     *
+     * @return New inflater consuming raw deflate data.
+     */
+    public static Inflater newInflater() {
+        return new Inflater(true);
+    }
+
+    /**
+     * Writes a single gzip member containing the given bytes.
+     *
+     * @param input Uncompressed bytes.
+     * @param offset Offset of first byte in input.
+     * @param length Number of input bytes.
+     * @param deflater Deflater producing raw deflate data; it is reset prior to use.
+     * @param crc Checksum instance; it is reset prior to use.
+     * @param output Receives the gzip member.
+     */
+    public static void compress(
+            final byte[] input,
+            final int offset,
+            final int length,
+            final Deflater deflater,
+            final CRC32 crc,
+            final BufferOutputStream output) {
+        output.write(HEADER, 0, HEADER.length);
+        deflater.reset();
+        deflate(input, offset, length, deflater, output);
+        crc.reset();
+        crc.update(input, offset, length);
+        writeIntLE(output, (int) crc.getValue());
+        writeIntLE(output, length);
+    }
+
+    /**
+     * Compresses the given bytes into raw deflate data with no header or trailer.
+     *
+     * @param input Uncompressed bytes.
+     * @param offset Offset of first byte in input.
+     * @param length Number of input bytes.
+     * @param deflater Deflater producing raw deflate data; the caller is responsible for resetting it.
+     * @param output Receives the deflate data.
+     */
+    public static void deflate(
+            final byte[] input,
+            final int offset,
+            final int length,
+            final Deflater deflater,
+            final BufferOutputStream output) {
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, length >>> 2);
+        while (!deflater.finished()) {
+            output.ensureCapacity(output.size() + chunkSize);
+            output.advance(
+                    deflater.deflate(output.getBuffer(), output.size(), output.capacity() - output.size()));
+        }
+    }
+
+    /**
+     * Reads a single gzip member and writes its uncompressed content.
+     *
+     * @param input Gzip data.
+     * @param offset Offset of first byte of gzip data.
+     * @param length Number of bytes of gzip data.
+     * @param inflater Inflater consuming raw deflate data; it is reset prior to use.
+     * @param crc Checksum instance; it is reset prior to use.
+     * @param output Receives uncompressed bytes.
+     *
+     * @throws IOException On malformed input or checksum mismatch.
+     */
+    public static void decompress(
+            final byte[] input,
+            final int offset,
+            final int length,
+            final Inflater inflater,
+            final CRC32 crc,
+            final BufferOutputStream output) throws IOException {
+        final int end = offset + length;
+        int pos = offset;
+        if (length < HEADER.length + TRAILER_SIZE || readShortLE(input, pos) != MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (input[pos + 2] != Deflater.DEFLATED) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = input[pos + 3] & 0xff;
+        pos += HEADER.length;
+        if ((flags & FEXTRA) != 0) {
+            pos += 2 + readShortLE(input, pos);
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(input, pos, end);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(input, pos, end);
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        if (pos > end - TRAILER_SIZE) {
+            throw new ZipException("Corrupt GZIP header");
+        }
+        final int start = output.size();
+        inflater.reset();
+        inflate(input, pos, end - pos, inflater, output);
+        final int trailer = end - inflater.getRemaining();
+        if (trailer > end - TRAILER_SIZE) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        crc.reset();
+        crc.update(output.getBuffer(), start, output.size() - start);
+        if (readIntLE(input, trailer) != (int) crc.getValue()
+                || readIntLE(input, trailer + 4) != output.size() - start) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+    }
+
+    /**
+     * Inflates raw deflate data until the end of the deflate stream is reached. Input that follows the end of the
+     * stream is left unconsumed and reported by {@link Inflater#getRemaining()}. Inflation stops with an error once
+     * the output reaches its {@link BufferOutputStream#getLimit() limit}.
+     *
+     * @param input Deflate data.
+     * @param offset Offset of first byte of deflate data.
+     * @param length Number of bytes of deflate data.
+     * @param inflater Inflater consuming raw deflate data; the caller is responsible for resetting it.
+     * @param output Receives uncompressed bytes.
+     *
+     * @throws IOException On malformed or truncated input or when the output limit is reached.
+     */
+    public static void inflate(
+            final byte[] input,
+            final int offset,
+            final int length,
+            final Inflater inflater,
+            final BufferOutputStream output) throws IOException {
+        inflater.setInput(input, offset, length);
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, length << 1);
+        final int limit = output.getLimit();
+        try {
+            while (!inflater.finished()) {
+                if (output.size() >= limit) {
+                    throw new ZipException("Inflated size exceeds limit of " + limit + " bytes");
+                }
+                output.ensureCapacity(output.size() + Math.min(chunkSize, limit - output.size()));
+                final int n = inflater.inflate(
+                        output.getBuffer(), output.size(), Math.min(output.capacity(), limit) - output.size());
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Unexpected end of ZLIB input stream");
+                }
+                output.advance(n);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid ZLIB data format");
+        }
+    }
+
+    private static byte[] platformHeader() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot determine GZIP header", e);
+        }
+        return Arrays.copyOf(out.toByteArray(), 10);
+    }
+
+    private static int skipZeroTerminated(final byte[] input, final int offset, final int end) throws ZipException {
+        for (int i = offset; i < end; i++) {
+            if (input[i] == 0) {
+                return i + 1;
+            }
+        }
+        throw new ZipException("Corrupt GZIP header");
+    }
+
+    private static int readShortLE(final byte[] b, final int offset) {
+        return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+    }
+
+    private static int readIntLE(final byte[] b, final int offset) {
+        return readShortLE(b, offset) | (readShortLE(b, offset + 2) << 16);
+    }
+
+    private static void writeIntLE(final BufferOutputStream out, final int i) {
+        out.write(i & 0xff);
+        out.write((i >>> 8) & 0xff);
+        out.write((i >>> 16) & 0xff);
+        out.write((i >>> 24) & 0xff);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values with fixed power-of-two buckets, where bucket <code>i</code> counts values in the
+ * range [2<sup>i-1</sup>, 2<sup>i</sup>). Recording is lock-free, allocation-free and striped across threads, so it
+ * is suitable for the request processing path. Percentiles are reported as the upper bound of the containing bucket
+ * and are therefore accurate to within a factor of two.
+ *
+ * @author Marvin S. Addison
+ */
+public final class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    /** Offset of the sum of values in a stripe. */
+    private static final int SUM = BUCKETS;
+
+    /** Offset of the maximum value in a stripe. */
+    private static final int MAX = BUCKETS + 1;
+
+    private static final int STRIDE = Stripes.stride(BUCKETS + 2);
+
+    private final AtomicLongArray cells = Stripes.newArray(BUCKETS + 2);
+
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value Value to record.
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        final int base = Stripes.current() * STRIDE;
+        this.cells.incrementAndGet(base + BUCKETS - Long.numberOfLeadingZeros(v));
+        this.cells.addAndGet(base + SUM, v);
+        long max;
+        while ((max = this.cells.get(base + MAX)) < v && !this.cells.compareAndSet(base + MAX, max, v)) {
+            continue;
+        }
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int s = 0; s < Stripes.COUNT; s++) {
+            for (int i = 0; i < BUCKETS; i++) {
+                count += this.cells.get(s * STRIDE + i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Sum of recorded values.
+     */
+    public long getSum() {
+        long sum = 0;
+        for (int s = 0; s < Stripes.COUNT; s++) {
+            sum += this.cells.get(s * STRIDE + SUM);
+        }
+        return sum;
+    }
+
+    /**
+     * @return Mean of recorded values or zero if none have been recorded.
+     */
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * @return Largest recorded value or zero if none have been recorded.
+     */
+    public long getMax() {
+        long max = 0;
+        for (int s = 0; s < Stripes.COUNT; s++) {
+            max = Math.max(max, this.cells.get(s * STRIDE + MAX));
+        }
+        return max;
+    }
+
+    /**
+     * Gets an upper bound on the given percentile of recorded values.
+     *
+     * @param percentile Percentile in the range (0, 100].
+     *
+     * @return Upper bound of the bucket containing the percentile, capped at the largest recorded value.
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int s = 0; s < Stripes.COUNT; s++) {
+            for (int i = 0; i < BUCKETS; i++) {
+                final long n = this.cells.get(s * STRIDE + i);
+                counts[i] += n;
+                total += n;
+            }
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(getMax(), i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import org.cryptacular.bean.CipherBean;
+import org.springframework.util.Assert;
+
+/**
+ * Transcoder that authenticates flow state with an HMAC, implementing the digital signature strategy described in
+ * the README. The tag is appended to the payload:
+ * <pre>
+ * [payload][tag]
+ * </pre>
+ * Without a {@link #setCipherBean(CipherBean) cipher bean}, the default, the payload is the compressed plaintext,
+ * which is authenticated but readable by the client; this is the fastest mode since nothing is encrypted. With a
+ * cipher bean, the payload is ciphertext and the tag is computed over it (encrypt-then-MAC).
+ * <p>
+ * In either mode the tag is verified with a single constant-time comparison before anything else is done with the
+ * payload, so forged or corrupted keys are rejected without decryption, decompression or deserialization. Compression,
+ * serialization, buffer pooling, caching and metrics are configured as for {@link EncryptedTranscoder}.
+ *
+ * @author Marvin S. Addison
+ */
+public class HmacTranscoder extends EncryptedTranscoder {
+
+    /** Default MAC algorithm. */
+    public static final String DEFAULT_ALGORITHM = "HmacSHA256";
+
+    /** Minimum tag length in bytes. */
+    public static final int MIN_TAG_LENGTH = 16;
+
+    private String algorithm = DEFAULT_ALGORITHM;
+
+    private SecretKey key;
+
+    /** Tag length in bytes; 0 for the full MAC length. */
+    private int tagLength;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                final Mac mac = Mac.getInstance(algorithm);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialize " + algorithm, e);
+            }
+        }
+    };
+
+
+    /**
+     * Sets the MAC algorithm. Defaults to {@value #DEFAULT_ALGORITHM}.
+     *
+     * @param algorithm JCE MAC algorithm name.
+     */
+    public void setAlgorithm(final String algorithm) {
+        Assert.hasText(algorithm, "Algorithm cannot be empty");
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Sets the MAC key, which should be at least as long as the MAC output, e.g. 32 bytes for HmacSHA256. The key and
+     * algorithm MUST be set before first use.
+     *
+     * @param key Secret key.
+     */
+    public void setKey(final SecretKey key) {
+        Assert.notNull(key, "Key cannot be null");
+        this.key = key;
+    }
+
+    /**
+     * Truncates tags to the given length to shorten keys. Defaults to the full MAC length.
+     *
+     * @param length Tag length in bytes, at least {@value #MIN_TAG_LENGTH}.
+     */
+    public void setTagLength(final int length) {
+        if (length < MIN_TAG_LENGTH) {
+            throw new IllegalArgumentException("Tag length must be at least " + MIN_TAG_LENGTH);
+        }
+        this.tagLength = length;
+    }
+
+    @Override
+    protected void encrypt(final BufferOutputStream plaintext, final BufferOutputStream ciphertext)
+            throws IOException {
+        if (getCipherBean() != null) {
+            super.encrypt(plaintext, ciphertext);
+        } else {
+            ciphertext.write(plaintext.getBuffer(), 0, plaintext.size());
+        }
+        final Mac mac = this.macs.get();
+        mac.update(ciphertext.getBuffer(), 0, ciphertext.size());
+        final byte[] tag = mac.doFinal();
+        ciphertext.write(tag, 0, tagLength(mac));
+    }
+
+    @Override
+    protected void decrypt(final byte[] encoded, final BufferOutputStream plaintext) throws IOException {
+        final Mac mac = this.macs.get();
+        final int tagLength = tagLength(mac);
+        final int length = encoded.length - tagLength;
+        if (length < 0) {
+            throw new IOException("Payload too short");
+        }
+        mac.update(encoded, 0, length);
+        final byte[] tag = Arrays.copyOf(mac.doFinal(), tagLength);
+        if (!MessageDigest.isEqual(tag, Arrays.copyOfRange(encoded, length, encoded.length))) {
+            throw new IOException("Invalid MAC");
+        }
+        if (getCipherBean() != null) {
+            super.decrypt(Arrays.copyOf(encoded, length), plaintext);
+        } else {
+            plaintext.write(encoded, 0, length);
+        }
+    }
+
+    private int tagLength(final Mac mac) {
+        return this.tagLength > 0 ? Math.min(this.tagLength, mac.getMacLength()) : mac.getMacLength();
+    }
+}
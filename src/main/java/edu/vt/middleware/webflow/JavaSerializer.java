@@ -0,0 +1,78 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import org.springframework.util.Assert;
+
+/**
+ * Serializer that uses the standard Java serialization mechanism. This is the default serializer and produces the
+ * same bytes as prior versions of {@link EncryptedTranscoder}. Decoding is subject to {@link DeserializationLimits}.
+ *
+ * @author Marvin S. Addison
+ */
+public class JavaSerializer implements Serializer {
+
+    private DeserializationLimits limits = new DeserializationLimits();
+
+    private boolean lazyScopes;
+
+
+    /**
+     * Sets the limits on decoded object graphs. Defaults to the default limits, which do not restrict classes.
+     *
+     * @param limits Deserialization limits.
+     */
+    public void setLimits(final DeserializationLimits limits) {
+        Assert.notNull(limits, "Limits cannot be null");
+        this.limits = limits;
+    }
+
+    public DeserializationLimits getLimits() {
+        return this.limits;
+    }
+
+    /**
+     * Sets whether the values of scope attribute maps are serialized as independent blobs that are deserialized on
+     * first access after the flow execution is restored. Attributes that a request does not access are written back
+     * without being deserialized or serialized again. Objects referenced by several attributes are restored as
+     * separate copies, so enable this only where attributes do not share mutable state. Defaults to false.
+     *
+     * @param lazyScopes True to restore scope attributes lazily.
+     */
+    public void setLazyScopes(final boolean lazyScopes) {
+        this.lazyScopes = lazyScopes;
+    }
+
+    public void serialize(final Object o, final BufferOutputStream output) throws IOException {
+        final ObjectOutputStream out = this.lazyScopes
+                ? new LazyValueMap.ScopeOutputStream(output) : new ObjectOutputStream(output);
+        out.writeObject(o);
+        out.close();
+    }
+
+    public Object deserialize(final byte[] input, final int offset, final int length) throws IOException {
+        try {
+            return new RestrictedObjectInputStream(
+                    new ByteArrayInputStream(input, offset, length), this.limits).readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Deserialization error", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * Caches key material by keystore alias so that a cipher bean reads each key from its keystore only once.
+ *
+ * @author Marvin S. Addison
+ */
+abstract class KeyCache {
+
+    private final ConcurrentMap<String, KeyParameter> keys = new ConcurrentHashMap<String, KeyParameter>();
+
+
+    /**
+     * Gets the key with the given alias, resolving it on first use.
+     *
+     * @param alias Keystore alias.
+     *
+     * @return Key parameter for the BC lightweight API.
+     */
+    public KeyParameter get(final String alias) {
+        KeyParameter key = this.keys.get(alias);
+        if (key == null) {
+            key = new KeyParameter(resolve(alias).getEncoded());
+            final KeyParameter existing = this.keys.putIfAbsent(alias, key);
+            if (existing != null) {
+                key = existing;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Reads a key from the keystore.
+     *
+     * @param alias Keystore alias.
+     *
+     * @return Secret key.
+     */
+    protected abstract SecretKey resolve(String alias);
+}
@@ -0,0 +1,132 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.cryptacular.bean.CipherBean;
+
+/**
+ * Transcoder that encrypts with one of several keys, each held by a {@link CipherBean} and identified by a number
+ * in the range 0-255, and frames the ciphertext with a cleartext header that names the key:
+ * <pre>
+ * [magic 0xE7][format version][codec id][key id][ciphertext]
+ * </pre>
+ * New payloads are encrypted with the active key, while payloads encrypted with any other configured key still
+ * decode. Decoding selects the key from the header, so its cost does not depend on the number of keys. The codec
+ * identifier is that of the {@link CompressionCodec} which compressed the plaintext; since it is also the first byte
+ * of the authenticated plaintext, a payload whose header disagrees with its plaintext is rejected.
+ * <p>
+ * To rotate keys across a cluster, first deploy the new key to all nodes without activating it, then activate it, and
+ * finally remove the old key once keys encrypted with it have expired. A {@link #setCipherBean(CipherBean) cipher
+ * bean} set in addition to the keyring decodes payloads produced by {@link EncryptedTranscoder}, which allows
+ * migrating to this transcoder without failing in-flight flows.
+ *
+ * @author Marvin S. Addison
+ */
+public class KeyringTranscoder extends EncryptedTranscoder {
+
+    /** First byte of the header. */
+    public static final int MAGIC = 0xE7;
+
+    /** Current format version. */
+    public static final int VERSION = 1;
+
+    /** Size of the header in bytes. */
+    public static final int HEADER_SIZE = 4;
+
+    /** Cipher beans indexed by key id. */
+    private final CipherBean[] keys = new CipherBean[256];
+
+    private int activeKeyId = -1;
+
+
+    /**
+     * Sets the keys available for decoding.
+     *
+     * @param keys Map of key id, 0-255, to the cipher bean holding the key.
+     */
+    public void setKeys(final Map<Integer, CipherBean> keys) {
+        for (Map.Entry<Integer, CipherBean> entry : keys.entrySet()) {
+            final int id = entry.getKey();
+            if (id < 0 || id > 255) {
+                throw new IllegalArgumentException("Invalid key id " + id);
+            }
+            this.keys[id] = entry.getValue();
+        }
+    }
+
+    /**
+     * Sets the id of the key used to encrypt new payloads.
+     *
+     * @param id Key id of a key passed to {@link #setKeys(Map)}.
+     */
+    public void setActiveKeyId(final int id) {
+        if (id < 0 || id > 255 || this.keys[id] == null) {
+            throw new IllegalArgumentException("Unknown key id " + id);
+        }
+        this.activeKeyId = id;
+    }
+
+    public int getActiveKeyId() {
+        return this.activeKeyId;
+    }
+
+    @Override
+    protected void encrypt(final BufferOutputStream plaintext, final BufferOutputStream ciphertext)
+            throws IOException {
+        if (this.activeKeyId < 0) {
+            throw new IllegalStateException("No active key");
+        }
+        ciphertext.write(MAGIC);
+        ciphertext.write(VERSION);
+        ciphertext.write(plaintext.size() > 0 ? plaintext.getBuffer()[0] : 0);
+        ciphertext.write(this.activeKeyId);
+        this.keys[this.activeKeyId].encrypt(plaintext.toInputStream(), ciphertext);
+    }
+
+    @Override
+    protected void decrypt(final byte[] encoded, final BufferOutputStream plaintext) throws IOException {
+        final CipherBean key = hasHeader(encoded) ? this.keys[encoded[3] & 0xff] : null;
+        if (key == null) {
+            if (getCipherBean() == null) {
+                throw new IOException("Invalid header or unknown key");
+            }
+            super.decrypt(encoded, plaintext);
+            return;
+        }
+        try {
+            key.decrypt(new ByteArrayInputStream(encoded, HEADER_SIZE, encoded.length - HEADER_SIZE), plaintext);
+        } catch (RuntimeException e) {
+            if (getCipherBean() == null) {
+                throw e;
+            }
+            // The header may be the leading bytes of a legacy payload
+            plaintext.reset();
+            super.decrypt(encoded, plaintext);
+            return;
+        }
+        if (plaintext.size() == 0 || plaintext.getBuffer()[0] != encoded[2]) {
+            throw new IOException("Header codec does not match payload");
+        }
+    }
+
+    private static boolean hasHeader(final byte[] encoded) {
+        return encoded.length > HEADER_SIZE && (encoded[0] & 0xff) == MAGIC && encoded[1] == VERSION;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+
+/**
+ * Backing map of a restored {@link LocalAttributeMap} that serializes each value into an independent blob and
+ * deserializes a value only when it is first accessed. Values that are never accessed are written back as the same
+ * blob, so resuming a flow and producing its next key costs time in proportion to the attributes the request touched
+ * rather than to the size of the scopes.
+ * <p>
+ * Since values are serialized independently, an object referenced by several attributes is restored as a separate
+ * copy for each. Accessing every value, e.g. by iterating the map, deserializes every value. Instances are not thread
+ * safe, as is the case for the scopes themselves.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see JavaSerializer#setLazyScopes(boolean)
+ */
+final class LazyValueMap extends AbstractMap<Object, Object> implements Serializable {
+
+    private static final long serialVersionUID = -5318453287066342817L;
+
+    /** Size of the first buffer allocated for a blob, which grows as bytes arrive. */
+    private static final int MAX_INITIAL_BLOB_SIZE = 65536;
+
+    /** Values and blobs by key. */
+    private transient Map<Object, Object> values;
+
+    /** Limits applied when deserializing blobs. */
+    private transient DeserializationLimits limits;
+
+
+    /**
+     * Creates a map with the same entries as the given map, whose values are serialized when the map is written.
+     *
+     * @param map Source map.
+     */
+    LazyValueMap(final Map<?, ?> map) {
+        this.values = new LinkedHashMap<Object, Object>(map);
+    }
+
+    /**
+     * Wraps the given attribute map in one backed by a lazy value map unless it already is.
+     *
+     * @param map Attribute map.
+     *
+     * @return Attribute map backed by a lazy value map.
+     */
+    static LocalAttributeMap wrap(final LocalAttributeMap map) {
+        final Map<?, ?> backing = CompactSerializer.attributes(map);
+        if (backing == null || backing instanceof LazyValueMap) {
+            return map;
+        }
+        return new LocalAttributeMap(new LazyValueMap(backing));
+    }
+
+    @Override
+    public Object get(final Object key) {
+        return resolve(key, this.values.get(key));
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return this.values.containsKey(key);
+    }
+
+    @Override
+    public Object put(final Object key, final Object value) {
+        return resolve(key, this.values.put(key, value));
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        return resolve(key, this.values.remove(key));
+    }
+
+    @Override
+    public int size() {
+        return this.values.size();
+    }
+
+    @Override
+    public void clear() {
+        this.values.clear();
+    }
+
+    @Override
+    public Set<Object> keySet() {
+        return this.values.keySet();
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        for (Map.Entry<Object, Object> entry : this.values.entrySet()) {
+            if (entry.getValue() instanceof Blob) {
+                entry.setValue(((Blob) entry.getValue()).deserialize(entry.getKey(), this.limits));
+            }
+        }
+        return this.values.entrySet();
+    }
+
+    /** Deserializes a blob and stores the value in its place if it is still current. */
+    private Object resolve(final Object key, final Object value) {
+        if (!(value instanceof Blob)) {
+            return value;
+        }
+        final Object resolved = ((Blob) value).deserialize(key, this.limits);
+        if (this.values.get(key) == value) {
+            this.values.put(key, resolved);
+        }
+        return resolved;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(this.values.size());
+        BufferOutputStream buffer = null;
+        for (Map.Entry<Object, Object> entry : this.values.entrySet()) {
+            out.writeObject(entry.getKey());
+            if (entry.getValue() instanceof Blob) {
+                final byte[] data = ((Blob) entry.getValue()).data;
+                out.writeInt(data.length);
+                out.write(data);
+            } else {
+                if (buffer == null) {
+                    buffer = new BufferOutputStream(1024);
+                } else {
+                    buffer.reset();
+                }
+                final ObjectOutputStream blob = new ScopeOutputStream(buffer);
+                blob.writeObject(entry.getValue());
+                blob.close();
+                out.writeInt(buffer.size());
+                out.write(buffer.getBuffer(), 0, buffer.size());
+            }
+        }
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.limits = in instanceof RestrictedObjectInputStream
+                ? ((RestrictedObjectInputStream) in).getLimits() : new DeserializationLimits();
+        final int size = in.readInt();
+        if (size < 0 || size > this.limits.getMaxArrayLength()) {
+            throw new InvalidObjectException("Invalid map size " + size);
+        }
+        this.values = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < size; i++) {
+            final Object key = in.readObject();
+            final int length = in.readInt();
+            if (length < 0) {
+                throw new InvalidObjectException("Invalid blob length " + length);
+            }
+            // Grow the buffer as data arrives so that a corrupt length cannot force a large allocation
+            byte[] data = new byte[Math.min(length, MAX_INITIAL_BLOB_SIZE)];
+            int n = 0;
+            while (n < length) {
+                if (n == data.length) {
+                    data = Arrays.copyOf(data, (int) Math.min(length, 2L * data.length));
+                }
+                in.readFully(data, n, data.length - n);
+                n = data.length;
+            }
+            this.values.put(key, new Blob(data));
+        }
+    }
+
+
+    /** Serialized value that has not been accessed. */
+    private static final class Blob {
+
+        private final byte[] data;
+
+        Blob(final byte[] data) {
+            this.data = data;
+        }
+
+        Object deserialize(final Object key, final DeserializationLimits limits) {
+            try {
+                return new RestrictedObjectInputStream(new ByteArrayInputStream(this.data), limits).readObject();
+            } catch (Exception e) {
+                throw new ClientFlowExecutionRepositoryException("Error decoding attribute " + key, e);
+            }
+        }
+    }
+
+
+    /**
+     * Object stream that writes every plain {@link LocalAttributeMap} as one backed by a lazy value map, which makes
+     * its values independent blobs in the stream.
+     */
+    static class ScopeOutputStream extends ObjectOutputStream {
+
+        /** Replacements by original so that repeated references to a map remain shared. */
+        private final Map<Object, Object> replacements = new IdentityHashMap<Object, Object>();
+
+        ScopeOutputStream(final OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(final Object o) {
+            if (o.getClass() != LocalAttributeMap.class) {
+                return o;
+            }
+            Object replacement = this.replacements.get(o);
+            if (replacement == null) {
+                replacement = wrap((LocalAttributeMap) o);
+                this.replacements.put(o, replacement);
+            }
+            return replacement;
+        }
+    }
+}
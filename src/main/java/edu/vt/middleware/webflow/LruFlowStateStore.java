@@ -0,0 +1,204 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory {@link FlowStateStore} that evicts least recently used entries once the total size of stored
+ * state exceeds a byte limit. Entries are held on the Java heap by default; in off-heap mode they are copied into
+ * direct buffers, which keeps large state out of the garbage-collected heap at the cost of a copy on each access.
+ * Hit, miss, and eviction counts are available for monitoring.
+ *
+ * @author Marvin S. Addison
+ */
+public class LruFlowStateStore implements FlowStateStore {
+
+    /** Default limit on the total size of stored state. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Guarded by this. Iterates from least to most recently used. */
+    private final Map<Key, Object> entries = new LinkedHashMap<Key, Object>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private boolean offHeap;
+
+    /** Guarded by this. */
+    private long bytes;
+
+
+    /**
+     * Sets the limit on the total size of stored state. Defaults to {@value #DEFAULT_MAX_BYTES} bytes.
+     *
+     * @param maxBytes Maximum number of bytes of stored state.
+     */
+    public void setMaxBytes(final long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Maximum bytes must be positive");
+        }
+        synchronized (this) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+    }
+
+    /**
+     * Determines whether state is stored in direct buffers outside the Java heap. Affects entries stored thereafter.
+     *
+     * @param offHeap True to store state off-heap, false to store it on the heap (default).
+     */
+    public void setOffHeap(final boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public boolean put(final byte[] hash, final byte[] data) {
+        if (data.length > this.maxBytes) {
+            return false;
+        }
+        final Object value;
+        if (this.offHeap) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data).flip();
+            value = buffer;
+        } else {
+            value = data.clone();
+        }
+        synchronized (this) {
+            final Object previous = this.entries.put(new Key(hash.clone()), value);
+            if (previous != null) {
+                this.bytes -= sizeOf(previous);
+            }
+            this.bytes += data.length;
+            evict();
+        }
+        return true;
+    }
+
+    public byte[] get(final byte[] hash) {
+        final Object value;
+        synchronized (this) {
+            value = this.entries.get(new Key(hash));
+        }
+        if (value == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        if (value instanceof ByteBuffer) {
+            final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            final byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return data;
+        }
+        return ((byte[]) value).clone();
+    }
+
+    /**
+     * @return Number of lookups that found stored state.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return Number of lookups that found no stored state.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return Number of entries discarded to stay within the byte limit.
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return Number of stored entries.
+     */
+    public synchronized int getSize() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return Total size of stored state in bytes.
+     */
+    public synchronized long getByteCount() {
+        return this.bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[size=%d, bytes=%d, hits=%d, misses=%d, evictions=%d]",
+                getClass().getSimpleName(),
+                getSize(),
+                getByteCount(),
+                getHitCount(),
+                getMissCount(),
+                getEvictionCount());
+    }
+
+    /** Removes least recently used entries until the byte limit is satisfied. Caller must hold the lock. */
+    private void evict() {
+        final Iterator<Object> values = this.entries.values().iterator();
+        while (this.bytes > this.maxBytes && values.hasNext()) {
+            this.bytes -= sizeOf(values.next());
+            values.remove();
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    private static int sizeOf(final Object value) {
+        return value instanceof ByteBuffer ? ((ByteBuffer) value).capacity() : ((byte[]) value).length;
+    }
+
+
+    /** Wraps a content hash to provide value semantics. */
+    private static final class Key {
+        private final byte[] hash;
+
+        private final int hashCode;
+
+        Key(final byte[] hash) {
+            this.hash = hash;
+            this.hashCode = Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && Arrays.equals(this.hash, ((Key) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+}
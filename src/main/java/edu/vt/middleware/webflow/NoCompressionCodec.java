@@ -0,0 +1,36 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+/**
+ * Codec that copies bytes unchanged. Useful for small payloads where compression would increase the size.
+ *
+ * @author Marvin S. Addison
+ */
+public class NoCompressionCodec implements CompressionCodec {
+
+    public int getId() {
+        return NONE;
+    }
+
+    public void compress(final byte[] input, final int offset, final int length, final BufferOutputStream output) {
+        output.write(input, offset, length);
+    }
+
+    public void decompress(final byte[] input, final int offset, final int length, final BufferOutputStream output) {
+        output.write(input, offset, length);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+/**
+ * Metrics implementation that discards all measurements. This is the default.
+ *
+ * @author Marvin S. Addison
+ */
+public class NoOpFlowStateMetrics implements FlowStateMetrics {
+
+    /** Shared instance. */
+    public static final NoOpFlowStateMetrics INSTANCE = new NoOpFlowStateMetrics();
+
+    public void recordPhase(final Phase phase, final String flowId, final long nanos) {}
+
+    public void recordSizes(
+            final String flowId, final int serializedBytes, final int compressedBytes, final int encodedBytes) {}
+
+    public void recordError(final ErrorCause cause) {}
+}
@@ -0,0 +1,201 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate codec that splits input into fixed-size chunks and compresses them independently, optionally in parallel on
+ * an {@link Executor}, which reduces the latency of compressing large flow state. As in pigz, each chunk is primed with
+ * the preceding 32K of input as a preset dictionary, so back-references across chunk boundaries remain possible and
+ * the compression ratio stays close to that of {@link DeflateCodec}. The payload is the sequence of raw deflate
+ * streams of the chunks; decompression inflates them one after another on the calling thread.
+ * <p>
+ * The output does not depend on whether or how an executor is used, and decoding does not depend on the chunk size,
+ * so both may be changed without invalidating previously encoded payloads.
+ *
+ * @author Marvin S. Addison
+ */
+public class ParallelDeflateCodec extends AbstractDeflateCodec {
+
+    /** Default number of input bytes per chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 16384;
+
+    /** Minimum number of input bytes per chunk. */
+    public static final int MIN_CHUNK_SIZE = 1024;
+
+    /** Size of the deflate window, which bounds the useful size of a preset dictionary. */
+    private static final int WINDOW_SIZE = 32768;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /** Compresses chunks other than the first; null to compress all chunks on the calling thread. */
+    private Executor executor;
+
+
+    public int getId() {
+        return PARALLEL_DEFLATE;
+    }
+
+    /**
+     * Sets the number of input bytes per chunk. Smaller chunks allow more parallelism at some cost in compression
+     * ratio. Defaults to {@value #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param chunkSize Number of input bytes per chunk, at least {@value #MIN_CHUNK_SIZE}.
+     */
+    public void setChunkSize(final int chunkSize) {
+        if (chunkSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at least " + MIN_CHUNK_SIZE);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Sets the executor that compresses chunks in parallel with the calling thread, which compresses the first chunk
+     * and then any chunk the executor has not started yet. A bounded pool shared by all requests is recommended, e.g.
+     * a {@link java.util.concurrent.ThreadPoolExecutor} with a bounded queue; chunks it rejects are compressed on the
+     * calling thread.
+     *
+     * @param executor Executor; null to compress all chunks on the calling thread (default).
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    public void compress(final byte[] input, final int offset, final int length, final BufferOutputStream output)
+            throws IOException {
+        final int size = this.chunkSize;
+        final int chunks = Math.max(1, (length + size - 1) / size);
+        if (chunks == 1 || this.executor == null) {
+            for (int i = 0; i < chunks; i++) {
+                compressChunk(input, offset, length, i * size, size, output);
+            }
+            return;
+        }
+        final List<FutureTask<BufferOutputStream>> tasks = new ArrayList<FutureTask<BufferOutputStream>>(chunks - 1);
+        try {
+            for (int i = 1; i < chunks; i++) {
+                final FutureTask<BufferOutputStream> task = new FutureTask<BufferOutputStream>(
+                        new Chunk(input, offset, length, i * size, size));
+                tasks.add(task);
+                try {
+                    this.executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+            compressChunk(input, offset, length, 0, size, output);
+            for (FutureTask<BufferOutputStream> task : tasks) {
+                // Has no effect if the executor has already started the task
+                task.run();
+                final BufferOutputStream chunk = task.get();
+                output.write(chunk.getBuffer(), 0, chunk.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing chunk", e.getCause());
+        } finally {
+            for (FutureTask<BufferOutputStream> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    public void decompress(final byte[] input, final int offset, final int length, final BufferOutputStream output)
+            throws IOException {
+        final Inflater inflater = borrowInflater();
+        try {
+            final int start = output.size();
+            final int end = offset + length;
+            int position = offset;
+            do {
+                inflater.reset();
+                if (output.size() > start) {
+                    final int dictionary = Math.max(start, output.size() - WINDOW_SIZE);
+                    inflater.setDictionary(output.getBuffer(), dictionary, output.size() - dictionary);
+                }
+                GzipFormat.inflate(input, position, end - position, inflater, output);
+                position = end - inflater.getRemaining();
+            } while (position < end);
+        } finally {
+            release(inflater);
+        }
+    }
+
+    /** Compresses the chunk of input starting at the given position, relative to the offset, into raw deflate data. */
+    private void compressChunk(
+            final byte[] input,
+            final int offset,
+            final int length,
+            final int position,
+            final int size,
+            final BufferOutputStream output) {
+        final Deflater deflater = borrowDeflater();
+        try {
+            if (position > 0) {
+                final int dictionary = Math.max(0, position - WINDOW_SIZE);
+                deflater.setDictionary(input, offset + dictionary, position - dictionary);
+            }
+            GzipFormat.deflate(input, offset + position, Math.min(size, length - position), deflater, output);
+        } finally {
+            release(deflater);
+        }
+    }
+
+
+    /** Compresses a chunk other than the first into its own buffer. */
+    private final class Chunk implements Callable<BufferOutputStream> {
+        private final byte[] input;
+
+        private final int offset;
+
+        private final int length;
+
+        private final int position;
+
+        private final int size;
+
+        Chunk(final byte[] input, final int offset, final int length, final int position, final int size) {
+            this.input = input;
+            this.offset = offset;
+            this.length = length;
+            this.position = position;
+            this.size = size;
+        }
+
+        public BufferOutputStream call() {
+            final BufferOutputStream output = new BufferOutputStream(this.size >>> 1);
+            compressChunk(this.input, this.offset, this.length, this.position, this.size, output);
+            return output;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cryptacular.generator.LimitException;
+import org.cryptacular.generator.Nonce;
+
+/**
+ * GCM nonce generator that scales across cores. Each thread owns a random prefix and a counter, and each nonce is the
+ * prefix followed by the next counter value:
+ * <pre>
+ * [8-byte random prefix][4-byte counter]
+ * </pre>
+ * This is the deterministic construction of NIST SP 800-38D section 8.2.1 with a random fixed field, so nonces are
+ * unique for the key as GCM requires, provided that prefixes do not collide, which is negligible for 64-bit prefixes
+ * across any realistic number of threads and nodes sharing a key. A thread draws a new prefix once its counter is
+ * exhausted.
+ * <p>
+ * Generating a nonce touches only thread-local state, except when a thread needs a new prefix. Prefixes are drawn
+ * from a {@link SecureRandom} in batches of {@value #BATCH_SIZE}, the first of them on construction, so the random
+ * generator is consulted at startup and then rarely, rather than on every encryption. Taking a prefix from the current
+ * batch is lock-free. Once half of the current batch has been assigned, a background thread draws a standby batch,
+ * which replaces the current one when it is exhausted, so the random generator stays off request threads. Only if the
+ * standby batch is not ready yet does the thread that exhausted the batch draw the next one itself, still without
+ * blocking other threads.
+ * <p>
+ * Counter nonces are predictable and MUST NOT be used as CBC initialization vectors.
+ *
+ * @author Marvin S. Addison
+ */
+public class PerThreadCounterNonce implements Nonce {
+
+    /** Nonce length in bytes. */
+    public static final int LENGTH = 12;
+
+    /** Number of prefixes drawn from the random generator at once. */
+    public static final int BATCH_SIZE = 64;
+
+    /** Prefix length in bytes. */
+    private static final int PREFIX_LENGTH = 8;
+
+    /** Number of nonces generated per prefix. */
+    private static final long COUNTER_LIMIT = 1L << 32;
+
+    private final SecureRandom random;
+
+    /** Batch from which prefixes are currently assigned to threads. */
+    private final AtomicReference<Batch> batch;
+
+    /** Batch drawn in the background to replace the current one; null until ready. */
+    private final AtomicReference<Batch> standby = new AtomicReference<Batch>();
+
+    /** Draws standby batches; its single thread exits when idle. */
+    private final ExecutorService refiller = new ThreadPoolExecutor(
+            0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, PerThreadCounterNonce.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+
+    /** Creates a nonce generator that draws prefixes from a default {@link SecureRandom}. */
+    public PerThreadCounterNonce() {
+        this(new SecureRandom());
+    }
+
+    /**
+     * Creates a nonce generator that draws prefixes from the given random generator.
+     *
+     * @param random Source of prefixes.
+     */
+    PerThreadCounterNonce(final SecureRandom random) {
+        this.random = random;
+        this.batch = new AtomicReference<Batch>(newBatch());
+    }
+
+    public byte[] generate() throws LimitException {
+        final State s = this.state.get();
+        if (s.counter == COUNTER_LIMIT) {
+            nextPrefix(s.nonce);
+            s.counter = 0;
+        }
+        final byte[] nonce = s.nonce;
+        final int c = (int) s.counter++;
+        nonce[PREFIX_LENGTH] = (byte) (c >>> 24);
+        nonce[PREFIX_LENGTH + 1] = (byte) (c >>> 16);
+        nonce[PREFIX_LENGTH + 2] = (byte) (c >>> 8);
+        nonce[PREFIX_LENGTH + 3] = (byte) c;
+        return nonce.clone();
+    }
+
+    public int getLength() {
+        return LENGTH;
+    }
+
+    /**
+     * @return True if a standby batch is ready to replace the current one.
+     */
+    boolean hasStandby() {
+        return this.standby.get() != null;
+    }
+
+    /** Copies an unused prefix into the leading bytes of the given nonce, switching to a new batch if needed. */
+    private void nextPrefix(final byte[] nonce) {
+        final Batch current = this.batch.get();
+        final int index = current.next.getAndIncrement();
+        if (index < BATCH_SIZE) {
+            if (index == BATCH_SIZE / 2) {
+                this.refiller.execute(new Runnable() {
+                    public void run() {
+                        if (standby.get() == null) {
+                            standby.compareAndSet(null, newBatch());
+                        }
+                    }
+                });
+            }
+            System.arraycopy(current.prefixes, index * PREFIX_LENGTH, nonce, 0, PREFIX_LENGTH);
+            return;
+        }
+        Batch next = this.standby.getAndSet(null);
+        if (next == null) {
+            next = newBatch();
+        }
+        // The first prefix of the next batch is private to this thread whether or not it wins the race to publish
+        next.next.set(1);
+        System.arraycopy(next.prefixes, 0, nonce, 0, PREFIX_LENGTH);
+        this.batch.compareAndSet(current, next);
+    }
+
+    private Batch newBatch() {
+        final Batch b = new Batch();
+        this.random.nextBytes(b.prefixes);
+        return b;
+    }
+
+
+    /** Prefixes drawn together from the random generator. */
+    private static class Batch {
+        final byte[] prefixes = new byte[BATCH_SIZE * PREFIX_LENGTH];
+
+        /** Index of the next unassigned prefix; exceeds the batch size once all are assigned. */
+        final AtomicInteger next = new AtomicInteger();
+    }
+
+
+    /** Nonce state of a thread. */
+    private static class State {
+        /** Current prefix followed by the last counter value. */
+        final byte[] nonce = new byte[LENGTH];
+
+        /** Number of nonces generated with the current prefix; the limit forces a prefix on first use. */
+        long counter = COUNTER_LIMIT;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of serialized plaintext keyed by a SHA-256 digest of the encoded bytes it was decoded from. Allows
+ * {@link EncryptedTranscoder} to skip decryption and decompression when the same flow execution key is submitted
+ * repeatedly, e.g. on back button use, double submits, or Ajax requests. Since the serialized form is cached rather
+ * than the decoded object, every decode yields an independent copy of the state.
+ * <p>
+ * The cache is divided into independently locked segments to reduce contention. Entries are evicted in least recently
+ * used order once a segment exceeds its share of the byte limit, and expire a fixed time after they are stored.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see EncryptedTranscoder#setPlaintextCache(PlaintextCache)
+ */
+public class PlaintextCache {
+
+    /** Default limit on the total size of cached plaintext. */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /** Default time to live of cached entries in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    private volatile long segmentMaxBytes = DEFAULT_MAX_BYTES / SEGMENT_COUNT;
+
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+
+    public PlaintextCache() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Sets the limit on the total size of cached plaintext. Defaults to {@value #DEFAULT_MAX_BYTES} bytes.
+     *
+     * @param maxBytes Maximum number of bytes of cached plaintext.
+     */
+    public void setMaxBytes(final long maxBytes) {
+        if (maxBytes < SEGMENT_COUNT) {
+            throw new IllegalArgumentException("Maximum bytes must be at least " + SEGMENT_COUNT);
+        }
+        this.segmentMaxBytes = maxBytes / SEGMENT_COUNT;
+    }
+
+    /**
+     * Sets the time after which a cached entry expires. Defaults to {@value #DEFAULT_TIME_TO_LIVE} milliseconds.
+     *
+     * @param millis Time to live in milliseconds.
+     */
+    public void setTimeToLive(final long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        this.timeToLive = millis;
+    }
+
+    /**
+     * Gets the plaintext previously decoded from the given bytes.
+     *
+     * @param encoded Encoded bytes.
+     *
+     * @return Plaintext, which the caller MUST NOT modify, or null if none is cached.
+     */
+    public byte[] get(final byte[] encoded) {
+        final Key key = new Key(sha256(encoded));
+        final byte[] plaintext = segmentFor(key).get(key, System.currentTimeMillis());
+        if (plaintext == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return plaintext;
+    }
+
+    /**
+     * Caches the plaintext decoded from the given bytes.
+     *
+     * @param encoded Encoded bytes.
+     * @param plaintext Plaintext, which the caller MUST NOT modify thereafter.
+     */
+    public void put(final byte[] encoded, final byte[] plaintext) {
+        final Key key = new Key(sha256(encoded));
+        segmentFor(key).put(key, plaintext, System.currentTimeMillis() + this.timeToLive);
+    }
+
+    /**
+     * @return Number of lookups that found cached plaintext.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return Number of lookups that found no cached plaintext, including those that found an expired entry.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return Fraction of lookups that found cached plaintext, or zero if there have been no lookups.
+     */
+    public double getHitRate() {
+        final long hits = getHitCount();
+        final long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return Number of entries discarded to stay within the byte limit.
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return Number of entries discarded because their time to live elapsed.
+     */
+    public long getExpirationCount() {
+        return this.expirations.get();
+    }
+
+    /**
+     * @return Number of cached entries.
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return Total size of cached plaintext in bytes.
+     */
+    public long getByteCount() {
+        long bytes = 0;
+        for (Segment segment : this.segments) {
+            bytes += segment.byteCount();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[size=%d, bytes=%d, hitRate=%.3f, evictions=%d, expirations=%d]",
+                getClass().getSimpleName(),
+                getSize(),
+                getByteCount(),
+                getHitRate(),
+                getEvictionCount(),
+                getExpirationCount());
+    }
+
+    private Segment segmentFor(final Key key) {
+        return this.segments[key.hashCode & (SEGMENT_COUNT - 1)];
+    }
+
+    private static byte[] sha256(final byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+
+    /** Independently locked portion of the cache. */
+    private final class Segment {
+        /** Iterates from least to most recently used. */
+        private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+        private long bytes;
+
+        synchronized byte[] get(final Key key, final long now) {
+            final Entry entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires <= now) {
+                this.entries.remove(key);
+                this.bytes -= entry.plaintext.length;
+                expirations.incrementAndGet();
+                return null;
+            }
+            return entry.plaintext;
+        }
+
+        synchronized void put(final Key key, final byte[] plaintext, final long expires) {
+            final long maxBytes = segmentMaxBytes;
+            if (plaintext.length > maxBytes) {
+                return;
+            }
+            final Entry previous = this.entries.put(key, new Entry(plaintext, expires));
+            if (previous != null) {
+                this.bytes -= previous.plaintext.length;
+            }
+            this.bytes += plaintext.length;
+            final Iterator<Entry> values = this.entries.values().iterator();
+            while (this.bytes > maxBytes && values.hasNext()) {
+                this.bytes -= values.next().plaintext.length;
+                values.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        synchronized int size() {
+            return this.entries.size();
+        }
+
+        synchronized long byteCount() {
+            return this.bytes;
+        }
+    }
+
+
+    /** Cached plaintext and its expiration time. */
+    private static final class Entry {
+        final byte[] plaintext;
+
+        final long expires;
+
+        Entry(final byte[] plaintext, final long expires) {
+            this.plaintext = plaintext;
+            this.expires = expires;
+        }
+    }
+
+
+    /** Wraps a digest to provide value semantics. */
+    private static final class Key {
+        private final byte[] digest;
+
+        private final int hashCode;
+
+        Key(final byte[] digest) {
+            this.digest = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && Arrays.equals(this.digest, ((Key) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records identifiers of consumed flow execution keys so that {@link ClientFlowExecutionRepository} can reject a
+ * replayed key before its state is decoded. Ids are held in a sliding window of Bloom filters of fixed size, one per
+ * interval of the window, so memory use is bounded and no external store is needed. Once the oldest interval leaves
+ * the window its filter is cleared and reused, after which the ids it held are no longer recognized.
+ * <p>
+ * Recording and lookup are lock-free. Being a Bloom filter, the guard may report a key that has not been consumed as
+ * consumed with the configured false positive rate, provided no more than the expected number of keys are consumed
+ * per window; it never fails to recognize a consumed key within the window, save for keys consumed while the window
+ * advances after a period of inactivity. The filter is sized by the expected number of keys and the false positive
+ * rate, and its memory can be capped, in which case the false positive rate rises accordingly. Configure the guard
+ * before use; changing its configuration discards recorded ids.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see ClientFlowExecutionRepository#setReplayGuard(ReplayGuard)
+ */
+public class ReplayGuard {
+
+    /** Default time in milliseconds for which consumed keys are recognized. */
+    public static final long DEFAULT_WINDOW = 3600000;
+
+    /** Default number of keys expected to be consumed per window. */
+    public static final int DEFAULT_EXPECTED_KEYS = 1000000;
+
+    /** Default rate of keys falsely reported as consumed. */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    /** Number of filters; one more than the number of intervals in the window, which is cleared ahead of use. */
+    private static final int FILTER_COUNT = 8;
+
+    private static final int INTERVALS = FILTER_COUNT - 1;
+
+    private static final int MAX_HASH_COUNT = 32;
+
+    private final long seed0;
+
+    private final long seed1;
+
+    /** Number of the current interval, counting from zero when the filters are created. */
+    private final AtomicLong interval = new AtomicLong();
+
+    private long window = DEFAULT_WINDOW;
+
+    private int expectedKeys = DEFAULT_EXPECTED_KEYS;
+
+    private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+
+    private long maxMemory = Long.MAX_VALUE;
+
+    private volatile Filters filters;
+
+
+    public ReplayGuard() {
+        final Random random = new SecureRandom();
+        this.seed0 = random.nextLong();
+        this.seed1 = random.nextLong();
+        resize();
+    }
+
+    /**
+     * Sets the time for which consumed keys are recognized. Defaults to {@value #DEFAULT_WINDOW} milliseconds.
+     *
+     * @param window Window in milliseconds.
+     */
+    public void setWindow(final long window) {
+        if (window < INTERVALS) {
+            throw new IllegalArgumentException("Window must be at least " + INTERVALS + " milliseconds");
+        }
+        this.window = window;
+        resize();
+    }
+
+    /**
+     * Sets the number of keys expected to be consumed per window. Defaults to {@value #DEFAULT_EXPECTED_KEYS}.
+     *
+     * @param expectedKeys Expected number of keys.
+     */
+    public void setExpectedKeys(final int expectedKeys) {
+        if (expectedKeys <= 0) {
+            throw new IllegalArgumentException("Expected keys must be positive");
+        }
+        this.expectedKeys = expectedKeys;
+        resize();
+    }
+
+    /**
+     * Sets the rate at which keys that have not been consumed are reported as consumed when the expected number of
+     * keys is consumed per window. Defaults to {@value #DEFAULT_FALSE_POSITIVE_RATE}.
+     *
+     * @param rate False positive rate in the range (0, 1).
+     */
+    public void setFalsePositiveRate(final double rate) {
+        if (rate <= 0 || rate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        this.falsePositiveRate = rate;
+        resize();
+    }
+
+    /**
+     * Sets the maximum memory used by the filters. Unlimited by default, in which case memory is determined by the
+     * expected number of keys and the false positive rate.
+     *
+     * @param maxMemory Maximum memory in bytes.
+     */
+    public void setMaxMemory(final long maxMemory) {
+        if (maxMemory < FILTER_COUNT * 8) {
+            throw new IllegalArgumentException("Maximum memory must be at least " + FILTER_COUNT * 8 + " bytes");
+        }
+        this.maxMemory = maxMemory;
+        resize();
+    }
+
+    /**
+     * @return Memory used by the filters in bytes.
+     */
+    public long getMemorySize() {
+        return (long) FILTER_COUNT * this.filters.words * 8;
+    }
+
+    /**
+     * @return Number of hash functions applied to each id.
+     */
+    public int getHashCount() {
+        return this.filters.hashCount;
+    }
+
+    /**
+     * Records a key id as consumed.
+     *
+     * @param id Key id.
+     */
+    public void consume(final UUID id) {
+        consume(id, System.nanoTime());
+    }
+
+    /**
+     * Determines whether a key id was recorded as consumed within the window.
+     *
+     * @param id Key id.
+     *
+     * @return True if the id was consumed or is a false positive, false otherwise.
+     */
+    public boolean isConsumed(final UUID id) {
+        return isConsumed(id, System.nanoTime());
+    }
+
+    void consume(final UUID id, final long nanos) {
+        final Filters f = this.filters;
+        final long current = advance(f, nanos);
+        final int base = (int) (current % FILTER_COUNT) * f.words;
+        final long h0 = hash(id.getMostSignificantBits() ^ this.seed0);
+        final long h1 = hash(id.getLeastSignificantBits() ^ this.seed1) | 1;
+        for (int i = 0; i < f.hashCount; i++) {
+            final long bit = ((h0 + i * h1) & Long.MAX_VALUE) % f.bits;
+            final int index = base + (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long word;
+            while (((word = f.cells.get(index)) & mask) == 0 && !f.cells.compareAndSet(index, word, word | mask)) {
+                continue;
+            }
+        }
+    }
+
+    boolean isConsumed(final UUID id, final long nanos) {
+        final Filters f = this.filters;
+        final long current = advance(f, nanos);
+        final long h0 = hash(id.getMostSignificantBits() ^ this.seed0);
+        final long h1 = hash(id.getLeastSignificantBits() ^ this.seed1) | 1;
+        for (int n = 0; n < INTERVALS && n <= current; n++) {
+            final int base = (int) ((current - n) % FILTER_COUNT) * f.words;
+            boolean found = true;
+            for (int i = 0; i < f.hashCount && found; i++) {
+                final long bit = ((h0 + i * h1) & Long.MAX_VALUE) % f.bits;
+                found = (f.cells.get(base + (int) (bit >>> 6)) & (1L << bit)) != 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Moves the window to the interval of the given time and returns that interval. */
+    private long advance(final Filters f, final long nanos) {
+        final long current = Math.max(0, (nanos - f.origin) / f.intervalNanos);
+        long previous;
+        while ((previous = this.interval.get()) < current) {
+            if (this.interval.compareAndSet(previous, current)) {
+                // Clear the filter that follows each interval entered so it is empty when that interval begins.
+                // Filters of skipped intervals are cleared too, up to all of them after a long period of inactivity.
+                for (long i = Math.max(previous, current - FILTER_COUNT) + 1; i <= current; i++) {
+                    final int base = (int) ((i + 1) % FILTER_COUNT) * f.words;
+                    for (int w = 0; w < f.words; w++) {
+                        f.cells.set(base + w, 0);
+                    }
+                }
+                break;
+            }
+        }
+        return current;
+    }
+
+    private void resize() {
+        final int perInterval = Math.max(1, this.expectedKeys / INTERVALS);
+        final double rate = this.falsePositiveRate / INTERVALS;
+        final double ln2 = Math.log(2);
+        final long bits = (long) Math.ceil(-perInterval * Math.log(rate) / (ln2 * ln2));
+        final long maxWords = Math.min(Integer.MAX_VALUE / FILTER_COUNT, this.maxMemory / FILTER_COUNT / 8);
+        final int words = (int) Math.min(maxWords, Math.max(1, (bits + 63) >>> 6));
+        final int hashCount = (int) Math.max(1, Math.round((double) words * 64 / perInterval * ln2));
+        this.interval.set(0);
+        this.filters = new Filters(
+                words, Math.min(hashCount, MAX_HASH_COUNT), TimeUnit.MILLISECONDS.toNanos(this.window) / INTERVALS);
+    }
+
+    /** Finalization step of MurmurHash3, which spreads the bits of the input over the output. */
+    private static long hash(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    /** Filters of a configuration, replaced as a whole when the configuration changes. */
+    private static final class Filters {
+
+        /** Words in each filter. */
+        final int words;
+
+        /** Bits in each filter. */
+        final long bits;
+
+        final int hashCount;
+
+        final long intervalNanos;
+
+        /** Time from which intervals are numbered. */
+        final long origin = System.nanoTime();
+
+        final AtomicLongArray cells;
+
+        Filters(final int words, final int hashCount, final long intervalNanos) {
+            this.words = words;
+            this.bits = (long) words * 64;
+            this.hashCount = hashCount;
+            this.intervalNanos = intervalNanos;
+            this.cells = new AtomicLongArray(words * FILTER_COUNT);
+        }
+    }
+}
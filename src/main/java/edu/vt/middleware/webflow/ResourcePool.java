@@ -0,0 +1,74 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded, non-blocking pool of reusable resources. Borrowing from an empty pool creates a new resource and releasing
+ * to a full pool destroys the resource, so callers never wait on the pool.
+ *
+ * @author Marvin S. Addison
+ */
+abstract class ResourcePool<T> {
+
+    private final BlockingQueue<T> pool;
+
+
+    public ResourcePool(final int capacity) {
+        this.pool = new ArrayBlockingQueue<T>(capacity);
+    }
+
+    public T borrow() {
+        final T resource = this.pool.poll();
+        if (resource != null) {
+            return resource;
+        }
+        return create();
+    }
+
+    public void release(final T resource) {
+        if (!recycle(resource) || !this.pool.offer(resource)) {
+            destroy(resource);
+        }
+    }
+
+    /**
+     * Creates a new resource when none is available in the pool.
+     *
+     * @return New resource.
+     */
+    protected abstract T create();
+
+    /**
+     * Prepares a resource for reuse prior to returning it to the pool.
+     *
+     * @param resource Resource being released.
+     *
+     * @return True if the resource may be returned to the pool, false if it should be destroyed.
+     */
+    protected boolean recycle(final T resource) {
+        return true;
+    }
+
+    /**
+     * Releases any system resources held by a resource that is not returned to the pool.
+     *
+     * @param resource Resource to destroy.
+     */
+    protected void destroy(final T resource) {}
+}
@@ -0,0 +1,216 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Object input stream that enforces {@link DeserializationLimits}. The class allow-list is checked on class and proxy
+ * resolution. Depth, reference and array length limits are enforced by a serialization filter installed through
+ * reflection, since the filter API is not available on every supported platform; where it is missing those limits
+ * are not enforced for Java serialization streams. The filter defers to the filter the stream was created with, i.e.
+ * the JVM-wide filter set with the <code>jdk.serialFilter</code> property, for input within the limits, so that an
+ * operator's filter continues to apply. Resolved classes are cached in {@link ClassCache}.
+ *
+ * @author Marvin S. Addison
+ */
+class RestrictedObjectInputStream extends ObjectInputStream {
+
+    /** Filter interface, java.io.ObjectInputFilter on Java 9+ or sun.misc.ObjectInputFilter on Java 8u121+. */
+    private static final Class<?> FILTER_TYPE;
+
+    /**
+     * ObjectInputStream#setObjectInputFilter(ObjectInputFilter) on Java 9+, or the static
+     * ObjectInputFilter.Config#setObjectInputFilter(ObjectInputStream, ObjectInputFilter) on Java 8.
+     */
+    private static final Method SET_FILTER;
+
+    /**
+     * ObjectInputStream#getObjectInputFilter() on Java 9+, or the static
+     * ObjectInputFilter.Config#getObjectInputFilter(ObjectInputStream) on Java 8.
+     */
+    private static final Method GET_FILTER;
+
+    private static final Method CHECK_INPUT;
+
+    private static final Method ARRAY_LENGTH;
+
+    private static final Method DEPTH;
+
+    private static final Method REFERENCES;
+
+    private static final Object UNDECIDED;
+
+    private static final Object REJECTED;
+
+    static {
+        Class<?> filterType = null;
+        Method setFilter = null;
+        Method getFilter = null;
+        Method checkInput = null;
+        Method arrayLength = null;
+        Method depth = null;
+        Method references = null;
+        Object undecided = null;
+        Object rejected = null;
+        for (String name : new String[] {"java.io.ObjectInputFilter", "sun.misc.ObjectInputFilter"}) {
+            try {
+                final Class<?> type = Class.forName(name);
+                final Class<?> info = Class.forName(name + "$FilterInfo");
+                final Class<?> status = Class.forName(name + "$Status");
+                if (type.getName().startsWith("java.")) {
+                    setFilter = ObjectInputStream.class.getMethod("setObjectInputFilter", type);
+                    getFilter = ObjectInputStream.class.getMethod("getObjectInputFilter");
+                } else {
+                    final Class<?> config = Class.forName(name + "$Config");
+                    setFilter = config.getMethod("setObjectInputFilter", ObjectInputStream.class, type);
+                    getFilter = config.getMethod("getObjectInputFilter", ObjectInputStream.class);
+                }
+                checkInput = type.getMethod("checkInput", info);
+                arrayLength = info.getMethod("arrayLength");
+                depth = info.getMethod("depth");
+                references = info.getMethod("references");
+                undecided = status.getField("UNDECIDED").get(null);
+                rejected = status.getField("REJECTED").get(null);
+                filterType = type;
+                break;
+            } catch (Exception e) {
+                // Try the next candidate; limits other than the allow-list are unenforced if none is available
+            }
+        }
+        FILTER_TYPE = filterType;
+        SET_FILTER = setFilter;
+        GET_FILTER = getFilter;
+        CHECK_INPUT = checkInput;
+        ARRAY_LENGTH = arrayLength;
+        DEPTH = depth;
+        REFERENCES = references;
+        UNDECIDED = undecided;
+        REJECTED = rejected;
+    }
+
+    /**
+     * Loader the default class resolution uses, i.e. that of the nearest caller on the stack with a class loader,
+     * which is this class once {@link #resolveClass(ObjectStreamClass)} is overridden.
+     */
+    private static final ClassLoader LOADER = RestrictedObjectInputStream.class.getClassLoader();
+
+    private final DeserializationLimits limits;
+
+
+    RestrictedObjectInputStream(final InputStream in, final DeserializationLimits limits) throws IOException {
+        super(in);
+        this.limits = limits;
+        if (FILTER_TYPE != null) {
+            try {
+                final boolean instanceMethods = SET_FILTER.getParameterTypes().length == 1;
+                final Object current = instanceMethods ? GET_FILTER.invoke(this) : GET_FILTER.invoke(null, this);
+                final Object filter = Proxy.newProxyInstance(
+                        FILTER_TYPE.getClassLoader(), new Class<?>[] {FILTER_TYPE}, new LimitsFilter(limits, current));
+                if (instanceMethods) {
+                    SET_FILTER.invoke(this, filter);
+                } else {
+                    SET_FILTER.invoke(null, this, filter);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot install serialization filter", e);
+            }
+        }
+    }
+
+    /**
+     * @return Limits applied to this stream.
+     */
+    DeserializationLimits getLimits() {
+        return this.limits;
+    }
+
+    /**
+     * @return True if depth, reference and array length limits are enforced for Java serialization streams.
+     */
+    static boolean isFilterSupported() {
+        return FILTER_TYPE != null;
+    }
+
+    @Override
+    protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        final String name = desc.getName();
+        this.limits.checkClass(name);
+        final ClassCache cache = ClassCache.getInstance();
+        Class<?> type = cache.get(name, LOADER);
+        if (type == null) {
+            type = super.resolveClass(desc);
+            cache.put(name, LOADER, type);
+        }
+        return type;
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(final String[] interfaces) throws IOException, ClassNotFoundException {
+        for (String name : interfaces) {
+            this.limits.checkClass(name);
+        }
+        return super.resolveProxyClass(interfaces);
+    }
+
+
+    /**
+     * Implements the filter interface by rejecting input that exceeds the numeric limits and otherwise returning the
+     * verdict of the filter it replaces, if any.
+     */
+    private static class LimitsFilter implements InvocationHandler {
+
+        private final DeserializationLimits limits;
+
+        /** Filter the stream had before this one was installed; may be null. */
+        private final Object next;
+
+
+        LimitsFilter(final DeserializationLimits limits, final Object next) {
+            this.limits = limits;
+            this.next = next;
+        }
+
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (CHECK_INPUT.equals(method)) {
+                final Object info = args[0];
+                if ((Long) DEPTH.invoke(info) > this.limits.getMaxDepth()
+                        || (Long) REFERENCES.invoke(info) > this.limits.getMaxReferences()
+                        || (Long) ARRAY_LENGTH.invoke(info) > this.limits.getMaxArrayLength()) {
+                    return REJECTED;
+                }
+                return this.next != null ? CHECK_INPUT.invoke(this.next, info) : UNDECIDED;
+            }
+            if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(method.getName())) {
+                return "LimitsFilter";
+            }
+            // Default methods of the filter interface, e.g. those that combine filters, are not used
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
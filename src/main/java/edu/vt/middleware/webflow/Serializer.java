@@ -0,0 +1,54 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+
+/**
+ * Strategy pattern interface for converting an object graph into bytes and back. {@link EncryptedTranscoder} uses a
+ * serializer to produce the plaintext that is subsequently compressed and encrypted. Implementations MUST be thread
+ * safe.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see EncryptedTranscoder#setSerializer(Serializer)
+ */
+public interface Serializer {
+
+    /**
+     * Serializes an object.
+     *
+     * @param o Object to serialize.
+     * @param output Receives serialized bytes, which are appended to any existing content.
+     *
+     * @throws IOException On serialization errors.
+     */
+    void serialize(Object o, BufferOutputStream output) throws IOException;
+
+
+    /**
+     * Deserializes bytes produced by {@link #serialize(Object, BufferOutputStream)}.
+     *
+     * @param input Serialized bytes.
+     * @param offset Offset of first byte in input.
+     * @param length Number of input bytes.
+     *
+     * @return Deserialized object.
+     *
+     * @throws IOException On malformed input or when a class cannot be resolved.
+     */
+    Object deserialize(byte[] input, int offset, int length) throws IOException;
+}
@@ -0,0 +1,70 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+
+/**
+ * Transcoder that exposes serialization as a separate step, which allows callers to inspect or compare the serialized
+ * form of an object before paying for the remainder of the encoding process, e.g. compression and encryption.
+ * For any object <code>o</code>, <code>encodeSerialized(o, serialize(o))</code> MUST be equivalent to
+ * <code>encode(o)</code>, and <code>deserialize(serialize(o))</code> MUST be equivalent to
+ * <code>decode(encode(o))</code>.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see ClientFlowExecutionRepository#getKey(org.springframework.webflow.execution.FlowExecution)
+ */
+public interface SerializingTranscoder extends Transcoder {
+
+    /**
+     * Serializes an object into the form consumed by {@link #encodeSerialized(Object, byte[])}.
+     *
+     * @param o Object to serialize.
+     *
+     * @return Serialized bytes.
+     *
+     * @throws IOException On serialization errors.
+     */
+    byte[] serialize(Object o) throws IOException;
+
+
+    /**
+     * Encodes bytes produced by {@link #serialize(Object)}.
+     *
+     * @param o Object from which the serialized bytes were produced. It is not serialized again, but it may inform
+     * how the bytes are encoded, e.g. per-flow compression settings, and how the work is attributed in metrics.
+     * @param serialized Serialized bytes.
+     *
+     * @return Encoded bytes that {@link #decode(byte[])} turns back into the serialized object.
+     *
+     * @throws IOException On encoding errors.
+     */
+    byte[] encodeSerialized(Object o, byte[] serialized) throws IOException;
+
+
+    /**
+     * Deserializes bytes produced by {@link #serialize(Object)}, which allows callers that reconstruct serialized
+     * bytes by other means to skip the remainder of the decoding process.
+     *
+     * @param serialized Serialized bytes.
+     *
+     * @return Deserialized object.
+     *
+     * @throws IOException On deserialization errors.
+     */
+    Object deserialize(byte[] serialized) throws IOException;
+}
@@ -0,0 +1,257 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory window of recent serialized flow execution snapshots, which serve as bases for the deltas carried
+ * in flow execution keys. Snapshots are grouped by conversation, i.e. the succession of snapshots of one flow
+ * execution; each conversation retains at most the configured number of its most recent snapshots, and least recently
+ * used conversations are evicted as a whole once the total size of retained snapshots exceeds a byte limit.
+ * <p>
+ * Snapshots are held unencrypted on the Java heap, so the history carries the same exposure as state held in the HTTP
+ * session. It is local to the node, so a cluster requires session affinity for keys that reference it.
+ *
+ * @author Marvin S. Addison
+ *
+ * @see ClientFlowExecutionRepository#setSnapshotHistory(SnapshotHistory)
+ */
+public class SnapshotHistory {
+
+    /** Default number of snapshots retained per conversation. */
+    public static final int DEFAULT_WINDOW_SIZE = 5;
+
+    /** Default limit on the total size of retained snapshots. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Guarded by this. Iterates from least to most recently used. */
+    private final Map<UUID, ArrayDeque<UUID>> conversations =
+            new LinkedHashMap<UUID, ArrayDeque<UUID>>(16, 0.75f, true);
+
+    /** Guarded by this. */
+    private final Map<UUID, Entry> snapshots = new HashMap<UUID, Entry>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    /** Guarded by this. */
+    private long bytes;
+
+
+    /**
+     * Sets the number of most recent snapshots retained per conversation, which bounds how far back the browser's back
+     * button can go using keys that carry a delta. Defaults to {@value #DEFAULT_WINDOW_SIZE}. Affects snapshots
+     * retained thereafter.
+     *
+     * @param windowSize Number of snapshots per conversation.
+     */
+    public void setWindowSize(final int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Sets the limit on the total size of retained snapshots. Defaults to {@value #DEFAULT_MAX_BYTES} bytes.
+     *
+     * @param maxBytes Maximum number of bytes of retained snapshots.
+     */
+    public void setMaxBytes(final long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Maximum bytes must be positive");
+        }
+        synchronized (this) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * Retains a snapshot as the most recent one of its conversation. A snapshot that is already retained is left as is.
+     * The snapshot is not copied, so the caller must not modify it afterwards.
+     *
+     * @param conversation Conversation id.
+     * @param id Snapshot id.
+     * @param snapshot Serialized flow execution state.
+     */
+    synchronized void put(final UUID conversation, final UUID id, final byte[] snapshot) {
+        if (snapshot.length > this.maxBytes || this.snapshots.containsKey(id)) {
+            return;
+        }
+        ArrayDeque<UUID> ids = this.conversations.get(conversation);
+        if (ids == null) {
+            ids = new ArrayDeque<UUID>();
+            this.conversations.put(conversation, ids);
+        }
+        ids.addLast(id);
+        this.snapshots.put(id, new Entry(conversation, snapshot));
+        this.bytes += snapshot.length;
+        while (ids.size() > this.windowSize) {
+            this.bytes -= this.snapshots.remove(ids.removeFirst()).snapshot.length;
+            this.evictions.incrementAndGet();
+        }
+        evict();
+    }
+
+    /**
+     * Gets a retained snapshot and marks its conversation as recently used.
+     *
+     * @param id Snapshot id.
+     *
+     * @return Snapshot and its conversation or null if the snapshot is not retained.
+     */
+    Entry get(final UUID id) {
+        final Entry entry;
+        synchronized (this) {
+            entry = this.snapshots.get(id);
+            if (entry != null) {
+                this.conversations.get(entry.conversation);
+            }
+        }
+        (entry != null ? this.hits : this.misses).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Discards a snapshot.
+     *
+     * @param id Snapshot id.
+     */
+    synchronized void remove(final UUID id) {
+        final Entry entry = this.snapshots.remove(id);
+        if (entry != null) {
+            this.bytes -= entry.snapshot.length;
+            final ArrayDeque<UUID> ids = this.conversations.get(entry.conversation);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                this.conversations.remove(entry.conversation);
+            }
+        }
+    }
+
+    /**
+     * Discards all snapshots of a conversation.
+     *
+     * @param conversation Conversation id.
+     */
+    synchronized void removeConversation(final UUID conversation) {
+        final ArrayDeque<UUID> ids = this.conversations.remove(conversation);
+        if (ids != null) {
+            for (UUID id : ids) {
+                this.bytes -= this.snapshots.remove(id).snapshot.length;
+            }
+        }
+    }
+
+    /**
+     * @return Number of lookups that found a retained snapshot.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return Number of lookups that found no retained snapshot.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return Number of snapshots discarded to stay within the window size or byte limit.
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return Number of conversations with retained snapshots.
+     */
+    public synchronized int getConversationCount() {
+        return this.conversations.size();
+    }
+
+    /**
+     * @return Number of retained snapshots.
+     */
+    public synchronized int getSize() {
+        return this.snapshots.size();
+    }
+
+    /**
+     * @return Total size of retained snapshots in bytes.
+     */
+    public synchronized long getByteCount() {
+        return this.bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[conversations=%d, size=%d, bytes=%d, hits=%d, misses=%d, evictions=%d]",
+                getClass().getSimpleName(),
+                getConversationCount(),
+                getSize(),
+                getByteCount(),
+                getHitCount(),
+                getMissCount(),
+                getEvictionCount());
+    }
+
+    /** Removes least recently used conversations until the byte limit is satisfied. Caller must hold the lock. */
+    private void evict() {
+        final Iterator<ArrayDeque<UUID>> values = this.conversations.values().iterator();
+        while (this.bytes > this.maxBytes && values.hasNext()) {
+            for (UUID id : values.next()) {
+                this.bytes -= this.snapshots.remove(id).snapshot.length;
+                this.evictions.incrementAndGet();
+            }
+            values.remove();
+        }
+    }
+
+
+    /** Retained snapshot along with the conversation it belongs to. */
+    static final class Entry {
+        final UUID conversation;
+
+        final byte[] snapshot;
+
+        Entry(final UUID conversation, final byte[] snapshot) {
+            this.conversation = conversation;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Support for striping contended counters across threads. Each thread updates the cells of a stripe selected by its
+ * thread id, and stripes are spaced apart to reduce false sharing. Readers sum over all stripes.
+ *
+ * @author Marvin S. Addison
+ */
+final class Stripes {
+
+    /** Number of stripes; a power of two no greater than the number of processors, capped at 8. */
+    public static final int COUNT = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+    /** Number of longs in a cache line, used to pad stripes. */
+    public static final int PADDING = 8;
+
+
+    private Stripes() {}
+
+    /**
+     * @return Index of the stripe for the current thread.
+     */
+    public static int current() {
+        return (int) Thread.currentThread().getId() & (COUNT - 1);
+    }
+
+    /**
+     * Creates an array for the given number of cells per stripe.
+     *
+     * @param cells Number of cells in each stripe.
+     *
+     * @return Array with room for all stripes.
+     */
+    public static AtomicLongArray newArray(final int cells) {
+        return new AtomicLongArray(COUNT * stride(cells));
+    }
+
+    /**
+     * @param cells Number of cells in each stripe.
+     *
+     * @return Distance in array elements between the first cells of successive stripes.
+     */
+    public static int stride(final int cells) {
+        return cells + PADDING;
+    }
+}
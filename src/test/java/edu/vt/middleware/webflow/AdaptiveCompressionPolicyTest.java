@@ -0,0 +1,118 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.util.Random;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link AdaptiveCompressionPolicy}.
+ *
+ * @author Marvin S. Addison
+ */
+public class AdaptiveCompressionPolicyTest {
+
+    @Test
+    public void testSmallPayloadNotCompressed() throws Exception {
+        final AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy();
+        assertEquals(CompressionCodec.NONE, policy.select("login", 100).getId());
+        assertEquals(CompressionCodec.DEFLATE, policy.select("login", 1000).getId());
+    }
+
+    @Test
+    public void testIncompressibleFlowSkipped() throws Exception {
+        final AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy();
+        policy.setProbeInterval(10);
+        final CompressionCodec codec = policy.select("random", 1000);
+        policy.record("random", codec, 1000, 1005, 1000);
+        assertEquals(CompressionCodec.NONE, policy.select("random", 1000).getId());
+        // Other flows are unaffected
+        assertEquals(CompressionCodec.DEFLATE, policy.select("login", 1000).getId());
+        int probes = 0;
+        for (int i = 0; i < 99; i++) {
+            if (policy.select("random", 1000).getId() != CompressionCodec.NONE) {
+                probes++;
+            }
+        }
+        assertEquals(10, probes);
+    }
+
+    @Test
+    public void testExpensiveFlowUsesFastCodec() throws Exception {
+        final AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy();
+        final CompressionCodec fast = new DeflateCodec();
+        policy.setFastCodec(fast);
+        policy.setMaxNanosPerByte(10);
+        final CompressionCodec codec = policy.select("big", 100000);
+        policy.record("big", codec, 100000, 20000, 100000 * 20);
+        assertSame(fast, policy.select("big", 100000));
+        policy.record("big", fast, 100000, 25000, 100000 * 2);
+        assertSame(codec, policy.select("big", 100000));
+    }
+
+    @Test
+    public void testTranscoderRoundTrip() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final AEADBlockCipherBean cipherBean = new AEADBlockCipherBean();
+        cipherBean.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+        cipherBean.setKeyStore(ksFactory.newInstance());
+        cipherBean.setKeyAlias("aes128");
+        cipherBean.setKeyPassword("changeit");
+        cipherBean.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+        final EncryptedTranscoder transcoder = new EncryptedTranscoder();
+        transcoder.setCipherBean(cipherBean);
+        transcoder.setCompressionPolicy(new AdaptiveCompressionPolicy());
+        final EncryptedTranscoder uncompressed = new EncryptedTranscoder();
+        uncompressed.setCipherBean(cipherBean);
+        uncompressed.setCompression(false);
+
+        final String text = "Four score and seven years ago";
+        assertEquals(text, transcoder.decode(transcoder.encode(text)));
+        // One byte for the codec identifier
+        assertEquals(uncompressed.encode(text).length + 1, transcoder.encode(text).length);
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(text);
+        }
+        final String compressible = sb.toString();
+        assertEquals(compressible, transcoder.decode(transcoder.encode(compressible)));
+        assertTrue(transcoder.encode(compressible).length < uncompressed.encode(compressible).length / 4);
+
+        // Payloads that are not flow state share statistics, so start afresh
+        transcoder.setCompressionPolicy(new AdaptiveCompressionPolicy());
+        final byte[] random = new byte[4096];
+        new Random().nextBytes(random);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(random, (byte[]) transcoder.decode(transcoder.encode(random)));
+        }
+        assertEquals(uncompressed.encode(random).length + 1, transcoder.encode(random).length);
+    }
+}
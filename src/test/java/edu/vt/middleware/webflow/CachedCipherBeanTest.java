@@ -0,0 +1,127 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.AbstractBlockCipherBean;
+import org.cryptacular.bean.BufferedBlockCipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.cryptacular.spec.BufferedBlockCipherSpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Unit test for {@link CachedAEADBlockCipherBean} and {@link CachedBufferedBlockCipherBean}.
+ *
+ * @author Marvin S. Addison
+ */
+@RunWith(Parameterized.class)
+public class CachedCipherBeanTest {
+
+    private final AbstractBlockCipherBean standard;
+
+    private final AbstractBlockCipherBean cached;
+
+
+    public CachedCipherBeanTest(final AbstractBlockCipherBean standard, final AbstractBlockCipherBean cached) {
+        this.standard = standard;
+        this.cached = cached;
+    }
+
+    @Parameters
+    public static Collection<Object[]> data() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final KeyStore keyStore = ksFactory.newInstance();
+        return Arrays.asList(new Object[][] {
+                {
+                    new AEADBlockCipherBean(
+                            new AEADBlockCipherSpec("AES", "GCM"), keyStore, "aes128", "changeit",
+                            new org.cryptacular.generator.sp80038d.RBGNonce()),
+                    new CachedAEADBlockCipherBean(
+                            new AEADBlockCipherSpec("AES", "GCM"), keyStore, "aes128", "changeit",
+                            new org.cryptacular.generator.sp80038d.RBGNonce()),
+                },
+                {
+                    new BufferedBlockCipherBean(
+                            new BufferedBlockCipherSpec("AES", "CBC", "PKCS7"), keyStore, "aes128", "changeit",
+                            new org.cryptacular.generator.sp80038a.RBGNonce()),
+                    new CachedBufferedBlockCipherBean(
+                            new BufferedBlockCipherSpec("AES", "CBC", "PKCS7"), keyStore, "aes128", "changeit",
+                            new org.cryptacular.generator.sp80038a.RBGNonce()),
+                },
+        });
+    }
+
+    @Test
+    public void testInteroperability() throws Exception {
+        final Random random = new Random(1);
+        for (int size : new int[] {0, 1, 15, 16, 17, 1000, 100000}) {
+            final byte[] data = new byte[size];
+            random.nextBytes(data);
+            assertArrayEquals(data, this.cached.decrypt(this.standard.encrypt(data)));
+            assertArrayEquals(data, this.standard.decrypt(this.cached.encrypt(data)));
+            assertArrayEquals(data, this.cached.decrypt(this.cached.encrypt(data)));
+        }
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        final Random random = new Random(seed);
+                        for (int i = 0; i < 200; i++) {
+                            final byte[] data = new byte[random.nextInt(2048)];
+                            random.nextBytes(data);
+                            assertArrayEquals(data, cached.decrypt(cached.encrypt(data)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
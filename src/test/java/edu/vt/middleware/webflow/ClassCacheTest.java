@@ -0,0 +1,72 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ObjectStreamClass;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link ClassCache}.
+ *
+ * @author Marvin S. Addison
+ */
+public class ClassCacheTest {
+
+    private final ClassCache cache = ClassCache.getInstance();
+
+
+    @Test
+    public void testResolve() throws Exception {
+        final ClassLoader loader = getClass().getClassLoader();
+        assertSame(PlaintextCache.class, this.cache.resolve(PlaintextCache.class.getName(), loader));
+        assertSame(PlaintextCache.class, this.cache.get(PlaintextCache.class.getName(), loader));
+        assertSame(String.class, this.cache.resolve("java.lang.String", null));
+        assertSame(int[].class, this.cache.resolve("[I", loader));
+        assertNull(this.cache.get(PlaintextCache.class.getName(), new ClassLoader(loader) {}));
+    }
+
+    @Test
+    public void testDefaultClassesWarmed() throws Exception {
+        final ClassLoader loader = ClassCache.class.getClassLoader();
+        for (String name : ClassCache.DEFAULT_CLASSES) {
+            final Class<?> type = this.cache.get(name, loader);
+            assertNotNull(name, type);
+            assertNotNull(name, ObjectStreamClass.lookup(type));
+        }
+        assertEquals(0, this.cache.warm(loader, "com.example.NoSuchClass"));
+    }
+
+    @Test
+    public void testClassLoaderCollected() throws Exception {
+        final int size = this.cache.size();
+        ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {};
+        this.cache.resolve(PlaintextCache.class.getName(), loader);
+        assertEquals(size + 1, this.cache.size());
+        loader = null;
+        for (int i = 0; i < 50 && this.cache.size() > size; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue("Class loader was not released", this.cache.size() <= size);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import org.cryptacular.util.CodecUtil;
+import org.junit.Test;
+import org.springframework.webflow.execution.repository.BadlyFormattedFlowExecutionKeyException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link ClientFlowExecutionKey}.
+ *
+ * @author Marvin S. Addison
+ */
+public class ClientFlowExecutionKeyTest {
+
+    @Test
+    public void testParse() throws Exception {
+        for (int length = 1; length < 8; length++) {
+            final byte[] data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = (byte) (i * 73 + length);
+            }
+            final ClientFlowExecutionKey key = new ClientFlowExecutionKey(data);
+            // Same encoding as prior versions
+            assertEquals(key.getId() + "_" + CodecUtil.b64(data), key.toString());
+            final ClientFlowExecutionKey parsed = ClientFlowExecutionKey.parse(key.toString());
+            assertEquals(key.getId(), parsed.getId());
+            assertEquals(key.toString(), parsed.toString());
+            assertEquals(key, parsed);
+            assertEquals(key.hashCode(), parsed.hashCode());
+            assertArrayEquals(data, parsed.getData());
+        }
+    }
+
+    @Test
+    public void testParseUppercaseId() throws Exception {
+        final UUID id = UUID.randomUUID();
+        final ClientFlowExecutionKey key = new ClientFlowExecutionKey(id, new byte[] {1, 2, 3});
+        final ClientFlowExecutionKey parsed = ClientFlowExecutionKey.parse(
+                id.toString().toUpperCase() + key.toString().substring(36));
+        assertEquals(id, parsed.getId());
+        assertEquals(key, parsed);
+    }
+
+    @Test
+    public void testNotEqual() throws Exception {
+        final UUID id = UUID.randomUUID();
+        assertFalse(new ClientFlowExecutionKey(id, new byte[] {1}).equals(
+                new ClientFlowExecutionKey(id, new byte[] {2})));
+        assertFalse(new ClientFlowExecutionKey(new byte[] {1}).equals(new ClientFlowExecutionKey(new byte[] {1})));
+    }
+
+    @Test
+    public void testParseInvalid() throws Exception {
+        final String id = UUID.randomUUID().toString();
+        final String[] invalid = {
+            "",
+            id,
+            id + "_",
+            id + "-AQID",
+            id + "_AQID_AQID",
+            id + "_AQI",
+            id + "_AQ*D",
+            id + "_AR==",
+            id + "_AQJ=",
+            id.replace('-', 'x') + "_AQID",
+            id.substring(0, 35) + "g_AQID",
+            // Full-width and Arabic-Indic digits
+            id.substring(0, 35) + "\uff11_AQID",
+            "\u0661" + id.substring(1) + "_AQID",
+            "1-2-3-4-5_AQID",
+        };
+        for (String key : invalid) {
+            try {
+                ClientFlowExecutionKey.parse(key);
+                fail("Parsed invalid key " + key);
+            } catch (BadlyFormattedFlowExecutionKeyException e) {
+                // Expected
+            }
+        }
+        assertArrayEquals(new byte[] {1}, ClientFlowExecutionKey.parse(id + "_AQ==").getData());
+        assertArrayEquals(new byte[] {1, 2}, ClientFlowExecutionKey.parse(id + "_AQI=").getData());
+    }
+
+    @Test
+    public void testParseTooLong() throws Exception {
+        final ClientFlowExecutionKey key = new ClientFlowExecutionKey(new byte[64]);
+        assertEquals(key, ClientFlowExecutionKey.parse(key.toString(), key.toString().length()));
+        try {
+            ClientFlowExecutionKey.parse(key.toString(), key.toString().length() - 1);
+            fail("Parsed key exceeding length limit");
+        } catch (ClientFlowExecutionRepositoryException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        for (int length = 1; length < 8; length++) {
+            final byte[] data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = (byte) (i * 73 + length);
+            }
+            final UUID id = UUID.randomUUID();
+            final ClientFlowExecutionKey key = new ClientFlowExecutionKey(id, data, true);
+            final String standard = new ClientFlowExecutionKey(id, data).toString();
+            assertTrue(key.toString().length() <= standard.length() - 14);
+            assertTrue(key.toString().matches("k[A-Za-z0-9_-]+"));
+            final ClientFlowExecutionKey parsed = ClientFlowExecutionKey.parse(key.toString());
+            assertTrue(parsed.isCompact());
+            assertEquals(id, parsed.getId());
+            assertEquals(key, parsed);
+            assertArrayEquals(data, parsed.getData());
+            assertFalse(ClientFlowExecutionKey.parse(standard).isCompact());
+        }
+    }
+
+    @Test
+    public void testParseInvalidCompact() throws Exception {
+        final String id = new ClientFlowExecutionKey(UUID.randomUUID(), new byte[] {1}, true).toString()
+                .substring(0, 23);
+        final String[] invalid = {
+            "k",
+            id,
+            id + "A",
+            id + "AQ=",
+            id + "AQ+D",
+            id + "AR",
+            id.substring(0, 22) + "B" + "AQID",
+        };
+        for (String key : invalid) {
+            try {
+                ClientFlowExecutionKey.parse(key);
+                fail("Parsed invalid key " + key);
+            } catch (BadlyFormattedFlowExecutionKeyException e) {
+                // Expected
+            }
+        }
+        assertArrayEquals(new byte[] {1, 2, 3}, ClientFlowExecutionKey.parse(id + "AQID").getData());
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+        final byte[] data = new byte[5000];
+        new Random(1).nextBytes(data);
+        for (boolean compact : new boolean[] {false, true}) {
+            for (int length : new int[] {1, 2, 3, 767, 768, 769, data.length}) {
+                final ClientFlowExecutionKey key = new ClientFlowExecutionKey(
+                        UUID.randomUUID(), Arrays.copyOf(data, length), compact);
+                final StringWriter streamed = new StringWriter();
+                key.writeTo(streamed);
+                assertEquals(key.toString(), streamed.toString());
+                final StringWriter cached = new StringWriter();
+                key.writeTo(cached);
+                assertEquals(key.toString(), cached.toString());
+            }
+        }
+    }
+}
@@ -15,20 +15,41 @@
  */
 package edu.vt.middleware.webflow;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.webflow.context.ExternalContextHolder;
 import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.execution.FlowExecutionKey;
 import org.springframework.webflow.execution.repository.BadlyFormattedFlowExecutionKeyException;
+import org.springframework.webflow.execution.repository.NoSuchFlowExecutionException;
 import org.springframework.webflow.executor.FlowExecutionResult;
 import org.springframework.webflow.executor.FlowExecutor;
 import org.springframework.webflow.test.MockExternalContext;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -62,4 +83,332 @@ public class ClientFlowExecutionRepositoryTest {
         assertNotNull(resumeResult.getOutcome());
         assertEquals("lasagnaDinner", resumeResult.getOutcome().getId());
     }
+
+    @Test
+    public void testKeyReusedWithinRequest() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final FlowDefinitionLocator locator = context.getBean("flowRegistry", FlowDefinitionLocator.class);
+        final FlowExecution execution = context.getBean(FlowExecutionFactory.class).createFlowExecution(
+                locator.getFlowDefinition("test"));
+        execution.start(null, new MockExternalContext());
+        ExternalContextHolder.setExternalContext(new MockExternalContext());
+        try {
+            final FlowExecutionKey key = repository.getKey(execution);
+            assertSame(key, repository.getKey(execution));
+            execution.getActiveSession().getScope().put("username", "jdoe");
+            final FlowExecutionKey changedKey = repository.getKey(execution);
+            assertNotSame(key, changedKey);
+            assertSame(changedKey, repository.getKey(execution));
+            ExternalContextHolder.setExternalContext(new MockExternalContext());
+            assertNotSame(changedKey, repository.getKey(execution));
+        } finally {
+            ExternalContextHolder.setExternalContext(null);
+        }
+    }
+
+    @Test
+    public void testHybridStorage() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final LruFlowStateStore store = new LruFlowStateStore();
+        repository.setFlowStateStore(store);
+        repository.setInlineThreshold(0);
+        try {
+            final FlowExecutor executor = context.getBean(FlowExecutor.class);
+            final FlowExecutionResult launchResult = executor.launchExecution(
+                    "test", new LocalAttributeMap(), new MockExternalContext());
+            final String pausedKey = launchResult.getPausedKey();
+            assertEquals(1, store.getSize());
+            assertTrue("Expected reference but got " + pausedKey, pausedKey.length() < 80);
+            final MockExternalContext context = new MockExternalContext();
+            context.setEventId("submit");
+            context.putRequestParameter("vegan", "1");
+            final FlowExecutionResult resumeResult = executor.resumeExecution(pausedKey, context);
+            assertEquals("tofurkeyDinner", resumeResult.getOutcome().getId());
+            assertEquals(1, store.getHitCount());
+
+            final LruFlowStateStore emptyStore = new LruFlowStateStore();
+            repository.setFlowStateStore(emptyStore);
+            try {
+                executor.resumeExecution(pausedKey, new MockExternalContext());
+                fail("Expected NoSuchFlowExecutionException");
+            } catch (NoSuchFlowExecutionException e) {
+                assertEquals(1, emptyStore.getMissCount());
+            }
+        } finally {
+            repository.setFlowStateStore(null);
+            repository.setInlineThreshold(ClientFlowExecutionRepository.DEFAULT_INLINE_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void testUnmarkedKeyData() throws Exception {
+        final FlowDefinitionLocator locator = context.getBean("flowRegistry", FlowDefinitionLocator.class);
+        final FlowExecutionFactory factory = context.getBean(FlowExecutionFactory.class);
+        for (CompressionCodec codec : new CompressionCodec[] {new GzipCodec(), new DictionaryDeflateCodec()}) {
+            final HmacTranscoder transcoder = new HmacTranscoder();
+            transcoder.setKey(new SecretKeySpec(new byte[32], "HmacSHA256"));
+            transcoder.setCompressionCodec(codec);
+            final ClientFlowExecutionRepository repository = new ClientFlowExecutionRepository(
+                    factory, locator, transcoder);
+            final FlowExecution execution = factory.createFlowExecution(locator.getFlowDefinition("test"));
+            execution.start(null, new MockExternalContext());
+            // Key data produced without a store or history begins with the codec id
+            final ClientFlowExecutionKey key = (ClientFlowExecutionKey) repository.getKey(execution);
+            assertEquals(codec.getId(), key.getData()[0]);
+            repository.setFlowStateStore(new LruFlowStateStore());
+            repository.setSnapshotHistory(new SnapshotHistory());
+            assertEquals("test", repository.getFlowExecution(key).getDefinition().getId());
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final EncryptedTranscoder transcoder = context.getBean(EncryptedTranscoder.class);
+        final DefaultFlowStateMetrics metrics = new DefaultFlowStateMetrics();
+        repository.setMetrics(metrics);
+        transcoder.setMetrics(metrics);
+        try {
+            final FlowExecutor executor = context.getBean(FlowExecutor.class);
+            final FlowExecutionResult launchResult = executor.launchExecution(
+                    "test", new LocalAttributeMap(), new MockExternalContext());
+            final MockExternalContext context = new MockExternalContext();
+            context.setEventId("submit");
+            context.putRequestParameter("vegan", "1");
+            executor.resumeExecution(launchResult.getPausedKey(), context);
+            final FlowStateStatistics stats = metrics.getFlowStatistics("test");
+            assertNotNull(stats);
+            assertEquals(1, stats.getLatency(FlowStateMetrics.Phase.SERIALIZE).getCount());
+            assertEquals(1, stats.getLatency(FlowStateMetrics.Phase.DESERIALIZE).getCount());
+            assertEquals(1, stats.getEncodedSize().getCount());
+            try {
+                repository.parseFlowExecutionKey("bogus");
+                fail("Expected BadlyFormattedFlowExecutionKeyException");
+            } catch (BadlyFormattedFlowExecutionKeyException e) {
+                assertEquals(1, metrics.getErrorCount(FlowStateMetrics.ErrorCause.BAD_FORMAT));
+            }
+        } finally {
+            repository.setMetrics(NoOpFlowStateMetrics.INSTANCE);
+            transcoder.setMetrics(NoOpFlowStateMetrics.INSTANCE);
+        }
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        assertTrue(repository.warmUp("test", null, 3));
+        assertEquals(1, repository.getFlowDefinitionIds().length);
+        final FlowStateWarmer warmer = new FlowStateWarmer(repository);
+        warmer.setIterations(3);
+        warmer.start();
+        assertTrue(warmer.isRunning());
+        assertNull(ExternalContextHolder.getExternalContext());
+    }
+
+    @Test
+    public void testAttributePolicy() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final AttributePolicy policy = new AttributePolicy();
+        final Map<String, AttributePolicy.Disposition> rules = new HashMap<String, AttributePolicy.Disposition>();
+        rules.put("states", AttributePolicy.Disposition.TRANSIENT);
+        rules.put("test:results", AttributePolicy.Disposition.EXTERNALIZED);
+        rules.put("other:text", AttributePolicy.Disposition.EXTERNALIZED);
+        policy.setRules(rules);
+        final LruFlowStateStore store = new LruFlowStateStore();
+        policy.setStore(store);
+        policy.setRehydrator(new AttributeRehydrator() {
+            public Object rehydrate(final String flowId, final String name) {
+                return "states".equals(name) ? "rebuilt" : null;
+            }
+        });
+        // Random content so that compression does not hide the difference in size
+        final String results = new BigInteger(20000, new Random(1)).toString(36);
+        final String text = new BigInteger(20000, new Random(2)).toString(36);
+        final FlowExecution execution = repository.launch("test", null);
+        execution.getConversationScope().put("states", "original");
+        execution.getActiveSession().getScope().put("results", results);
+        execution.getActiveSession().getScope().put("text", text);
+        final int inlineLength = repository.getKey(execution).toString().length();
+
+        repository.setAttributePolicy(policy);
+        try {
+            final FlowExecutionKey key = repository.getKey(execution);
+            assertTrue(key.toString().length() < inlineLength - 1000);
+            assertEquals("original", execution.getConversationScope().get("states"));
+            assertSame(results, execution.getActiveSession().getScope().get("results"));
+            assertEquals(1, store.getSize());
+
+            final FlowExecution restored = repository.getFlowExecution(key);
+            assertEquals("rebuilt", restored.getConversationScope().get("states"));
+            assertEquals(results, restored.getActiveSession().getScope().get("results"));
+            assertEquals(text, restored.getActiveSession().getScope().get("text"));
+
+            // Identical values are stored once
+            final FlowExecution other = repository.launch("test", null);
+            other.getActiveSession().getScope().put("results", new String(results));
+            repository.getKey(other);
+            assertEquals(1, store.getSize());
+
+            policy.setStore(new LruFlowStateStore());
+            try {
+                repository.getFlowExecution(key);
+                fail("Expected NoSuchFlowExecutionException");
+            } catch (NoSuchFlowExecutionException e) {
+                // Expected
+            }
+        } finally {
+            repository.setAttributePolicy(null);
+        }
+    }
+
+    @Test
+    public void testLazyScopes() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final EncryptedTranscoder transcoder = context.getBean(EncryptedTranscoder.class);
+        for (boolean compact : new boolean[] {true, false}) {
+            if (compact) {
+                final CompactSerializer serializer = new CompactSerializer();
+                serializer.setLazyScopes(true);
+                transcoder.setSerializer(serializer);
+            } else {
+                final JavaSerializer serializer = new JavaSerializer();
+                serializer.setLazyScopes(true);
+                transcoder.setSerializer(serializer);
+            }
+            try {
+                final FlowExecution execution = repository.launch("test", null);
+                execution.getConversationScope().put("date", new Date(0));
+                execution.getActiveSession().getScope().put("results", new ArrayList<String>());
+                final FlowExecutionKey key = repository.getKey(execution);
+
+                FlowExecution restored = repository.getFlowExecution(key);
+                @SuppressWarnings("unchecked")
+                final List<String> results = (List<String>) restored.getActiveSession().getScope().get("results");
+                results.add("found");
+                final FlowExecutionKey next = repository.getKey(restored);
+
+                restored = repository.getFlowExecution(next);
+                assertEquals(new Date(0), restored.getConversationScope().get("date"));
+                assertEquals(
+                        Collections.singletonList("found"), restored.getActiveSession().getScope().get("results"));
+            } finally {
+                transcoder.setSerializer(new JavaSerializer());
+            }
+        }
+    }
+
+    @Test
+    public void testReplayGuard() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final FlowExecutor executor = context.getBean(FlowExecutor.class);
+        repository.setReplayGuard(new ReplayGuard());
+        try {
+            final String key = executor.launchExecution(
+                    "test", new LocalAttributeMap(), new MockExternalContext()).getPausedKey();
+            // Refreshing the view leaves the key in use
+            assertEquals(key, executor.resumeExecution(key, new MockExternalContext()).getPausedKey());
+            final MockExternalContext submit = new MockExternalContext();
+            submit.setEventId("submit");
+            submit.getRequestMap().put("vegan", "0");
+            assertTrue(executor.resumeExecution(key, submit).isEnded());
+            // The same data under a different id is a replay as well
+            final String forged = UUID.randomUUID() + key.substring(key.indexOf('_'));
+            for (String replayed : new String[] {key, forged}) {
+                try {
+                    executor.resumeExecution(replayed, submit);
+                    fail("Expected NoSuchFlowExecutionException");
+                } catch (NoSuchFlowExecutionException e) {
+                    // Expected
+                }
+            }
+        } finally {
+            repository.setReplayGuard(null);
+        }
+    }
+
+    @Test
+    public void testCompactKeys() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final FlowExecutor executor = context.getBean(FlowExecutor.class);
+        repository.setCompactKeys(true);
+        try {
+            final String key = executor.launchExecution(
+                    "test", new LocalAttributeMap(), new MockExternalContext()).getPausedKey();
+            assertTrue(((ClientFlowExecutionKey) repository.parseFlowExecutionKey(key)).isCompact());
+            final MockExternalContext context = new MockExternalContext();
+            context.setEventId("submit");
+            context.putRequestParameter("vegan", "1");
+            assertEquals("tofurkeyDinner", executor.resumeExecution(key, context).getOutcome().getId());
+        } finally {
+            repository.setCompactKeys(false);
+        }
+    }
+
+    @Test
+    public void testSnapshotHistory() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final SnapshotHistory history = new SnapshotHistory();
+        history.setWindowSize(3);
+        try {
+            final FlowExecution execution = repository.launch("test", null);
+            repository.setSnapshotHistory(history);
+            final byte[] payload = new byte[4096];
+            new Random(42).nextBytes(payload);
+            execution.getActiveSession().getScope().put("payload", new BigInteger(1, payload).toString(16));
+            final List<FlowExecutionKey> keys = new ArrayList<FlowExecutionKey>();
+            keys.add(repository.getKey(execution));
+            for (int i = 1; i <= 4; i++) {
+                ExternalContextHolder.setExternalContext(new MockExternalContext());
+                final FlowExecution restored = repository.getFlowExecution(keys.get(i - 1));
+                restored.getActiveSession().getScope().put("step", i);
+                keys.add(repository.getKey(restored));
+            }
+            final int fullLength = keys.get(0).toString().length();
+            assertTrue(keys.get(2).toString().length() < fullLength / 4);
+            assertEquals(3, history.getSize());
+
+            // Back button within the window
+            ExternalContextHolder.setExternalContext(new MockExternalContext());
+            assertEquals(3, repository.getFlowExecution(keys.get(3)).getActiveSession().getScope().get("step"));
+            // Base of the second key has left the window
+            try {
+                repository.getFlowExecution(keys.get(2));
+                fail("Expected NoSuchFlowExecutionException");
+            } catch (NoSuchFlowExecutionException e) {
+                // Expected
+            }
+            // Full state remains valid
+            ExternalContextHolder.setExternalContext(new MockExternalContext());
+            assertNotNull(repository.getFlowExecution(keys.get(0)).getActiveSession().getScope().get("payload"));
+
+            // Invalidating all snapshots falls back to full state for the next key
+            ExternalContextHolder.setExternalContext(new MockExternalContext());
+            final FlowExecution restored = repository.getFlowExecution(keys.get(4));
+            repository.removeAllFlowExecutionSnapshots(restored);
+            assertTrue(repository.getKey(restored).toString().length() > fullLength / 2);
+            ExternalContextHolder.setExternalContext(new MockExternalContext());
+            try {
+                repository.getFlowExecution(keys.get(4));
+                fail("Expected NoSuchFlowExecutionException");
+            } catch (NoSuchFlowExecutionException e) {
+                // Expected
+            }
+
+            // Ending the flow discards its snapshots
+            final SnapshotHistory fresh = new SnapshotHistory();
+            repository.setSnapshotHistory(fresh);
+            final FlowExecutor executor = context.getBean(FlowExecutor.class);
+            final String key = executor.launchExecution(
+                    "test", new LocalAttributeMap(), new MockExternalContext()).getPausedKey();
+            assertEquals(1, fresh.getSize());
+            final MockExternalContext submit = new MockExternalContext();
+            submit.setEventId("submit");
+            submit.putRequestParameter("vegan", "1");
+            assertTrue(executor.resumeExecution(key, submit).isEnded());
+            assertEquals(0, fresh.getSize());
+        } finally {
+            repository.setSnapshotHistory(null);
+            ExternalContextHolder.setExternalContext(null);
+        }
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.test.MockExternalContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link CompactSerializer}.
+ *
+ * @author Marvin S. Addison
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/webflow-config-context.xml")
+public class CompactSerializerTest {
+
+    @Autowired
+    private ApplicationContext context;
+
+    private final CompactSerializer serializer = new CompactSerializer();
+
+
+    @Test
+    public void testFlowExecutionStateWithAllowedClasses() throws Exception {
+        final FlowDefinitionLocator locator = context.getBean("flowRegistry", FlowDefinitionLocator.class);
+        final FlowExecution execution = context.getBean(FlowExecutionFactory.class).createFlowExecution(
+                locator.getFlowDefinition("test"));
+        execution.start(null, new MockExternalContext());
+        final ClientFlowExecutionRepository.SerializedFlowExecutionState state =
+                new ClientFlowExecutionRepository.SerializedFlowExecutionState(execution);
+        final DeserializationLimits limits = new DeserializationLimits();
+        limits.setAllowedClasses(DeserializationLimits.DEFAULT_ALLOWED_CLASSES);
+        final CompactSerializer compact = new CompactSerializer();
+        compact.setLimits(limits);
+        final JavaSerializer java = new JavaSerializer();
+        java.setLimits(limits);
+        for (Serializer s : new Serializer[] {compact, java}) {
+            final BufferOutputStream out = new BufferOutputStream(16);
+            s.serialize(state, out);
+            assertEquals(
+                    "test",
+                    ((ClientFlowExecutionRepository.SerializedFlowExecutionState) s.deserialize(
+                            out.getBuffer(), 0, out.size())).getFlowId());
+        }
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        final DeserializationLimits limits = new DeserializationLimits();
+        assertTrue(limits.isAllowed("java.net.URL"));
+        limits.setAllowedClasses(DeserializationLimits.DEFAULT_ALLOWED_CLASSES);
+        assertTrue(limits.isAllowed("java.util.HashMap"));
+        assertTrue(limits.isAllowed("[Ljava.lang.Integer;"));
+        assertFalse(limits.isAllowed("java.util.PriorityQueue"));
+        assertFalse(limits.isAllowed("java.net.URL"));
+        final DeserializationLimits extended = new DeserializationLimits();
+        extended.setAllowedClasses(DeserializationLimits.DEFAULT_ALLOWED_CLASSES);
+        extended.setAdditionalAllowedClasses(Collections.singletonList("java.net."));
+        assertTrue(extended.isAllowed("java.net.URL"));
+        assertTrue(extended.isAllowed("java.util.HashMap"));
+        limits.setMaxDepth(10);
+        limits.setMaxArrayLength(100);
+        final CompactSerializer restricted = new CompactSerializer();
+        restricted.setLimits(limits);
+        final JavaSerializer java = new JavaSerializer();
+        java.setLimits(limits);
+
+        List<Object> nested = new ArrayList<Object>();
+        for (int i = 0; i < 20; i++) {
+            final List<Object> outer = new ArrayList<Object>();
+            outer.add(nested);
+            nested = outer;
+        }
+        final List<Object> rejected = new ArrayList<Object>();
+        rejected.add(nested);
+        rejected.add(new URL("https://www.example.com/"));
+        rejected.add(new int[200]);
+        for (Object o : rejected) {
+            final BufferOutputStream compactOut = new BufferOutputStream(16);
+            this.serializer.serialize(o, compactOut);
+            assertRejected(restricted, compactOut);
+            final BufferOutputStream javaOut = new BufferOutputStream(16);
+            new JavaSerializer().serialize(o, javaOut);
+            assertRejected(java, javaOut);
+            assertRejected(restricted, javaOut);
+        }
+        // Collection lengths are only limited in compact streams
+        final BufferOutputStream longList = new BufferOutputStream(16);
+        this.serializer.serialize(new ArrayList<Object>(Collections.nCopies(200, "x")), longList);
+        assertRejected(restricted, longList);
+        final List<Object> allowed = new ArrayList<Object>();
+        allowed.add(new Date());
+        allowed.add(new int[100]);
+        final BufferOutputStream out = new BufferOutputStream(16);
+        this.serializer.serialize(allowed, out);
+        restricted.deserialize(out.getBuffer(), 0, out.size());
+    }
+
+    @Test
+    public void testFlowExecutionState() throws Exception {
+        final FlowDefinitionLocator locator = context.getBean("flowRegistry", FlowDefinitionLocator.class);
+        final FlowExecution execution = context.getBean(FlowExecutionFactory.class).createFlowExecution(
+                locator.getFlowDefinition("test"));
+        execution.start(null, new MockExternalContext());
+        execution.getActiveSession().getScope().put("username", "jdoe");
+        execution.getConversationScope().put("attempts", 3);
+        final ClientFlowExecutionRepository.SerializedFlowExecutionState state =
+                new ClientFlowExecutionRepository.SerializedFlowExecutionState(execution);
+
+        final BufferOutputStream compact = new BufferOutputStream(16);
+        this.serializer.serialize(state, compact);
+        final BufferOutputStream java = new BufferOutputStream(16);
+        new JavaSerializer().serialize(state, java);
+        assertTrue("Expected " + compact.size() + " < " + java.size(), compact.size() < java.size() / 2);
+
+        final ClientFlowExecutionRepository.SerializedFlowExecutionState result =
+                (ClientFlowExecutionRepository.SerializedFlowExecutionState) this.serializer.deserialize(
+                        compact.getBuffer(), 0, compact.size());
+        assertEquals("test", result.getFlowId());
+        assertEquals(3, result.getConversationScope().get("attempts"));
+        final FlowExecution restored = context.getBean(FlowExecutionFactory.class).restoreFlowExecution(
+                result.getExecution(),
+                locator.getFlowDefinition("test"),
+                execution.getKey(),
+                result.getConversationScope(),
+                locator);
+        assertEquals("foodForm", restored.getActiveSession().getState().getId());
+        assertEquals("jdoe", restored.getActiveSession().getScope().get("username"));
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        final List<Object> values = new ArrayList<Object>();
+        values.add(null);
+        values.add("Gr\u00fc\u00dfe \u4e16\u754c \ud83d\ude00");
+        values.add("");
+        values.add(Integer.MIN_VALUE);
+        values.add(-1);
+        values.add(Integer.MAX_VALUE);
+        values.add(Long.MIN_VALUE);
+        values.add(1L << 40);
+        values.add(Boolean.TRUE);
+        values.add(Boolean.FALSE);
+        values.add(TimeUnit.SECONDS);
+        values.add(3.14159);
+        values.add(new LinkedList<Object>(values));
+        final Map<Object, Object> map = new HashMap<Object, Object>();
+        map.put("key", "value");
+        map.put(1, new URL("https://www.example.com/"));
+        values.add(map);
+        values.add(new LocalAttributeMap(map));
+        assertEquals(values, roundTrip(values));
+    }
+
+    @Test
+    public void testReferences() throws Exception {
+        final LocalAttributeMap scope = new LocalAttributeMap();
+        final Date date = new Date();
+        scope.put("date", date);
+        final List<Object> values = new ArrayList<Object>();
+        values.add(scope);
+        values.add(scope);
+        values.add(date);
+        values.add(new URL("https://www.example.com/"));
+        values.add(date);
+        values.add(values);
+        final List<?> result = (List<?>) roundTrip(values);
+        assertSame(result.get(0), result.get(1));
+        assertSame(((LocalAttributeMap) result.get(0)).get("date"), result.get(2));
+        assertSame(result.get(2), result.get(4));
+        assertEquals(values.get(3), result.get(3));
+        assertSame(result, result.get(5));
+    }
+
+    @Test
+    public void testReferencesAcrossFallback() throws Exception {
+        final List<Object> list = new ArrayList<Object>();
+        list.add("item");
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("list", list);
+        final Bean bean = new Bean();
+        bean.value = list;
+        // Written directly first, then referenced from a fallback value, and the reverse
+        for (Object[] values : new Object[][] {{map, bean}, {bean, map}}) {
+            final List<?> result = (List<?>) roundTrip(new ArrayList<Object>(Arrays.asList(values)));
+            final Map<?, ?> resultMap = (Map<?, ?>) result.get(values[0] == map ? 0 : 1);
+            final Bean resultBean = (Bean) result.get(values[0] == map ? 1 : 0);
+            assertSame(resultMap.get("list"), resultBean.value);
+        }
+        // Fallback value that refers to a directly written value enclosing it
+        final Bean cyclic = new Bean();
+        final Map<String, Object> enclosing = new HashMap<String, Object>();
+        enclosing.put("bean", cyclic);
+        cyclic.value = enclosing;
+        final Map<?, ?> result = (Map<?, ?>) roundTrip(enclosing);
+        assertSame(result, ((Bean) result.get("bean")).value);
+    }
+
+    @Test
+    public void testDecodesJavaSerialization() throws Exception {
+        final LocalAttributeMap scope = new LocalAttributeMap();
+        scope.put("username", "jdoe");
+        final BufferOutputStream java = new BufferOutputStream(16);
+        new JavaSerializer().serialize(scope, java);
+        assertEquals(scope, this.serializer.deserialize(java.getBuffer(), 0, java.size()));
+    }
+
+    private static void assertRejected(final Serializer s, final BufferOutputStream out) throws Exception {
+        try {
+            s.deserialize(out.getBuffer(), 0, out.size());
+            fail("Deserialized stream exceeding limits with " + s.getClass().getSimpleName());
+        } catch (InvalidObjectException e) {
+            // Expected
+        } catch (InvalidClassException e) {
+            // Expected
+        }
+    }
+
+    private Object roundTrip(final Object o) throws Exception {
+        final BufferOutputStream out = new BufferOutputStream(16);
+        this.serializer.serialize(o, out);
+        return this.serializer.deserialize(out.getBuffer(), 0, out.size());
+    }
+
+
+    /** Serializable bean that falls back to Java serialization. */
+    static class Bean implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        Object value;
+    }
+}
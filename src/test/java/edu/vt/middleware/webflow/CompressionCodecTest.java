@@ -0,0 +1,194 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link CompressionCodec} implementations.
+ *
+ * @author Marvin S. Addison
+ */
+@RunWith(Parameterized.class)
+public class CompressionCodecTest {
+
+    private final CompressionCodec codec;
+
+
+    public CompressionCodecTest(final CompressionCodec codec) {
+        this.codec = codec;
+    }
+
+    @Parameters
+    public static Collection<Object[]> data() throws Exception {
+        final List<byte[]> samples = new ArrayList<byte[]>();
+        for (int i = 0; i < 20; i++) {
+            samples.add(sample(i));
+        }
+        return Arrays.asList(new Object[][] {
+                { new NoCompressionCodec() },
+                { new GzipCodec() },
+                { new DeflateCodec() },
+                { new DictionaryDeflateCodec() },
+                { new DictionaryDeflateCodec(16, DictionaryTrainer.train(samples, 4096)) },
+                { parallelDeflateCodec(1024) },
+        });
+    }
+
+    @Test
+    public void testCompressDecompress() throws Exception {
+        final byte[] data = sample(100);
+        final BufferOutputStream compressed = new BufferOutputStream(16);
+        // Leading content must be preserved
+        compressed.write(1);
+        this.codec.compress(data, 0, data.length, compressed);
+        final BufferOutputStream decompressed = new BufferOutputStream(16);
+        this.codec.decompress(compressed.getBuffer(), 1, compressed.size() - 1, decompressed);
+        assertArrayEquals(data, decompressed.toByteArray());
+    }
+
+    @Test
+    public void testDecompressLimit() throws Exception {
+        if (this.codec instanceof NoCompressionCodec) {
+            return;
+        }
+        final byte[] data = new byte[1024 * 1024];
+        final BufferOutputStream compressed = new BufferOutputStream(16);
+        this.codec.compress(data, 0, data.length, compressed);
+        final BufferOutputStream decompressed = new BufferOutputStream(16);
+        decompressed.setLimit(data.length);
+        this.codec.decompress(compressed.getBuffer(), 0, compressed.size(), decompressed);
+        assertEquals(data.length, decompressed.size());
+        decompressed.reset();
+        decompressed.setLimit(65536);
+        try {
+            this.codec.decompress(compressed.getBuffer(), 0, compressed.size(), decompressed);
+            fail("Decompressed beyond limit");
+        } catch (ZipException e) {
+            assertEquals(65536, decompressed.size());
+        }
+    }
+
+    @Test
+    public void testDictionaryImprovesOnDeflate() throws Exception {
+        if (!(this.codec instanceof DictionaryDeflateCodec)) {
+            return;
+        }
+        final byte[] data = sample(100);
+        final BufferOutputStream deflated = new BufferOutputStream(16);
+        new DeflateCodec().compress(data, 0, data.length, deflated);
+        final BufferOutputStream compressed = new BufferOutputStream(16);
+        this.codec.compress(data, 0, data.length, compressed);
+        assertTrue(
+                "Expected " + compressed.size() + " < " + deflated.size(), compressed.size() < deflated.size());
+    }
+
+    @Test
+    public void testCustomDictionaryRequiresId() throws Exception {
+        if (!(this.codec instanceof DictionaryDeflateCodec)) {
+            return;
+        }
+        final byte[] dictionary = sample(10);
+        final DictionaryDeflateCodec defaultId = new DictionaryDeflateCodec();
+        try {
+            defaultId.setDictionary(dictionary);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(CompressionCodec.DEFLATE_DEFAULT_DICTIONARY, defaultId.getId());
+        }
+        try {
+            new DictionaryDeflateCodec(CompressionCodec.DEFLATE_DEFAULT_DICTIONARY, dictionary);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        final DictionaryDeflateCodec custom = new DictionaryDeflateCodec(17, dictionary);
+        try {
+            custom.setId(CompressionCodec.DEFLATE_DEFAULT_DICTIONARY);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals(17, custom.getId());
+        }
+    }
+
+    @Test
+    public void testTranscoderDecodesLegacyPayload() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final AEADBlockCipherBean cipherBean = new AEADBlockCipherBean();
+        cipherBean.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+        cipherBean.setKeyStore(ksFactory.newInstance());
+        cipherBean.setKeyAlias("aes128");
+        cipherBean.setKeyPassword("changeit");
+        cipherBean.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+
+        final EncryptedTranscoder legacy = new EncryptedTranscoder();
+        legacy.setCipherBean(cipherBean);
+        final EncryptedTranscoder transcoder = new EncryptedTranscoder();
+        transcoder.setCipherBean(cipherBean);
+        transcoder.setCompressionCodec(this.codec);
+
+        final String text = "Four score and seven years ago our forefathers brought forth upon this continent";
+        assertEquals(text, transcoder.decode(legacy.encode(text)));
+        legacy.setCompression(false);
+        assertEquals(text, transcoder.decode(legacy.encode(text)));
+        assertEquals(text, transcoder.decode(transcoder.encode(text)));
+    }
+
+    private static ParallelDeflateCodec parallelDeflateCodec(final int chunkSize) {
+        final ParallelDeflateCodec codec = new ParallelDeflateCodec();
+        codec.setChunkSize(chunkSize);
+        return codec;
+    }
+
+    /** Creates a serialized attribute map resembling flow scope. */
+    private static byte[] sample(final int n) throws Exception {
+        final LocalAttributeMap map = new LocalAttributeMap();
+        map.put("username", "user" + n);
+        map.put("service", "https://app" + n + ".example.com/login?param=" + (n * 7919));
+        map.put("warnCookieValue", n % 2 == 0);
+        map.put("attempts", n);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(map);
+        oos.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.io.IOException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link DefaultFlowStateMetrics} and {@link FlowStateMetricsExporter}.
+ *
+ * @author Marvin S. Addison
+ */
+public class DefaultFlowStateMetricsTest {
+
+    @Test
+    public void testHistogram() throws Exception {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(500.5, histogram.getMean(), 0.0001);
+        assertEquals(1000, histogram.getMax());
+        final long p50 = histogram.getPercentile(50);
+        assertTrue("Expected p50 within factor of two of 500 but got " + p50, p50 >= 250 && p50 <= 1000);
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testTranscoderMetrics() throws Exception {
+        final DefaultFlowStateMetrics metrics = new DefaultFlowStateMetrics();
+        final EncryptedTranscoder transcoder = newTranscoder();
+        transcoder.setMetrics(metrics);
+        final String text = "Four score and seven years ago our forefathers brought forth upon this continent";
+        assertEquals(text, transcoder.decode(transcoder.encode(text)));
+
+        final FlowStateStatistics stats = metrics.getGlobalStatistics();
+        for (FlowStateMetrics.Phase phase : FlowStateMetrics.Phase.values()) {
+            assertEquals(phase.name(), 1, stats.getLatency(phase).getCount());
+        }
+        assertEquals(1, stats.getEncodedSize().getCount());
+        assertTrue(stats.getCompressedSize().getMax() < stats.getEncodedSize().getMax());
+        assertTrue(stats.getCompressionRatio() > 0);
+        // State that is not flow state is not attributed to a flow
+        assertTrue(metrics.getFlowIds().isEmpty());
+
+        final byte[] encoded = transcoder.encode(text);
+        encoded[encoded.length - 1] ^= 1;
+        try {
+            transcoder.decode(encoded);
+            fail("Expected decryption error");
+        } catch (IOException e) {
+            assertEquals(1, metrics.getErrorCount(FlowStateMetrics.ErrorCause.DECRYPTION));
+        }
+    }
+
+    @Test
+    public void testExporter() throws Exception {
+        final DefaultFlowStateMetrics metrics = new DefaultFlowStateMetrics();
+        metrics.recordPhase(FlowStateMetrics.Phase.SERIALIZE, "login", 5000);
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final FlowStateMetricsExporter exporter = new FlowStateMetricsExporter(metrics);
+        exporter.setMBeanServer(server);
+        exporter.register();
+
+        final ObjectName global = new ObjectName(FlowStateMetricsExporter.DEFAULT_DOMAIN
+                + ":type=FlowStateMetrics,scope=global");
+        final ObjectName login = new ObjectName(FlowStateMetricsExporter.DEFAULT_DOMAIN
+                + ":type=FlowStateMetrics,scope=flow,flow=" + ObjectName.quote("login"));
+        final ObjectName logout = new ObjectName(FlowStateMetricsExporter.DEFAULT_DOMAIN
+                + ":type=FlowStateMetrics,scope=flow,flow=" + ObjectName.quote("logout"));
+        assertEquals(1L, server.getAttribute(login, "SerializeCount"));
+        assertNull(metrics.getFlowStatistics("logout"));
+        metrics.recordPhase(FlowStateMetrics.Phase.DESERIALIZE, "logout", 1000);
+        exporter.awaitRegistration();
+        assertEquals(1L, server.getAttribute(logout, "DeserializeCount"));
+        assertEquals(1L, server.getAttribute(global, "SerializeCount"));
+        assertEquals(1L, server.getAttribute(global, "DeserializeCount"));
+        metrics.recordError(FlowStateMetrics.ErrorCause.BAD_FORMAT);
+        assertEquals(1L, server.getAttribute(global, "BadFormatErrors"));
+
+        exporter.unregister();
+        assertFalse(server.isRegistered(global));
+        assertFalse(server.isRegistered(login));
+        assertFalse(server.isRegistered(logout));
+    }
+
+    @Test
+    public void testExporterRegistrationFailure() throws Exception {
+        final DefaultFlowStateMetrics metrics = new DefaultFlowStateMetrics();
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName taken = new ObjectName(FlowStateMetricsExporter.DEFAULT_DOMAIN
+                + ":type=FlowStateMetrics,scope=flow,flow=" + ObjectName.quote("taken"));
+        server.registerMBean(new StandardMBean(new Runnable() {
+            public void run() {}
+        }, Runnable.class), taken);
+        final FlowStateMetricsExporter exporter = new FlowStateMetricsExporter(metrics);
+        exporter.setMBeanServer(server);
+        exporter.register();
+
+        metrics.recordPhase(FlowStateMetrics.Phase.SERIALIZE, "taken", 1000);
+        metrics.recordPhase(FlowStateMetrics.Phase.SERIALIZE, "login", 1000);
+        exporter.awaitRegistration();
+        assertEquals(1L, metrics.getFlowStatistics("taken").getLatency(FlowStateMetrics.Phase.SERIALIZE).getCount());
+        assertEquals(1L, server.getAttribute(new ObjectName(FlowStateMetricsExporter.DEFAULT_DOMAIN
+                + ":type=FlowStateMetrics,scope=flow,flow=" + ObjectName.quote("login")), "SerializeCount"));
+        exporter.unregister();
+        assertTrue(server.isRegistered(taken));
+    }
+
+    private static EncryptedTranscoder newTranscoder() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final AEADBlockCipherBean cipherBean = new AEADBlockCipherBean();
+        cipherBean.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+        cipherBean.setKeyStore(ksFactory.newInstance());
+        cipherBean.setKeyAlias("aes128");
+        cipherBean.setKeyPassword("changeit");
+        cipherBean.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+        final EncryptedTranscoder transcoder = new EncryptedTranscoder();
+        transcoder.setCipherBean(cipherBean);
+        return transcoder;
+    }
+}
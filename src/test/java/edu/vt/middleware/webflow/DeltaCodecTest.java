@@ -0,0 +1,85 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link DeltaCodec}.
+ *
+ * @author Marvin S. Addison
+ */
+public class DeltaCodecTest {
+
+    @Test
+    public void testDiffApply() throws Exception {
+        final Random random = new Random(42);
+        final byte[] base = new byte[8192];
+        random.nextBytes(base);
+        // Modify, insert and remove bytes at a few places
+        final byte[] target = new byte[base.length + 10];
+        System.arraycopy(base, 0, target, 0, 1000);
+        target[1000] = 1;
+        System.arraycopy(base, 1001, target, 1001, 3000);
+        System.arraycopy(base, 4001, target, 4017, 4000);
+        System.arraycopy(base, 0, target, 8017, 185);
+        final byte[] delta = DeltaCodec.diff(base, target);
+        assertTrue("Expected small delta but got " + delta.length + " bytes", delta.length < 64);
+        assertArrayEquals(target, DeltaCodec.apply(base, delta, target.length));
+    }
+
+    @Test
+    public void testDiffApplyUnrelated() throws Exception {
+        final Random random = new Random(42);
+        for (int length : new int[] {0, 5, 100, 5000}) {
+            final byte[] base = new byte[random.nextInt(200)];
+            final byte[] target = new byte[length];
+            random.nextBytes(base);
+            random.nextBytes(target);
+            assertArrayEquals(target, DeltaCodec.apply(base, DeltaCodec.diff(base, target), length));
+            assertArrayEquals(target, DeltaCodec.apply(new byte[0], DeltaCodec.diff(new byte[0], target), length));
+        }
+    }
+
+    @Test
+    public void testApplyInvalid() throws Exception {
+        final byte[] base = new byte[100];
+        Arrays.fill(base, (byte) 7);
+        final byte[] target = Arrays.copyOf(base, 150);
+        final byte[] delta = DeltaCodec.diff(base, target);
+        assertInvalid(base, delta, 149);
+        assertInvalid(base, Arrays.copyOf(delta, delta.length - 1), 150);
+        assertInvalid(new byte[50], delta, 150);
+        assertInvalid(base, new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1}, 150);
+    }
+
+    private static void assertInvalid(final byte[] base, final byte[] delta, final int maxLength) {
+        try {
+            DeltaCodec.apply(base, delta, maxLength);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link DictionaryTrainer}.
+ *
+ * @author Marvin S. Addison
+ */
+public class DictionaryTrainerTest {
+
+    @Test
+    public void testRepeatedStringIncludedOnce() throws Exception {
+        final String common = "org.springframework.webflow.execution.FlowExecution";
+        final List<byte[]> samples = new ArrayList<byte[]>();
+        for (int i = 0; i < 10; i++) {
+            // Filler unique to each sample around the common string, which occurs twice in some samples
+            final char filler = (char) ('a' + i);
+            final StringBuilder sample = new StringBuilder();
+            append(sample, filler, 8 + i * 3);
+            sample.append(common);
+            append(sample, filler, 40);
+            if (i % 2 == 0) {
+                sample.append(common);
+                append(sample, filler, 8);
+            }
+            samples.add(sample.toString().getBytes("US-ASCII"));
+        }
+        final byte[] dictionary = DictionaryTrainer.train(samples, 4096);
+        assertEquals(common, new String(dictionary, "US-ASCII"));
+    }
+
+    private static void append(final StringBuilder sb, final char c, final int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 
 import org.cryptacular.bean.AEADBlockCipherBean;
 import org.cryptacular.bean.BufferedBlockCipherBean;
@@ -83,6 +84,39 @@ public class EncryptedTranscoderTest {
         transcoder2.setCipherBean(cipherBean2);
         transcoder2.setCompression(false);
 
+        // Test case #3
+        // 128-bit AES in GCM mode with compression and pooled buffers
+        final EncryptedTranscoder transcoder3 = new EncryptedTranscoder();
+        transcoder3.setCipherBean(cipherBean1);
+        transcoder3.setCompression(true);
+        transcoder3.setBufferPoolSize(2);
+
+        // Test case #4
+        // 128-bit AES in CBC mode without compression and pooled buffers
+        final EncryptedTranscoder transcoder4 = new EncryptedTranscoder();
+        transcoder4.setCipherBean(cipherBean2);
+        transcoder4.setCompression(false);
+        transcoder4.setBufferPoolSize(2);
+
+        // Test case #5
+        // 128-bit AES in GCM mode with compression and compact serialization
+        final EncryptedTranscoder transcoder5 = new EncryptedTranscoder();
+        transcoder5.setCipherBean(cipherBean1);
+        transcoder5.setCompression(true);
+        transcoder5.setSerializer(new CompactSerializer());
+
+        // Test case #6
+        // 128-bit AES in CBC mode without compression and a class allow-list extended with application types
+        final EncryptedTranscoder transcoder6 = new EncryptedTranscoder();
+        transcoder6.setCipherBean(cipherBean2);
+        transcoder6.setCompression(false);
+        final DeserializationLimits limits6 = new DeserializationLimits();
+        limits6.setAllowedClasses(DeserializationLimits.DEFAULT_ALLOWED_CLASSES);
+        limits6.setAdditionalAllowedClasses(Collections.singletonList("java.net.URL"));
+        final JavaSerializer serializer6 = new JavaSerializer();
+        serializer6.setLimits(limits6);
+        transcoder6.setSerializer(serializer6);
+
         return Arrays.asList(new Object[][] {
                 {
                         transcoder1,
@@ -98,6 +132,24 @@ public class EncryptedTranscoderTest {
                                 "g=1600+Pennsylvania+Avenue+Northwest+Washington,+DC+20500&ie=UTF8&hq=&" +
                                 "hnear=1600+Pennsylvania+Ave+NW,+Washington,+District+of+Columbia,+20500&" +
                                 "ll=38.898521,-77.036517&spn=0.00835,0.007939&z=17&iwloc=A") },
+                {
+                        transcoder3,
+                        "Now we are engaged in a great civil war, testing whether that nation, or any nation so " +
+                                "conceived and so dedicated, can long endure.",
+                },
+                {
+                        transcoder4,
+                        new URL("https://www.google.com/search?q=gettysburg+address"),
+                },
+                {
+                        transcoder5,
+                        "But, in a larger sense, we can not dedicate, we can not consecrate, we can not hallow this " +
+                                "ground.",
+                },
+                {
+                        transcoder6,
+                        new URL("https://www.google.com/search?q=gettysburg+address"),
+                },
         });
     }
 
@@ -0,0 +1,88 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.webflow.execution.FlowExecution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link FlowStateProfiler}.
+ *
+ * @author Marvin S. Addison
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/webflow-config-context.xml")
+public class FlowStateProfilerTest {
+
+    @Autowired
+    private ApplicationContext context;
+
+
+    @Test
+    public void testProfile() throws Exception {
+        final ClientFlowExecutionRepository repository = context.getBean(ClientFlowExecutionRepository.class);
+        final FlowStateProfiler profiler = new FlowStateProfiler(repository);
+        final FlowExecution execution = repository.launch("test", null);
+        execution.getConversationScope().put("small", "x");
+        execution.getActiveSession().getScope().put("large", new byte[10000]);
+        execution.getActiveSession().getViewScope().put("medium", new StringBuilder(new String(new char[1000])));
+
+        final FlowStateProfile profile = profiler.profile(execution);
+        assertEquals("test", profile.getFlowId());
+        assertTrue(profile.getSerializedSize() > 11000);
+        assertTrue(profile.getCompressedSize() < profile.getSerializedSize());
+        // Web Flow keeps attributes of its own in the scopes
+        assertEquals("0:test.flowScope.large", profile.getAttributes().get(0).getName());
+        assertEquals("0:test.viewScope.medium", profile.getAttributes().get(1).getName());
+        boolean found = false;
+        for (FlowStateProfile.Entry entry : profile.getAttributes()) {
+            found |= "conversationScope.small".equals(entry.getName());
+        }
+        assertTrue(found);
+        assertEquals(1, profile.getSessions().size());
+        assertTrue(profile.getSessions().get(0).getSerializedSize() > 11000);
+        assertEquals("[B", profile.getClasses().get(0).getName());
+        assertTrue(profile.getClasses().get(0).getSerializedSize() > 10000);
+        int total = 0;
+        for (FlowStateProfile.Entry entry : profile.getClasses()) {
+            total += entry.getSerializedSize();
+        }
+        assertTrue(total <= profile.getSerializedSize());
+        assertTrue(profile.toString().contains("conversationScope.small"));
+
+        final String key = repository.getKey(execution).toString();
+        assertEquals(profile.getSerializedSize(), profiler.profile(key).getSerializedSize());
+    }
+
+    @Test
+    public void testProfileAll() throws Exception {
+        final FlowStateProfiler profiler = new FlowStateProfiler(
+                context.getBean(ClientFlowExecutionRepository.class));
+        final Map<String, FlowStateProfile> profiles = profiler.profileAll(null);
+        assertEquals(1, profiles.size());
+        assertTrue(profiles.get("test").getSerializedSize() > 0);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Unit test for {@link GzipFormat}.
+ *
+ * @author Marvin S. Addison
+ */
+@RunWith(Parameterized.class)
+public class GzipFormatTest {
+
+    private final byte[] data;
+
+    private final Deflater deflater = GzipFormat.newDeflater();
+
+    private final Inflater inflater = GzipFormat.newInflater();
+
+    private final CRC32 crc = new CRC32();
+
+
+    public GzipFormatTest(final byte[] data) {
+        this.data = data;
+    }
+
+    @Parameters
+    public static Collection<Object[]> data() throws Exception {
+        final byte[] random = new byte[20000];
+        new Random(1).nextBytes(random);
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 50000) {
+            text.append("org.springframework.webflow.engine.impl.FlowSessionImpl ").append(text.length());
+        }
+        return Arrays.asList(new Object[][] {
+                { new byte[0] },
+                { "Four score and seven years ago".getBytes("UTF-8") },
+                { random },
+                { text.toString().getBytes("UTF-8") },
+        });
+    }
+
+    @Test
+    public void testCompressMatchesGzipOutputStream() throws Exception {
+        final BufferOutputStream actual = new BufferOutputStream(16);
+        GzipFormat.compress(this.data, 0, this.data.length, this.deflater, this.crc, actual);
+        // Compress twice with the same instances to exercise reuse
+        actual.reset();
+        GzipFormat.compress(this.data, 0, this.data.length, this.deflater, this.crc, actual);
+        assertArrayEquals(gzip(this.data), actual.toByteArray());
+    }
+
+    @Test
+    public void testDecompressGzipOutputStream() throws Exception {
+        final byte[] compressed = gzip(this.data);
+        final BufferOutputStream actual = new BufferOutputStream(16);
+        GzipFormat.decompress(compressed, 0, compressed.length, this.inflater, this.crc, actual);
+        assertArrayEquals(this.data, actual.toByteArray());
+    }
+
+    @Test(expected = ZipException.class)
+    public void testDecompressCorruptTrailer() throws Exception {
+        final byte[] compressed = gzip(this.data);
+        compressed[compressed.length - 1] ^= 1;
+        GzipFormat.decompress(compressed, 0, compressed.length, this.inflater, this.crc, new BufferOutputStream(16));
+    }
+
+    private static byte[] gzip(final byte[] data) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+}
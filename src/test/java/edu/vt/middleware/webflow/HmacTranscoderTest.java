@@ -0,0 +1,111 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.io.IOException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link HmacTranscoder}.
+ *
+ * @author Marvin S. Addison
+ */
+public class HmacTranscoderTest {
+
+    private static final String TEXT =
+            "Four score and seven years ago our forefathers brought forth upon this continent";
+
+    @Test
+    public void testMacOnly() throws Exception {
+        final HmacTranscoder transcoder = newTranscoder();
+        final byte[] encoded = transcoder.encode(TEXT);
+        assertEquals(TEXT, transcoder.decode(encoded));
+        assertRejected(transcoder, encoded);
+    }
+
+    @Test
+    public void testTruncatedTag() throws Exception {
+        final HmacTranscoder transcoder = newTranscoder();
+        final int fullLength = transcoder.encode(TEXT).length;
+        transcoder.setTagLength(16);
+        final byte[] encoded = transcoder.encode(TEXT);
+        assertEquals(fullLength - 16, encoded.length);
+        assertEquals(TEXT, transcoder.decode(encoded));
+        assertRejected(transcoder, encoded);
+    }
+
+    @Test
+    public void testEncryptThenMac() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final AEADBlockCipherBean cipherBean = new AEADBlockCipherBean();
+        cipherBean.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+        cipherBean.setKeyStore(ksFactory.newInstance());
+        cipherBean.setKeyAlias("aes128");
+        cipherBean.setKeyPassword("changeit");
+        cipherBean.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+        final HmacTranscoder transcoder = newTranscoder();
+        transcoder.setCipherBean(cipherBean);
+        final byte[] encoded = transcoder.encode(TEXT);
+        assertFalse(new String(encoded, "ISO-8859-1").contains("score"));
+        assertEquals(TEXT, transcoder.decode(encoded));
+        assertRejected(transcoder, encoded);
+    }
+
+    private static HmacTranscoder newTranscoder() {
+        final byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+        }
+        final HmacTranscoder transcoder = new HmacTranscoder();
+        transcoder.setKey(new SecretKeySpec(key, "HmacSHA256"));
+        transcoder.setCompressionCodec(new DeflateCodec());
+        return transcoder;
+    }
+
+    /** Asserts that every single-bit modification of the encoded bytes is rejected. */
+    private static void assertRejected(final HmacTranscoder transcoder, final byte[] encoded) throws Exception {
+        for (int i = 0; i < encoded.length; i++) {
+            final byte[] forged = encoded.clone();
+            forged[i] ^= 0x10;
+            try {
+                transcoder.decode(forged);
+                fail("Expected forged payload to be rejected");
+            } catch (IOException e) {
+                assertEquals("Invalid MAC", e.getCause().getMessage());
+            }
+        }
+        try {
+            transcoder.decode(new byte[3]);
+            fail("Expected short payload to be rejected");
+        } catch (IOException e) {
+            assertEquals("Payload too short", e.getCause().getMessage());
+        }
+    }
+}
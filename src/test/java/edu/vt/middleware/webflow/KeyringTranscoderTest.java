@@ -0,0 +1,143 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.CipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link KeyringTranscoder}.
+ *
+ * @author Marvin S. Addison
+ */
+public class KeyringTranscoderTest {
+
+    private static final String TEXT =
+            "Four score and seven years ago our forefathers brought forth upon this continent";
+
+    @Test
+    public void testKeyRotation() throws Exception {
+        final CipherBean oldKey = newCipherBean(1);
+        final CipherBean newKey = newCipherBean(2);
+        final Map<Integer, CipherBean> keys = new HashMap<Integer, CipherBean>();
+        keys.put(1, oldKey);
+        final KeyringTranscoder before = new KeyringTranscoder();
+        before.setCompressionCodec(new DeflateCodec());
+        before.setKeys(keys);
+        before.setActiveKeyId(1);
+        final byte[] encoded = before.encode(TEXT);
+        assertEquals(KeyringTranscoder.MAGIC, encoded[0] & 0xff);
+        assertEquals(KeyringTranscoder.VERSION, encoded[1]);
+        assertEquals(CompressionCodec.DEFLATE, encoded[2]);
+        assertEquals(1, encoded[3]);
+
+        keys.put(2, newKey);
+        final KeyringTranscoder after = new KeyringTranscoder();
+        after.setCompressionCodec(new DeflateCodec());
+        after.setKeys(keys);
+        after.setActiveKeyId(2);
+        assertEquals(TEXT, after.decode(encoded));
+        final byte[] reencoded = after.encode(TEXT);
+        assertEquals(2, reencoded[3]);
+        assertEquals(TEXT, after.decode(reencoded));
+        try {
+            before.decode(reencoded);
+            fail("Expected decoding with unknown key to fail");
+        } catch (IOException e) {
+            assertEquals("Decryption error", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTamperedHeader() throws Exception {
+        final Map<Integer, CipherBean> keys = new HashMap<Integer, CipherBean>();
+        keys.put(7, newCipherBean(7));
+        final KeyringTranscoder transcoder = new KeyringTranscoder();
+        transcoder.setCompressionCodec(new DeflateCodec());
+        transcoder.setKeys(keys);
+        transcoder.setActiveKeyId(7);
+        final byte[] encoded = transcoder.encode(TEXT);
+        encoded[2] = CompressionCodec.NONE;
+        try {
+            transcoder.decode(encoded);
+            fail("Expected tampered codec id to be rejected");
+        } catch (IOException e) {
+            assertEquals("Header codec does not match payload", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testDecodesLegacyPayload() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final AEADBlockCipherBean legacyKey = new AEADBlockCipherBean();
+        legacyKey.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+        legacyKey.setKeyStore(ksFactory.newInstance());
+        legacyKey.setKeyAlias("aes128");
+        legacyKey.setKeyPassword("changeit");
+        legacyKey.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+        final EncryptedTranscoder legacy = new EncryptedTranscoder();
+        legacy.setCipherBean(legacyKey);
+
+        final Map<Integer, CipherBean> keys = new HashMap<Integer, CipherBean>();
+        keys.put(0, newCipherBean(0));
+        final KeyringTranscoder transcoder = new KeyringTranscoder();
+        transcoder.setCipherBean(legacyKey);
+        transcoder.setKeys(keys);
+        transcoder.setActiveKeyId(0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(TEXT, transcoder.decode(legacy.encode(TEXT)));
+        }
+        assertEquals(TEXT, transcoder.decode(transcoder.encode(TEXT)));
+    }
+
+    /** Creates an AES-GCM cipher bean with a key derived from the given seed. */
+    private static CipherBean newCipherBean(final int seed) throws Exception {
+        final byte[] key = new byte[16];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (seed * 31 + i);
+        }
+        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, null);
+        keyStore.setEntry(
+                "key",
+                new KeyStore.SecretKeyEntry(new SecretKeySpec(key, "AES")),
+                new KeyStore.PasswordProtection("changeit".toCharArray()));
+        final AEADBlockCipherBean cipherBean = new AEADBlockCipherBean();
+        cipherBean.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+        cipherBean.setKeyStore(keyStore);
+        cipherBean.setKeyAlias("key");
+        cipherBean.setKeyPassword("changeit");
+        cipherBean.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+        return cipherBean;
+    }
+}
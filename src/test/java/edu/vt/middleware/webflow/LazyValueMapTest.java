@@ -0,0 +1,124 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link LazyValueMap}.
+ *
+ * @author Marvin S. Addison
+ */
+public class LazyValueMapTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (Serializer serializer : serializers()) {
+            final LocalAttributeMap scope = newScope();
+            final LocalAttributeMap restored = (LocalAttributeMap) roundTrip(serializer, scope);
+            assertTrue(CompactSerializer.attributes(restored) instanceof LazyValueMap);
+            assertEquals(scope.asMap(), restored.asMap());
+            final LocalAttributeMap nested = (LocalAttributeMap) restored.get("nested");
+            assertTrue(CompactSerializer.attributes(nested) instanceof LazyValueMap);
+            assertEquals("value", nested.get("key"));
+        }
+    }
+
+    @Test
+    public void testUntouchedValuesWrittenBack() throws Exception {
+        for (Serializer serializer : serializers()) {
+            final byte[] first = serialize(serializer, newScope());
+            LocalAttributeMap restored = (LocalAttributeMap) deserialize(serializer, first);
+            assertTrue(restored.contains("list"));
+            assertEquals(4, restored.size());
+            assertArrayEquals(first, serialize(serializer, restored));
+
+            @SuppressWarnings("unchecked")
+            final List<String> list = (List<String>) restored.get("list");
+            list.add("c");
+            final byte[] second = serialize(serializer, restored);
+            assertFalse(Arrays.equals(first, second));
+            restored = (LocalAttributeMap) deserialize(serializer, second);
+            assertEquals(Arrays.asList("a", "b", "c"), restored.get("list"));
+            assertEquals(new Date(0), restored.get("date"));
+        }
+    }
+
+    @Test
+    public void testValueDecodedOnAccess() throws Exception {
+        final DeserializationLimits limits = new DeserializationLimits();
+        limits.setAllowedClasses(DeserializationLimits.DEFAULT_ALLOWED_CLASSES);
+        final JavaSerializer serializer = new JavaSerializer();
+        serializer.setLazyScopes(true);
+        serializer.setLimits(limits);
+        final LocalAttributeMap scope = newScope();
+        scope.put("url", new URL("https://www.example.com/"));
+        final LocalAttributeMap restored = (LocalAttributeMap) roundTrip(serializer, scope);
+        assertEquals("value", ((LocalAttributeMap) restored.get("nested")).get("key"));
+        try {
+            restored.get("url");
+            fail("Decoded disallowed class");
+        } catch (ClientFlowExecutionRepositoryException e) {
+            assertTrue(e.getMessage().contains("url"));
+        }
+    }
+
+    private static LocalAttributeMap newScope() {
+        final LocalAttributeMap scope = new LocalAttributeMap();
+        scope.put("date", new Date(0));
+        scope.put("list", new ArrayList<String>(Arrays.asList("a", "b")));
+        scope.put("count", 7);
+        final LocalAttributeMap nested = new LocalAttributeMap();
+        nested.put("key", "value");
+        scope.put("nested", nested);
+        return scope;
+    }
+
+    private static Serializer[] serializers() {
+        final JavaSerializer java = new JavaSerializer();
+        java.setLazyScopes(true);
+        final CompactSerializer compact = new CompactSerializer();
+        compact.setLazyScopes(true);
+        return new Serializer[] {java, compact};
+    }
+
+    private static Object roundTrip(final Serializer serializer, final Object o) throws Exception {
+        return deserialize(serializer, serialize(serializer, o));
+    }
+
+    private static byte[] serialize(final Serializer serializer, final Object o) throws Exception {
+        final BufferOutputStream out = new BufferOutputStream(16);
+        serializer.serialize(o, out);
+        return out.toByteArray();
+    }
+
+    private static Object deserialize(final Serializer serializer, final byte[] data) throws Exception {
+        return serializer.deserialize(data, 0, data.length);
+    }
+}
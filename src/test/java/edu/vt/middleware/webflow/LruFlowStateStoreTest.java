@@ -0,0 +1,74 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link LruFlowStateStore}.
+ *
+ * @author Marvin S. Addison
+ */
+public class LruFlowStateStoreTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final LruFlowStateStore store = new LruFlowStateStore();
+        store.setMaxBytes(300);
+        assertTrue(store.put(hash(1), new byte[100]));
+        assertTrue(store.put(hash(2), new byte[100]));
+        assertTrue(store.put(hash(3), new byte[100]));
+        assertEquals(300, store.getByteCount());
+        // Access 1 so that 2 is least recently used
+        assertArrayEquals(new byte[100], store.get(hash(1)));
+        assertTrue(store.put(hash(4), new byte[50]));
+        assertNull(store.get(hash(2)));
+        assertEquals(3, store.getSize());
+        assertEquals(250, store.getByteCount());
+        assertEquals(1, store.getEvictionCount());
+        assertEquals(1, store.getHitCount());
+        assertEquals(1, store.getMissCount());
+    }
+
+    @Test
+    public void testRejectsOversizedState() throws Exception {
+        final LruFlowStateStore store = new LruFlowStateStore();
+        store.setMaxBytes(10);
+        assertFalse(store.put(hash(1), new byte[11]));
+        assertEquals(0, store.getSize());
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        final LruFlowStateStore store = new LruFlowStateStore();
+        store.setOffHeap(true);
+        final byte[] data = {1, 2, 3, 4, 5};
+        store.put(hash(1), data);
+        assertArrayEquals(data, store.get(hash(1)));
+        assertArrayEquals(data, store.get(hash(1)));
+        assertEquals(5, store.getByteCount());
+    }
+
+    private static byte[] hash(final int n) {
+        return new byte[] {(byte) n, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    }
+}
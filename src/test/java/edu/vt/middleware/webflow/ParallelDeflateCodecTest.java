@@ -0,0 +1,95 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link ParallelDeflateCodec}.
+ *
+ * @author Marvin S. Addison
+ */
+public class ParallelDeflateCodecTest {
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        final byte[] data = sample(100000);
+        final ParallelDeflateCodec codec = new ParallelDeflateCodec();
+        codec.setChunkSize(8192);
+        final byte[] sequential = compress(codec, data);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            codec.setExecutor(executor);
+            for (int i = 0; i < 10; i++) {
+                assertArrayEquals(sequential, compress(codec, data));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Chunks without a dictionary would lose the back-references to earlier chunks
+        final BufferOutputStream deflated = new BufferOutputStream(16);
+        new DeflateCodec().compress(data, 0, data.length, deflated);
+        assertTrue(
+                "Expected " + sequential.length + " close to " + deflated.size(),
+                sequential.length < deflated.size() * 11 / 10);
+        final BufferOutputStream decompressed = new BufferOutputStream(16);
+        new ParallelDeflateCodec().decompress(sequential, 0, sequential.length, decompressed);
+        assertArrayEquals(data, decompressed.toByteArray());
+    }
+
+    @Test
+    public void testRejectedChunksCompressedByCaller() throws Exception {
+        final byte[] data = sample(20000);
+        final ParallelDeflateCodec codec = new ParallelDeflateCodec();
+        codec.setChunkSize(1024);
+        final byte[] sequential = compress(codec, data);
+        codec.setExecutor(new Executor() {
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        assertArrayEquals(sequential, compress(codec, data));
+    }
+
+    private static byte[] compress(final ParallelDeflateCodec codec, final byte[] data) throws Exception {
+        final BufferOutputStream compressed = new BufferOutputStream(16);
+        codec.compress(data, 0, data.length, compressed);
+        return compressed.toByteArray();
+    }
+
+    /** Creates text-like data that repeats words over long distances. */
+    private static byte[] sample(final int length) {
+        final Random random = new Random(42);
+        final String[] words = new String[500];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+        }
+        final StringBuilder builder = new StringBuilder(length + 16);
+        while (builder.length() < length) {
+            builder.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return builder.substring(0, length).getBytes();
+    }
+}
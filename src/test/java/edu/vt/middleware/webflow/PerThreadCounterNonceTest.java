@@ -0,0 +1,149 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link PerThreadCounterNonce}.
+ *
+ * @author Marvin S. Addison
+ */
+public class PerThreadCounterNonceTest {
+
+    @Test
+    public void testCounter() throws Exception {
+        final PerThreadCounterNonce nonce = new PerThreadCounterNonce();
+        final byte[] first = nonce.generate();
+        final byte[] second = nonce.generate();
+        assertEquals(PerThreadCounterNonce.LENGTH, first.length);
+        assertEquals(nonce.getLength(), second.length);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(first[i], second[i]);
+        }
+        assertArrayEquals(new byte[] {0, 0, 0, 0}, Arrays.copyOfRange(first, 8, 12));
+        assertArrayEquals(new byte[] {0, 0, 0, 1}, Arrays.copyOfRange(second, 8, 12));
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        final PerThreadCounterNonce nonce = new PerThreadCounterNonce();
+        // More threads than a batch of prefixes, so that batches are exhausted concurrently
+        final int threads = PerThreadCounterNonce.BATCH_SIZE * 2 + 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                    public List<String> call() throws Exception {
+                        final List<String> nonces = new ArrayList<String>();
+                        for (int i = 0; i < 1000; i++) {
+                            nonces.add(Hex.toHexString(nonce.generate()));
+                        }
+                        return nonces;
+                    }
+                }));
+            }
+            final Set<String> all = new HashSet<String>();
+            int count = 0;
+            for (Future<List<String>> result : results) {
+                for (String n : result.get()) {
+                    all.add(n);
+                    count++;
+                }
+            }
+            assertEquals(count, all.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRefillOffRequestThreads() throws Exception {
+        final List<String> drawers = new Vector<String>();
+        final PerThreadCounterNonce nonce = new PerThreadCounterNonce(new SecureRandom() {
+            @Override
+            public void nextBytes(final byte[] bytes) {
+                drawers.add(Thread.currentThread().getName());
+                super.nextBytes(bytes);
+            }
+        });
+        assertEquals(1, drawers.size());
+        final Set<String> all = Collections.synchronizedSet(new HashSet<String>());
+        // Each new thread takes one prefix; wait for the standby batch before the current one is exhausted
+        for (int i = 0; i < PerThreadCounterNonce.BATCH_SIZE * 3; i++) {
+            if (i % PerThreadCounterNonce.BATCH_SIZE == PerThreadCounterNonce.BATCH_SIZE - 1) {
+                for (int wait = 0; wait < 500 && !nonce.hasStandby(); wait++) {
+                    Thread.sleep(10);
+                }
+                assertTrue(nonce.hasStandby());
+            }
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    all.add(Hex.toHexString(nonce.generate()));
+                }
+            };
+            thread.start();
+            thread.join();
+        }
+        assertEquals(PerThreadCounterNonce.BATCH_SIZE * 3, all.size());
+        assertEquals(4, drawers.size());
+        for (String drawer : drawers.subList(1, drawers.size())) {
+            assertEquals(PerThreadCounterNonce.class.getSimpleName(), drawer);
+        }
+    }
+
+    @Test
+    public void testEncryption() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final CachedAEADBlockCipherBean cipherBean = new CachedAEADBlockCipherBean(
+                new AEADBlockCipherSpec("AES", "GCM"), ksFactory.newInstance(), "aes128", "changeit",
+                new PerThreadCounterNonce());
+        final byte[] data = "Four score and seven years ago".getBytes("UTF-8");
+        final byte[] first = cipherBean.encrypt(data);
+        final byte[] second = cipherBean.encrypt(data);
+        assertArrayEquals(data, cipherBean.decrypt(first));
+        assertArrayEquals(data, cipherBean.decrypt(second));
+        assertFalse(Arrays.equals(first, second));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cryptacular.bean.AEADBlockCipherBean;
+import org.cryptacular.bean.KeyStoreFactoryBean;
+import org.cryptacular.io.FileResource;
+import org.cryptacular.spec.AEADBlockCipherSpec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link PlaintextCache}.
+ *
+ * @author Marvin S. Addison
+ */
+public class PlaintextCacheTest {
+
+    @Test
+    public void testGetPut() throws Exception {
+        final PlaintextCache cache = new PlaintextCache();
+        assertNull(cache.get(new byte[] {1, 2, 3}));
+        cache.put(new byte[] {1, 2, 3}, new byte[] {4, 5});
+        assertArrayEquals(new byte[] {4, 5}, cache.get(new byte[] {1, 2, 3}));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        final PlaintextCache cache = new PlaintextCache();
+        cache.setTimeToLive(1);
+        cache.put(new byte[] {1}, new byte[] {2});
+        Thread.sleep(10);
+        assertNull(cache.get(new byte[] {1}));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final PlaintextCache cache = new PlaintextCache();
+        cache.setMaxBytes(16 * 100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new byte[] {(byte) i, (byte) (i >> 8)}, new byte[50]);
+        }
+        assertEquals(1000 - cache.getSize(), cache.getEvictionCount());
+        assertEquals(50L * cache.getSize(), cache.getByteCount());
+        assertTrue(cache.getByteCount() <= 16 * 100);
+    }
+
+    @Test
+    public void testTranscoderDecodesIndependentCopies() throws Exception {
+        final KeyStoreFactoryBean ksFactory = new KeyStoreFactoryBean();
+        ksFactory.setResource(new FileResource(new File("src/test/resources/test-keystore.jceks")));
+        ksFactory.setType("JCEKS");
+        ksFactory.setPassword("changeit");
+        final AEADBlockCipherBean cipherBean = new AEADBlockCipherBean();
+        cipherBean.setBlockCipherSpec(new AEADBlockCipherSpec("AES", "GCM"));
+        cipherBean.setKeyStore(ksFactory.newInstance());
+        cipherBean.setKeyAlias("aes128");
+        cipherBean.setKeyPassword("changeit");
+        cipherBean.setNonce(new org.cryptacular.generator.sp80038d.RBGNonce());
+        final PlaintextCache cache = new PlaintextCache();
+        final EncryptedTranscoder transcoder = new EncryptedTranscoder();
+        transcoder.setCipherBean(cipherBean);
+        transcoder.setPlaintextCache(cache);
+
+        final List<String> list = new ArrayList<String>();
+        list.add("Four score and seven years ago");
+        final byte[] encoded = transcoder.encode(list);
+        final Object first = transcoder.decode(encoded);
+        final Object second = transcoder.decode(encoded);
+        assertEquals(list, first);
+        assertEquals(list, second);
+        assertNotSame(first, second);
+        assertEquals(2, cache.getHitCount());
+
+        // Decoding without the cache populates it
+        final EncryptedTranscoder uncached = new EncryptedTranscoder();
+        uncached.setCipherBean(cipherBean);
+        final byte[] other = uncached.encode(list);
+        assertEquals(list, transcoder.decode(other));
+        assertEquals(list, transcoder.decode(other));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link ReplayGuard}.
+ *
+ * @author Marvin S. Addison
+ */
+public class ReplayGuardTest {
+
+    @Test
+    public void testConsume() throws Exception {
+        final ReplayGuard guard = new ReplayGuard();
+        guard.setExpectedKeys(1000);
+        final UUID id = UUID.randomUUID();
+        assertFalse(guard.isConsumed(id));
+        guard.consume(id);
+        assertTrue(guard.isConsumed(id));
+        assertFalse(guard.isConsumed(UUID.randomUUID()));
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        final ReplayGuard guard = new ReplayGuard();
+        guard.setExpectedKeys(1000);
+        guard.setWindow(7000);
+        final long start = System.nanoTime();
+        final long second = TimeUnit.SECONDS.toNanos(1);
+        final UUID first = UUID.randomUUID();
+        guard.consume(first, start);
+        final UUID later = UUID.randomUUID();
+        guard.consume(later, start + 3 * second);
+        assertTrue(guard.isConsumed(first, start + 6 * second));
+        assertTrue(guard.isConsumed(later, start + 6 * second));
+        // The interval of the first id leaves the window after 7 seconds
+        assertFalse(guard.isConsumed(first, start + 8 * second));
+        assertTrue(guard.isConsumed(later, start + 8 * second));
+        // Every interval leaves the window after a long period of inactivity
+        assertFalse(guard.isConsumed(later, start + 100 * second));
+    }
+
+    @Test
+    public void testFalsePositiveRate() throws Exception {
+        final ReplayGuard guard = new ReplayGuard();
+        guard.setExpectedKeys(70000);
+        guard.setFalsePositiveRate(0.01);
+        for (int i = 0; i < 10000; i++) {
+            guard.consume(UUID.randomUUID());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (guard.isConsumed(UUID.randomUUID())) {
+                falsePositives++;
+            }
+        }
+        // One of seven intervals holds its expected number of keys, so the rate is about a seventh of the target
+        assertTrue("False positives: " + falsePositives, falsePositives < 300);
+
+        final long memory = guard.getMemorySize();
+        final int hashCount = guard.getHashCount();
+        guard.setMaxMemory(memory / 4);
+        assertTrue(guard.getMemorySize() <= memory / 4);
+        assertTrue(guard.getHashCount() + " < " + hashCount, guard.getHashCount() < hashCount);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link RestrictedObjectInputStream}.
+ *
+ * @author Marvin S. Addison
+ */
+public class RestrictedObjectInputStreamTest {
+
+    @Test
+    public void testJvmWideFilter() throws Exception {
+        Assume.assumeTrue(setSerialFilter("!" + Forbidden.class.getName()));
+        final DeserializationLimits limits = new DeserializationLimits();
+        limits.setMaxDepth(5);
+        final JavaSerializer serializer = new JavaSerializer();
+        serializer.setLimits(limits);
+
+        // Input within the limits is subject to the JVM-wide filter
+        final List<Object> forbidden = new ArrayList<Object>();
+        forbidden.add(new Forbidden());
+        assertRejected(serializer, forbidden);
+        final List<Object> allowed = new ArrayList<Object>();
+        allowed.add("x");
+        assertEquals(allowed, roundTrip(serializer, allowed));
+
+        // Limits still apply
+        List<Object> nested = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            final List<Object> outer = new ArrayList<Object>();
+            outer.add(nested);
+            nested = outer;
+        }
+        assertRejected(serializer, nested);
+    }
+
+    /**
+     * Sets the JVM-wide serialization filter through the Java 9+ API.
+     *
+     * @return True if the filter is in effect, false if the API is unavailable or another filter is already set.
+     */
+    private static boolean setSerialFilter(final String pattern) throws Exception {
+        final Class<?> filterType;
+        try {
+            filterType = Class.forName("java.io.ObjectInputFilter");
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+        final Class<?> config = Class.forName("java.io.ObjectInputFilter$Config");
+        final Method getSerialFilter = config.getMethod("getSerialFilter");
+        final Object current = getSerialFilter.invoke(null);
+        if (current == null) {
+            final Object filter = config.getMethod("createFilter", String.class).invoke(null, pattern);
+            config.getMethod("setSerialFilter", filterType).invoke(null, filter);
+            return true;
+        }
+        return pattern.equals(current.toString());
+    }
+
+    private static Object roundTrip(final JavaSerializer serializer, final Object o) throws Exception {
+        final BufferOutputStream out = new BufferOutputStream(16);
+        serializer.serialize(o, out);
+        return serializer.deserialize(out.getBuffer(), 0, out.size());
+    }
+
+    private static void assertRejected(final JavaSerializer serializer, final Object o) throws Exception {
+        try {
+            roundTrip(serializer, o);
+            fail("Expected " + o + " to be rejected");
+        } catch (InvalidClassException e) {
+            // Expected
+        }
+    }
+
+
+    /** Class rejected by the JVM-wide filter. */
+    static class Forbidden implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Virginia Tech licenses this file to you under the Apache
+ * License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.  You may obtain
+ * a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.vt.middleware.webflow;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test for {@link SnapshotHistory}.
+ *
+ * @author Marvin S. Addison
+ */
+public class SnapshotHistoryTest {
+
+    @Test
+    public void testWindow() throws Exception {
+        final SnapshotHistory history = new SnapshotHistory();
+        history.setWindowSize(2);
+        final UUID conversation = UUID.randomUUID();
+        final UUID[] ids = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+        for (UUID id : ids) {
+            history.put(conversation, id, new byte[10]);
+        }
+        assertNull(history.get(ids[0]));
+        assertEquals(conversation, history.get(ids[1]).conversation);
+        assertNotNull(history.get(ids[2]));
+        assertEquals(2, history.getSize());
+        assertEquals(20, history.getByteCount());
+        assertEquals(1, history.getEvictionCount());
+        history.remove(ids[1]);
+        assertEquals(1, history.getSize());
+        history.removeConversation(conversation);
+        assertEquals(0, history.getSize());
+        assertEquals(0, history.getConversationCount());
+        assertEquals(0, history.getByteCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedConversation() throws Exception {
+        final SnapshotHistory history = new SnapshotHistory();
+        history.setMaxBytes(300);
+        final UUID a = UUID.randomUUID();
+        final UUID b = UUID.randomUUID();
+        final UUID c = UUID.randomUUID();
+        history.put(a, a, new byte[100]);
+        history.put(b, b, new byte[100]);
+        final UUID next = UUID.randomUUID();
+        history.put(b, next, new byte[50]);
+        // Access a so that b is least recently used
+        assertNotNull(history.get(a));
+        history.put(c, c, new byte[100]);
+        assertNull(history.get(b));
+        assertNull(history.get(next));
+        assertEquals(2, history.getConversationCount());
+        assertEquals(200, history.getByteCount());
+        assertEquals(2, history.getEvictionCount());
+        // Oversized snapshots are not retained
+        history.put(c, UUID.randomUUID(), new byte[301]);
+        assertEquals(2, history.getSize());
+    }
+}